@@ -0,0 +1,359 @@
+package de.uni_stuttgart.beehts.analysis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+
+/**
+ * An SRE compiled into a table driven probabilistic automaton to calculate
+ * the probability of many Strings quickly.<br>
+ *
+ * Every character of every atomic SRE becomes a state (a "position"), and
+ * there is one additional initial state. The transitions are stored as a
+ * sparse table: for every state and character, a contiguous range of
+ * successor states with their probabilities. There are no epsilon
+ * transitions, so calculating the probability of a String w takes
+ * O(|w| * active states) time. Apart from a buffer that is allocated once per
+ * thread, no memory is allocated.<br>
+ *
+ * Compiled SREs are immutable and may be shared between threads. Note that
+ * subexpressions that are shared within the SRE are compiled once per
+ * occurrence, as every occurrence has its own continuation.
+ */
+public class CompiledSRE {
+
+	/** The character consumed when entering a state, indexed by state. */
+	private final char[] stateCharacter;
+	/** The probability to stop in a state, indexed by state. */
+	private final double[] finalProbability;
+	/** The range of transition groups of a state, indexed by state. */
+	private final int[] groupStart;
+	/** The character of every transition group, ascending per state. */
+	private final char[] groupCharacter;
+	/** The range of transitions of a group, indexed by group. */
+	private final int[] transitionStart;
+	private final int[] transitionTarget;
+	private final double[] transitionProbability;
+
+	private final ThreadLocal<Buffers> buffers;
+
+	private CompiledSRE(Builder b) {
+		int states = b.stateCharacter.length();
+		stateCharacter = b.stateCharacter.toString().toCharArray();
+		finalProbability = new double[states];
+		groupStart = new int[states + 1];
+
+		List<Character> groupChars = new ArrayList<>();
+		List<Integer> transStart = new ArrayList<>();
+		int transitions = b.follow.stream().mapToInt(Map::size).sum();
+		transitionTarget = new int[transitions];
+		transitionProbability = new double[transitions];
+
+		int t = 0;
+		for (int q = 0; q < states; q++) {
+			finalProbability[q] = b.finalProbability.getOrDefault(q, 0.);
+			groupStart[q] = groupChars.size();
+			// sort the successors by character (and state) to group them
+			int[] targets = b.follow.get(q).keySet().stream()
+					.sorted((i, j) -> stateCharacter[i] != stateCharacter[j]
+							? Character.compare(stateCharacter[i], stateCharacter[j])
+							: Integer.compare(i, j))
+					.mapToInt(i -> i).toArray();
+			for (int target : targets) {
+				if (groupChars.size() == groupStart[q]
+						|| groupChars.get(groupChars.size() - 1) != stateCharacter[target]) {
+					groupChars.add(stateCharacter[target]);
+					transStart.add(t);
+				}
+				transitionTarget[t] = target;
+				transitionProbability[t] = b.follow.get(q).get(target);
+				t++;
+			}
+		}
+		groupStart[states] = groupChars.size();
+		transStart.add(t);
+
+		groupCharacter = new char[groupChars.size()];
+		for (int i = 0; i < groupCharacter.length; i++) {
+			groupCharacter[i] = groupChars.get(i);
+		}
+		transitionStart = transStart.stream().mapToInt(i -> i).toArray();
+
+		buffers = ThreadLocal.withInitial(() -> new Buffers(states));
+	}
+
+	/**
+	 * Compile an SRE.
+	 *
+	 * @param sre
+	 *            the SRE to compile.
+	 * @return the compiled SRE.
+	 */
+	public static CompiledSRE compile(SRE sre) {
+		return new CompiledSRE(new Builder(sre));
+	}
+
+	/**
+	 * Get the number of states of the automaton, including the initial state.
+	 *
+	 * @return the number of states.
+	 */
+	public int getNumberOfStates() {
+		return stateCharacter.length;
+	}
+
+	/**
+	 * Get the number of transitions of the automaton.
+	 *
+	 * @return the number of transitions.
+	 */
+	public int getNumberOfTransitions() {
+		return transitionTarget.length;
+	}
+
+	/**
+	 * Calculate the probability for a given String. This yields the same
+	 * result as {@link SRE#getProbability(String)} for the compiled SRE.
+	 *
+	 * @param string
+	 *            The string to calculate the probability for.
+	 * @return The probability.
+	 */
+	public double getProbability(CharSequence string) {
+		Buffers b = buffers.get();
+		double[] current = b.current, next = b.next;
+		int[] active = b.active, nextActive = b.nextActive;
+		int numActive = 1;
+		active[0] = 0;
+		current[0] = 1;
+
+		for (int pos = 0; pos < string.length() && numActive > 0; pos++) {
+			char c = string.charAt(pos);
+			int numNextActive = 0;
+			b.nextGeneration();
+			for (int i = 0; i < numActive; i++) {
+				int q = active[i];
+				int group = findGroup(q, c);
+				if (group < 0) {
+					continue;
+				}
+				for (int t = transitionStart[group]; t < transitionStart[group + 1]; t++) {
+					int target = transitionTarget[t];
+					if (b.stamp[target] != b.generation) {
+						b.stamp[target] = b.generation;
+						next[target] = 0;
+						nextActive[numNextActive++] = target;
+					}
+					next[target] += current[q] * transitionProbability[t];
+				}
+			}
+			double[] tmpP = current;
+			current = next;
+			next = tmpP;
+			int[] tmpA = active;
+			active = nextActive;
+			nextActive = tmpA;
+			numActive = numNextActive;
+		}
+
+		double p = 0;
+		for (int i = 0; i < numActive; i++) {
+			p += current[active[i]] * finalProbability[active[i]];
+		}
+		return p;
+	}
+
+	/**
+	 * Find the transition group of a state for a character by binary search.
+	 *
+	 * @return the index of the group or -1 if there is none.
+	 */
+	private int findGroup(int state, char c) {
+		int low = groupStart[state], high = groupStart[state + 1] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (groupCharacter[mid] < c) {
+				low = mid + 1;
+			} else if (groupCharacter[mid] > c) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The working memory of a thread.
+	 */
+	private static class Buffers {
+
+		public final double[] current, next;
+		public final int[] active, nextActive;
+		/** marks the states already reached in the current step */
+		public final int[] stamp;
+		public int generation = 0;
+
+		public Buffers(int states) {
+			current = new double[states];
+			next = new double[states];
+			active = new int[states];
+			nextActive = new int[states];
+			stamp = new int[states];
+		}
+
+		public void nextGeneration() {
+			if (generation == Integer.MAX_VALUE) {
+				Arrays.fill(stamp, 0);
+				generation = 0;
+			}
+			generation++;
+		}
+	}
+
+	/**
+	 * The part of the automaton that belongs to a subexpression. The
+	 * transitions within the fragment are stored directly in the builder.
+	 */
+	private static class Fragment {
+
+		/** the probability of each state to be the first one reached */
+		public Map<Integer, Double> start = new HashMap<>();
+		/** the probability to leave the fragment after each state */
+		public Map<Integer, Double> end = new HashMap<>();
+		/** the probability to pass the fragment without consuming anything */
+		public double epsilon = 0;
+	}
+
+	/**
+	 * Builds the automaton bottom-up, computing the first states, last states
+	 * and following states of every subexpression (Glushkov construction).
+	 */
+	private static class Builder {
+
+		public final StringBuilder stateCharacter = new StringBuilder();
+		public final List<Map<Integer, Double>> follow = new ArrayList<>();
+		public final Map<Integer, Double> finalProbability;
+
+		public Builder(SRE sre) {
+			// the initial state
+			addState('\0');
+
+			Fragment root = build(sre);
+			root.start.forEach((q, p) -> addFollow(0, q, p));
+			finalProbability = root.end;
+			finalProbability.put(0, root.epsilon);
+		}
+
+		private Fragment build(SRE sre) {
+			Deque<SRE> nodes = new ArrayDeque<>();
+			Deque<Integer> nextChild = new ArrayDeque<>();
+			Deque<List<Fragment>> childFragments = new ArrayDeque<>();
+			nodes.push(sre);
+			nextChild.push(0);
+			childFragments.push(new ArrayList<>());
+
+			while (true) {
+				SRE[] children = nodes.peek().getChildren();
+				int i = nextChild.pop();
+				if (i < children.length) {
+					nextChild.push(i + 1);
+					nodes.push(children[i]);
+					nextChild.push(0);
+					childFragments.push(new ArrayList<>());
+				} else {
+					Fragment f = combine(nodes.pop(), childFragments.pop());
+					if (nodes.isEmpty()) {
+						return f;
+					}
+					childFragments.peek().add(f);
+				}
+			}
+		}
+
+		private Fragment combine(SRE sre, List<Fragment> children) {
+			Fragment f = new Fragment();
+			switch (sre.getType()) {
+			case ATOMIC: {
+				String c = ((SREAtomic) sre).getCharacter();
+				if (c.isEmpty()) {
+					f.epsilon = 1;
+					break;
+				}
+				int last = addState(c.charAt(0));
+				f.start.put(last, 1.);
+				for (int i = 1; i < c.length(); i++) {
+					int q = addState(c.charAt(i));
+					addFollow(last, q, 1);
+					last = q;
+				}
+				f.end.put(last, 1.);
+				break;
+			}
+			case SUM: {
+				int[] rates = ((SRESum) sre).getRates();
+				double rateSum = 0;
+				for (int rate : rates) {
+					rateSum += rate;
+				}
+				for (int i = 0; i < rates.length && rateSum > 0; i++) {
+					double w = rates[i] / rateSum;
+					Fragment child = children.get(i);
+					child.start.forEach((q, p) -> f.start.merge(q, w * p, Double::sum));
+					f.end.putAll(child.end);
+					f.epsilon += w * child.epsilon;
+				}
+				break;
+			}
+			case CAT: {
+				f.epsilon = 1;
+				for (Fragment child : children) {
+					// leaving the previous part means entering this one
+					f.end.forEach((p, pEnd) -> child.start.forEach((q, pStart) -> addFollow(p, q, pEnd * pStart)));
+					double eps = f.epsilon;
+					child.start.forEach((q, p) -> f.start.merge(q, eps * p, Double::sum));
+					f.end.replaceAll((q, p) -> p * child.epsilon);
+					f.end.putAll(child.end);
+					f.epsilon *= child.epsilon;
+				}
+				break;
+			}
+			case KLEENE: {
+				Fragment child = children.get(0);
+				double r = ((SREKleene) sre).getRepetitionRate();
+				// any number of iterations may pass without consuming anything
+				double denominator = 1 - r * child.epsilon;
+				double z = denominator <= 0 ? 0 : 1 / denominator;
+				child.end.forEach((p, pEnd) -> child.start
+						.forEach((q, pStart) -> addFollow(p, q, pEnd * r * z * pStart)));
+				child.start.forEach((q, p) -> f.start.put(q, p * r * z));
+				child.end.forEach((q, p) -> f.end.put(q, p * (1 - r) * z));
+				f.epsilon = (1 - r) * z;
+				break;
+			}
+			default:
+				throw new IllegalArgumentException();
+			}
+			return f;
+		}
+
+		private int addState(char c) {
+			stateCharacter.append(c);
+			follow.add(new HashMap<>());
+			return follow.size() - 1;
+		}
+
+		private void addFollow(int from, int to, double p) {
+			if (p != 0) {
+				follow.get(from).merge(to, p, Double::sum);
+			}
+		}
+	}
+}
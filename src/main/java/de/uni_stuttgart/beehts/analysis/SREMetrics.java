@@ -0,0 +1,185 @@
+package de.uni_stuttgart.beehts.analysis;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.transformation.SRE2DTMCDelta;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * This class calculates size metrics of an SRE in one pass over its distinct
+ * nodes, e.g. to decide on a strategy before transforming it.<br>
+ *
+ * SREs created by a DTMC to SRE transformation share subexpressions, so they
+ * are DAGs whose expanded tree may be exponentially larger. Metrics that refer
+ * to the expanded tree are therefore calculated with saturating arithmetic:
+ * {@link Long#MAX_VALUE} means that the value does not fit into a long.
+ */
+public class SREMetrics {
+
+	private final long atomics;
+	private final long operators;
+	private final long tokens;
+	private final long dtmcNodes;
+	private final long dtmcEdges;
+	private final int depth;
+	private final int distinctNodes;
+
+	/**
+	 * Constructor. Calculates all metrics.
+	 *
+	 * @param sre
+	 *            the SRE to measure.
+	 */
+	public SREMetrics(SRE sre) {
+		List<SRE> order = SREHelpers.postOrder(sre);
+		Map<SRE, Integer> index = new IdentityHashMap<>();
+		long[] atomics = new long[order.size()];
+		long[] operators = new long[order.size()];
+		long[] tokens = new long[order.size()];
+		long[] nodes = new long[order.size()];
+		long[] edges = new long[order.size()];
+		int[] depth = new int[order.size()];
+
+		for (int i = 0; i < order.size(); i++) {
+			SRE node = order.get(i);
+			index.put(node, i);
+			SRE[] children = node.getChildren();
+			for (SRE child : children) {
+				int c = index.get(child);
+				atomics[i] = add(atomics[i], atomics[c]);
+				operators[i] = add(operators[i], operators[c]);
+				tokens[i] = add(tokens[i], tokens[c]);
+				nodes[i] = add(nodes[i], nodes[c]);
+				edges[i] = add(edges[i], edges[c]);
+				depth[i] = Math.max(depth[i], depth[c]);
+			}
+			depth[i]++;
+
+			// the tokens of the String representation and the nodes and edges
+			// created by SRE2DTMCDelta for this node itself
+			int k = children.length;
+			switch (node.getType()) {
+			case ATOMIC:
+				atomics[i] = 1;
+				tokens[i] = 1;
+				nodes[i] = 2;
+				edges[i] = 1;
+				break;
+			case CAT:
+				operators[i] = add(operators[i], 1);
+				tokens[i] = add(tokens[i], k + 1);
+				nodes[i] = add(nodes[i], 2);
+				edges[i] = add(edges[i], k + 1);
+				break;
+			case SUM:
+				operators[i] = add(operators[i], 1);
+				tokens[i] = add(tokens[i], 2 * (long) k + 1);
+				nodes[i] = add(nodes[i], 2);
+				edges[i] = add(edges[i], 2 * (long) k);
+				break;
+			case KLEENE:
+				operators[i] = add(operators[i], 1);
+				tokens[i] = add(tokens[i], 3);
+				nodes[i] = add(nodes[i], 3);
+				edges[i] = add(edges[i], 4);
+				break;
+			default:
+				throw new IllegalArgumentException();
+			}
+		}
+
+		int root = order.size() - 1;
+		this.atomics = atomics[root];
+		this.operators = operators[root];
+		this.tokens = tokens[root];
+		this.dtmcNodes = nodes[root];
+		this.dtmcEdges = edges[root];
+		this.depth = depth[root];
+		this.distinctNodes = order.size();
+	}
+
+	/**
+	 * Get the number of atomic SREs in the expanded tree.
+	 *
+	 * @return the number of atomic SREs (saturated).
+	 */
+	public long getAtomicCount() {
+		return atomics;
+	}
+
+	/**
+	 * Get the number of sums, concatenations and Kleene iterations in the
+	 * expanded tree.
+	 *
+	 * @return the number of operators (saturated).
+	 */
+	public long getOperatorCount() {
+		return operators;
+	}
+
+	/**
+	 * Get the number of nodes of the expanded tree.
+	 *
+	 * @return the number of nodes (saturated).
+	 */
+	public long getExpandedSize() {
+		return add(atomics, operators);
+	}
+
+	/**
+	 * Get the number of tokens of the String representation, that is atomic
+	 * SREs, operators, rates and parentheses.
+	 *
+	 * @return the number of tokens (saturated).
+	 */
+	public long getTokenCount() {
+		return tokens;
+	}
+
+	/**
+	 * Get the number of distinct nodes, that is, every shared subexpression is
+	 * counted once.
+	 *
+	 * @return the number of nodes of the DAG.
+	 */
+	public int getDistinctNodeCount() {
+		return distinctNodes;
+	}
+
+	/**
+	 * Get the depth, that is, the number of nodes on the longest path from the
+	 * root to an atomic SRE.
+	 *
+	 * @return the depth.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Get the number of nodes of the DTMC created by {@link SRE2DTMCDelta}.
+	 *
+	 * @return the number of nodes (saturated).
+	 */
+	public long getProjectedDTMCNodeCount() {
+		return dtmcNodes;
+	}
+
+	/**
+	 * Get the number of edges of the DTMC created by {@link SRE2DTMCDelta}.
+	 *
+	 * @return the number of edges (saturated).
+	 */
+	public long getProjectedDTMCEdgeCount() {
+		return dtmcEdges;
+	}
+
+	private static long add(long x, long y) {
+		long sum = x + y;
+		// overflow iff both operands have a different sign than the result
+		return ((x ^ sum) & (y ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+	}
+}
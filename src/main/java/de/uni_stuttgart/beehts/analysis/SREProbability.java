@@ -0,0 +1,268 @@
+package de.uni_stuttgart.beehts.analysis;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * This class calculates the exact probability of Strings under an SRE.<br>
+ *
+ * For a String w of length n, the probability that a subexpression produces
+ * the substring w[i..j) is stored in a span table for every distinct
+ * subexpression. The tables are filled bottom-up, hence subexpressions that
+ * are shared (the same SRE object referenced multiple times) are evaluated
+ * only once. The probability of producing the empty String is precomputed for
+ * every subexpression, as it is independent of the String and needed to
+ * resolve the self reference of Kleene iterations.<br>
+ *
+ * The evaluation takes O(s * n³) time in the worst case, where s is the number
+ * of distinct subexpressions. Instances are immutable after construction and
+ * may be shared between threads.
+ */
+public class SREProbability {
+
+	private final SRE sre;
+	/** All distinct subexpressions, every one listed after its children. */
+	private final List<SRE> order;
+	/** The probability of every subexpression to produce the empty String. */
+	private final Map<SRE, Double> epsilon = new IdentityHashMap<>();
+	/** The number of distinct parents of every subexpression. */
+	private final Map<SRE, Integer> parents = new IdentityHashMap<>();
+
+	/**
+	 * Constructor. Prepares the evaluation of Strings.
+	 *
+	 * @param sre
+	 *            the SRE to evaluate Strings with.
+	 */
+	public SREProbability(SRE sre) {
+		this.sre = sre;
+		this.order = SREHelpers.postOrder(sre);
+
+		for (SRE node : order) {
+			epsilon.put(node, calculateEpsilon(node));
+			for (SRE child : distinctChildren(node)) {
+				parents.merge(child, 1, Integer::sum);
+			}
+		}
+	}
+
+	/**
+	 * Get the SRE this evaluator is built for.
+	 *
+	 * @return the SRE.
+	 */
+	public SRE getSRE() {
+		return sre;
+	}
+
+	/**
+	 * Get the probability that the SRE produces the empty String.
+	 *
+	 * @return The probability.
+	 */
+	public double getEpsilonProbability() {
+		return epsilon.get(sre);
+	}
+
+	/**
+	 * Get the probability that a subexpression of the SRE produces the empty
+	 * String.
+	 *
+	 * @param subexpression
+	 *            the subexpression (compared by identity).
+	 * @return The probability.
+	 */
+	public double getEpsilonProbability(SRE subexpression) {
+		Double p = epsilon.get(subexpression);
+		if (p == null) {
+			throw new IllegalArgumentException("The SRE " + subexpression + " is not part of the SRE.");
+		}
+		return p;
+	}
+
+	/**
+	 * Calculate the probability for a given String.
+	 *
+	 * @param string
+	 *            The string to calculate the probability for.
+	 * @return The probability.
+	 */
+	public double getProbability(String string) {
+		if (string.isEmpty()) {
+			return getEpsilonProbability();
+		}
+
+		Map<SRE, double[][]> spans = new IdentityHashMap<>();
+		Map<SRE, Integer> remainingParents = new IdentityHashMap<>(parents);
+		for (SRE node : order) {
+			if (node.getType() != SRE.Type.ATOMIC) {
+				spans.put(node, calculateSpans(node, string, spans));
+			}
+			// tables of children are not needed anymore when all parents are done
+			for (SRE child : distinctChildren(node)) {
+				if (remainingParents.merge(child, -1, Integer::sum) == 0) {
+					spans.remove(child);
+				}
+			}
+		}
+		return span(sre, string, 0, string.length(), spans);
+	}
+
+	/**
+	 * The probability that a subexpression produces the substring from start
+	 * (inclusive) to end (exclusive). For atomic SREs this is calculated
+	 * directly, for all others it is looked up in the span tables.
+	 */
+	private double span(SRE node, String string, int start, int end, Map<SRE, double[][]> spans) {
+		if (start == end) {
+			return epsilon.get(node);
+		} else if (node.getType() == SRE.Type.ATOMIC) {
+			String c = ((SREAtomic) node).getCharacter();
+			return c.length() == end - start && string.startsWith(c, start) ? 1 : 0;
+		} else {
+			return spans.get(node)[start][end - start];
+		}
+	}
+
+	/**
+	 * Fill the span table of a non-atomic subexpression. The tables of its
+	 * children need to be calculated already.<br>
+	 * The table is indexed by start position and length of the span to
+	 * store only the upper triangle.
+	 */
+	private double[][] calculateSpans(SRE node, String string, Map<SRE, double[][]> spans) {
+		int n = string.length();
+		double[][] table = new double[n + 1][];
+		for (int i = 0; i <= n; i++) {
+			table[i] = new double[n - i + 1];
+		}
+
+		switch (node.getType()) {
+		case SUM: {
+			SRESum sum = (SRESum) node;
+			double rateSum = rateSum(sum);
+			for (int k = 0; k < sum.getSubnodes().length; k++) {
+				if (rateSum <= 0 || sum.getRates()[k] == 0) {
+					continue;
+				}
+				double weight = sum.getRates()[k] / rateSum;
+				SRE child = sum.getSubnodes()[k];
+				for (int i = 0; i <= n; i++) {
+					for (int j = i; j <= n; j++) {
+						table[i][j - i] += weight * span(child, string, i, j, spans);
+					}
+				}
+			}
+			break;
+		}
+		case CAT: {
+			// for every start position, push the distribution of end positions
+			// through the concatenated subexpressions
+			SRE[] subnodes = ((SREConcat) node).getSubnodes();
+			double[] current = new double[n + 1];
+			double[] next = new double[n + 1];
+			for (int i = 0; i <= n; i++) {
+				Arrays.fill(current, 0);
+				current[i] = 1;
+				for (SRE child : subnodes) {
+					Arrays.fill(next, 0);
+					for (int k = i; k <= n; k++) {
+						if (current[k] == 0) {
+							continue;
+						}
+						for (int j = k; j <= n; j++) {
+							next[j] += current[k] * span(child, string, k, j, spans);
+						}
+					}
+					double[] tmp = current;
+					current = next;
+					next = tmp;
+				}
+				for (int j = i; j <= n; j++) {
+					table[i][j - i] = current[j];
+				}
+			}
+			break;
+		}
+		case KLEENE: {
+			// P(i, j) = (1 - p) * [i == j] + p * sum_k P_child(i, k) * P(k, j),
+			// where the term with k == i refers to P(i, j) itself and is
+			// therefore moved to the left hand side.
+			SREKleene kleene = (SREKleene) node;
+			SRE child = kleene.getChild();
+			double p = kleene.getRepetitionRate();
+			double denominator = 1 - p * epsilon.get(child);
+			for (int i = n; i >= 0; i--) {
+				table[i][0] = epsilon.get(node);
+				for (int j = i + 1; j <= n; j++) {
+					double sum = 0;
+					for (int k = i + 1; k <= j; k++) {
+						sum += span(child, string, i, k, spans) * table[k][j - k];
+					}
+					table[i][j - i] = denominator <= 0 ? 0 : p * sum / denominator;
+				}
+			}
+			break;
+		}
+		case ATOMIC: // fallthrough, atomic SREs have no table
+		default:
+			throw new IllegalArgumentException();
+		}
+		return table;
+	}
+
+	private double calculateEpsilon(SRE node) {
+		switch (node.getType()) {
+		case ATOMIC:
+			return ((SREAtomic) node).getCharacter().isEmpty() ? 1 : 0;
+		case SUM: {
+			SRESum sum = (SRESum) node;
+			double rateSum = rateSum(sum);
+			double p = 0;
+			for (int i = 0; i < sum.getSubnodes().length && rateSum > 0; i++) {
+				p += epsilon.get(sum.getSubnodes()[i]) * sum.getRates()[i] / rateSum;
+			}
+			return p;
+		}
+		case CAT: {
+			double p = 1;
+			for (SRE child : ((SREConcat) node).getSubnodes()) {
+				p *= epsilon.get(child);
+			}
+			return p;
+		}
+		case KLEENE: {
+			// sum_{i=0}^inf{(1-p) * (p * e)^i} where e is the epsilon
+			// probability of the child
+			SREKleene kleene = (SREKleene) node;
+			double p = kleene.getRepetitionRate();
+			double denominator = 1 - p * epsilon.get(kleene.getChild());
+			return denominator <= 0 ? 0 : (1 - p) / denominator;
+		}
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private static double rateSum(SRESum sum) {
+		double rateSum = 0;
+		for (int rate : sum.getRates()) {
+			rateSum += rate;
+		}
+		return rateSum;
+	}
+
+	private static Iterable<SRE> distinctChildren(SRE node) {
+		Map<SRE, SRE> distinct = new IdentityHashMap<>();
+		for (SRE child : node.getChildren()) {
+			distinct.put(child, child);
+		}
+		return distinct.keySet();
+	}
+}
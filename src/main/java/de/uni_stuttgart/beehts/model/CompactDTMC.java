@@ -0,0 +1,157 @@
+package de.uni_stuttgart.beehts.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.DTMC.Edge;
+import de.uni_stuttgart.beehts.model.DTMC.Node;
+
+/**
+ * An immutable DTMC stored in primitive arrays in compressed sparse row (CSR)
+ * form: the nodes are numbered from 0 and the edges leaving node n are the
+ * edges from {@code getEdgeStart(n)} (inclusive) to {@code getEdgeStart(n + 1)}
+ * (exclusive). The characters of the edges are indices into a table of
+ * symbols.<br>
+ *
+ * A compact DTMC needs a small fraction of the memory of a {@link DTMC} and no
+ * objects per node or edge. Use {@link #toDTMC()} to edit or transform it.
+ */
+public class CompactDTMC {
+
+	private final int initialNode;
+	private final int[] finalNodes;
+	private final int[] edgeStart;
+	private final int[] target;
+	private final int[] symbol;
+	private final double[] probability;
+	private final String[] symbols;
+
+	/**
+	 * Constructor. The arrays are not copied.
+	 *
+	 * @param initialNode
+	 *            the initial node.
+	 * @param finalNodes
+	 *            the final nodes in ascending order.
+	 * @param edgeStart
+	 *            the index of the first edge of every node, followed by the
+	 *            number of edges.
+	 * @param target
+	 *            the destination node of every edge.
+	 * @param symbol
+	 *            the index of the character of every edge in symbols.
+	 * @param probability
+	 *            the probability of every edge.
+	 * @param symbols
+	 *            the characters.
+	 */
+	public CompactDTMC(int initialNode, int[] finalNodes, int[] edgeStart, int[] target, int[] symbol,
+			double[] probability, String[] symbols) {
+		int nodes = edgeStart.length - 1;
+		int edges = target.length;
+		if (nodes < 1 || initialNode < 0 || initialNode >= nodes || edgeStart[0] != 0 || edgeStart[nodes] != edges
+				|| symbol.length != edges || probability.length != edges) {
+			throw new IllegalArgumentException();
+		}
+		this.initialNode = initialNode;
+		this.finalNodes = finalNodes;
+		this.edgeStart = edgeStart;
+		this.target = target;
+		this.symbol = symbol;
+		this.probability = probability;
+		this.symbols = symbols;
+	}
+
+	public int getNodeCount() {
+		return edgeStart.length - 1;
+	}
+
+	public int getEdgeCount() {
+		return target.length;
+	}
+
+	public int getInitialNode() {
+		return initialNode;
+	}
+
+	/**
+	 * @return a copy of the final nodes in ascending order.
+	 */
+	public int[] getFinalNodes() {
+		return finalNodes.clone();
+	}
+
+	public boolean isFinal(int node) {
+		return Arrays.binarySearch(finalNodes, node) >= 0;
+	}
+
+	/**
+	 * Get the index of the first edge leaving a node.
+	 *
+	 * @param node
+	 *            the node, or the number of nodes to get the number of edges.
+	 * @return the index of the edge.
+	 */
+	public int getEdgeStart(int node) {
+		return edgeStart[node];
+	}
+
+	public int getTarget(int edge) {
+		return target[edge];
+	}
+
+	public int getSymbol(int edge) {
+		return symbol[edge];
+	}
+
+	public String getCharacter(int edge) {
+		return symbols[symbol[edge]];
+	}
+
+	public double getProbability(int edge) {
+		return probability[edge];
+	}
+
+	/**
+	 * @return a copy of the table of characters.
+	 */
+	public String[] getSymbols() {
+		return symbols.clone();
+	}
+
+	/**
+	 * Create a {@link DTMC} with the same nodes and edges. Edges between the
+	 * same nodes with the same character are merged by adding their
+	 * probabilities.
+	 *
+	 * @return the DTMC.
+	 */
+	public DTMC toDTMC() {
+		DTMC dtmc = new DTMC();
+		Node[] nodes = new Node[getNodeCount()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = dtmc.addNode();
+		}
+		dtmc.makeNodeInitial(nodes[initialNode]);
+
+		Map<Edge, Double> edges = new HashMap<>();
+		for (int n = 0; n < nodes.length; n++) {
+			for (int e = edgeStart[n]; e < edgeStart[n + 1]; e++) {
+				edges.merge(new Edge(nodes[n], nodes[target[e]], symbols[symbol[e]], 0), probability[e],
+						Double::sum);
+			}
+			edges.forEach((e, p) -> dtmc.addEdge(e.from, e.to, e.character, p));
+			edges.clear();
+		}
+		for (int n : finalNodes) {
+			dtmc.makeNodeFinal(nodes[n]);
+		}
+		return dtmc;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactDTMC(" + getNodeCount() + " nodes, " + getEdgeCount() + " edges)";
+	}
+}
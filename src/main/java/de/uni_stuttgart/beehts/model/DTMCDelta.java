@@ -1,9 +1,15 @@
 package de.uni_stuttgart.beehts.model;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 import de.uni_stuttgart.beehts.model.DTMC.Edge;
 import de.uni_stuttgart.beehts.model.DTMC.Node;
@@ -16,51 +22,98 @@ public class DTMCDelta implements Delta<DTMC> {
 
 	private Set<Edge> toRemove = new HashSet<>();
 	private Set<Edge> toAdd = new HashSet<>();
-	private Map<String, Node> nodeMap = new HashMap<>();
 
+	/**
+	 * Parse a delta script. Every line contains one change:
+	 * <ul>
+	 * <li>{@code +from to probability character} adds an edge,</li>
+	 * <li>{@code -from to character} removes an edge and</li>
+	 * <li>{@code from to character > from to probability character} changes an
+	 * edge.</li>
+	 * </ul>
+	 * Nodes are referred to by their names, blank lines are ignored.
+	 *
+	 * @param s
+	 *            the script.
+	 * @param model
+	 *            the DTMC the delta is applied to.
+	 * @return the delta.
+	 * @throws IllegalArgumentException
+	 *             if the script is invalid. The message contains the line and
+	 *             column of the error.
+	 */
 	public static DTMCDelta parse(String s, DTMC model) {
-		if (!isValid(s)) {
-			throw new IllegalArgumentException();
+		try {
+			return parse(new StringReader(s), model);
+		} catch (IOException e) {
+			// reading from a String does not fail
+			throw new UncheckedIOException(e);
 		}
+	}
 
+	/**
+	 * Parse a delta script line by line, see {@link #parse(String, DTMC)}.
+	 *
+	 * @param reader
+	 *            the script. It is read until its end, but not closed.
+	 * @param model
+	 *            the DTMC the delta is applied to.
+	 * @return the delta.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static DTMCDelta parse(Reader reader, DTMC model) throws IOException {
 		DTMCDelta delta = new DTMCDelta();
+		parse(reader, model, delta::addChange);
+		return delta;
+	}
 
-		for (String line : s.split("\\R")) {
-			line = line.trim();
-			if (line.startsWith("+")) {
-				delta.toAdd.add(delta.parseEdge(line.substring(1).trim(), model));
-			} else if (line.startsWith("-")) {
-				delta.toRemove.add(delta.parseEdge(line.substring(1).trim(), model));
+	/**
+	 * Parse a delta script line by line and pass each change to a consumer as
+	 * soon as its line is read, see {@link #parse(String, DTMC)}. A change of
+	 * an edge is passed as its removal followed by the addition of the new
+	 * edge, so the changes can be applied to the model directly:
+	 * {@code parse(reader, dtmc, (e, t) -> ...)}. The lines before an invalid
+	 * line have been passed when the exception is thrown.
+	 *
+	 * @param reader
+	 *            the script. It is read until its end, but not closed.
+	 * @param model
+	 *            the DTMC whose nodes are referred to.
+	 * @param changes
+	 *            the consumer of the changes.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static void parse(Reader reader, DTMC model, BiConsumer<Edge, Type> changes) throws IOException {
+		DeltaScanner scanner = new DeltaScanner(reader);
+		Map<String, Node> nodeMap = new HashMap<>();
+		while (scanner.nextLine()) {
+			if (scanner.accept('+')) {
+				Edge add = parseEdge(scanner, model, nodeMap, true);
+				scanner.expectEnd();
+				changes.accept(add, Type.ADD);
+			} else if (scanner.accept('-')) {
+				Edge remove = parseEdge(scanner, model, nodeMap, false);
+				scanner.expectEnd();
+				changes.accept(remove, Type.REMOVE);
 			} else {
-				String[] edges = line.split(">");
-				delta.toRemove.add(delta.parseEdge(edges[0].trim(), model));
-				Edge adding = delta.parseEdge(edges[1].trim(), model);
-				if (adding.getProbability() == Double.NaN)
-					throw new IllegalArgumentException();
-				delta.toAdd.add(adding);
+				Edge remove = parseEdge(scanner, model, nodeMap, false);
+				scanner.expect('>');
+				Edge add = parseEdge(scanner, model, nodeMap, true);
+				scanner.expectEnd();
+				changes.accept(remove, Type.REMOVE);
+				changes.accept(add, Type.ADD);
 			}
 		}
-
-		return delta;
-	}
-
-	private Edge parseEdge(String s, DTMC model) {
-		String[] parts = s.split("\\s+");
-		if (parts.length < 3 || parts.length > 4)
-			throw new IllegalArgumentException();
-		double p = parts.length == 4 ? Double.parseDouble(parts[2]) : Double.NaN;
-		String character = parts[parts.length - 1];
-		return new Edge(getNode(model, parts[0]), getNode(model, parts[1]), character, p);
 	}
 
-	private static boolean isValid(String s) {
-		String edgeRef = "\\d+\\s+\\d+\\s+\\w+";
-		String edgeAdd = "\\d+\\s+\\d+\\s+\\d[\\.\\,]\\d*\\s+\\w+";
-		String adding = "\\+\\s*" + edgeAdd;
-		String removing = "\\-\\s*" + edgeRef;
-		String changing = edgeRef + "\\s*>\\s*" + edgeAdd;
-		String line = "(" + adding + "|" + removing + "|" + changing + ")";
-		return s.matches("(" + line + "\\R)*" + line);
+	private static Edge parseEdge(DeltaScanner scanner, DTMC model, Map<String, Node> nodeMap,
+			boolean withProbability) {
+		Node from = getNode(model, nodeMap, scanner.node());
+		Node to = getNode(model, nodeMap, scanner.node());
+		double p = withProbability ? scanner.probability() : Double.NaN;
+		return new Edge(from, to, scanner.word(), p);
 	}
 
 	/**
@@ -134,6 +187,15 @@ public class DTMCDelta implements Delta<DTMC> {
 		addChange(new Edge(from, to, character, p), t);
 	}
 
+	/**
+	 * Add a change of an edge to the delta. Removing an edge that has been
+	 * added by this delta cancels its addition.
+	 * 
+	 * @param e
+	 *            the edge
+	 * @param t
+	 *            the type of the change (add or remove edge)
+	 */
 	public void addChange(Edge e, Type t) {
 		if (t == null) {
 			throw new IllegalArgumentException();
@@ -143,13 +205,23 @@ public class DTMCDelta implements Delta<DTMC> {
 			toAdd.add(e);
 			break;
 		case REMOVE:
-			toRemove.add(e);
+			if (!toAdd.remove(e)) {
+				toRemove.add(e);
+			}
 			break;
 		default:
 			throw new IllegalArgumentException();
 		}
 	}
 
+	public Set<Edge> getAddedEdges() {
+		return Collections.unmodifiableSet(toAdd);
+	}
+
+	public Set<Edge> getRemovedEdges() {
+		return Collections.unmodifiableSet(toRemove);
+	}
+
 	@Override
 	public DTMC applyChanges(DTMC dtmc) {
 		for (Edge e : toRemove) {
@@ -161,13 +233,16 @@ public class DTMCDelta implements Delta<DTMC> {
 		return dtmc;
 	}
 
-	private Node getNode(DTMC model, String name) {
-		if (model.getNodeByName(name) != null) {
-			return model.getNodeByName(name);
-		} else if (!nodeMap.containsKey(name)) {
-			nodeMap.put(name, new Node());
-			nodeMap.get(name).name = name;
+	private static Node getNode(DTMC model, Map<String, Node> nodeMap, String name) {
+		Node n = model.getNodeByName(name);
+		if (n == null) {
+			n = nodeMap.get(name);
+			if (n == null) {
+				n = new Node();
+				n.name = name;
+				nodeMap.put(name, n);
+			}
 		}
-		return nodeMap.get(name);
+		return n;
 	}
 }
@@ -0,0 +1,202 @@
+package de.uni_stuttgart.beehts.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads delta scripts line by line and splits the lines into tokens. Blank
+ * lines are skipped, whitespace between tokens is ignored. Errors are reported
+ * with the line and column they occur at.
+ */
+class DeltaScanner {
+
+	private final BufferedReader reader;
+	private String line;
+	private int lineNumber = 0;
+	private int pos;
+
+	public DeltaScanner(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+	}
+
+	/**
+	 * Advance to the next line that is not blank.
+	 *
+	 * @return false at the end of the input.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public boolean nextLine() throws IOException {
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			pos = 0;
+			skipWhitespace();
+			if (pos < line.length()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the position of the next token, starting at 1.
+	 */
+	public int column() {
+		skipWhitespace();
+		return pos + 1;
+	}
+
+	/**
+	 * @return the next character of the line without consuming it or -1 at
+	 *         the end of the line.
+	 */
+	public int peek() {
+		skipWhitespace();
+		return pos < line.length() ? line.charAt(pos) : -1;
+	}
+
+	/**
+	 * Consume the next character if it is c.
+	 *
+	 * @return whether the next character was c.
+	 */
+	public boolean accept(char c) {
+		if (peek() == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	public void expect(char c) {
+		if (!accept(c)) {
+			throw error("Expected '" + c + "', got " + describeNext() + ".");
+		}
+	}
+
+	/**
+	 * Read a non-negative integer.
+	 */
+	public int integer() {
+		int column = column();
+		String digits = digits("a number");
+		try {
+			return Integer.parseInt(digits);
+		} catch (NumberFormatException e) {
+			throw error(column, "The number " + digits + " is too large.", e);
+		}
+	}
+
+	/**
+	 * Read the name of a node, which consists of digits.
+	 */
+	public String node() {
+		return digits("a node");
+	}
+
+	private String digits(String expected) {
+		int start = column() - 1;
+		while (pos < line.length() && isDigit(line.charAt(pos))) {
+			pos++;
+		}
+		endToken(start, expected);
+		return line.substring(start, pos);
+	}
+
+	/**
+	 * Read a probability, i.e. digits with an optional fraction separated by a
+	 * point or a comma.
+	 */
+	public double probability() {
+		int start = column() - 1;
+		digits("a probability");
+		if (pos < line.length() && (line.charAt(pos) == '.' || line.charAt(pos) == ',')) {
+			pos++;
+			while (pos < line.length() && isDigit(line.charAt(pos))) {
+				pos++;
+			}
+			endToken(start, "a probability");
+		}
+		return Double.parseDouble(line.substring(start, pos).replace(',', '.'));
+	}
+
+	/**
+	 * Read a word consisting of letters, digits and underscores.
+	 */
+	public String word() {
+		int start = column() - 1;
+		while (pos < line.length() && isWordCharacter(line.charAt(pos))) {
+			pos++;
+		}
+		if (start == pos) {
+			throw error("Expected a character, got " + describeNext() + ".");
+		}
+		return line.substring(start, pos);
+	}
+
+	/**
+	 * Consume the rest of the line.
+	 */
+	public String rest() {
+		String rest = line.substring(pos);
+		pos = line.length();
+		return rest;
+	}
+
+	public void expectEnd() {
+		if (peek() >= 0) {
+			throw error("Expected the end of the line, got " + describeNext() + ".");
+		}
+	}
+
+	/**
+	 * Create an exception for an error at the current position.
+	 */
+	public IllegalArgumentException error(String message) {
+		return error(column(), message, null);
+	}
+
+	/**
+	 * Create an exception for an error at the given column of the current line.
+	 */
+	public IllegalArgumentException error(int column, String message, Throwable cause) {
+		return new IllegalArgumentException("Line " + lineNumber + ", column " + column + ": " + message, cause);
+	}
+
+	/**
+	 * Check that a token starting at start and ending at the current position
+	 * is not empty and not followed by further word characters.
+	 */
+	private void endToken(int start, String expected) {
+		if (start == pos || (pos < line.length() && isWordCharacter(line.charAt(pos)))) {
+			pos = start;
+			throw error("Expected " + expected + ", got " + describeNext() + ".");
+		}
+	}
+
+	private String describeNext() {
+		if (peek() < 0) {
+			return "the end of the line";
+		}
+		int end = pos + 1;
+		while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+			end++;
+		}
+		return "'" + line.substring(pos, end) + "'";
+	}
+
+	private void skipWhitespace() {
+		while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isWordCharacter(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+}
@@ -0,0 +1,394 @@
+package de.uni_stuttgart.beehts.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import de.uni_stuttgart.beehts.model.DTMC.Edge;
+import de.uni_stuttgart.beehts.model.DTMC.Node;
+
+/**
+ * A DTMC made of components, which can be used several times (a boxed or
+ * hierarchical DTMC).<br>
+ *
+ * Every component is a small DTMC with an initial node 0 and a final node 1.
+ * Its edges either produce a character or call another component (a box):
+ * the called component runs from its initial to its final node, producing a
+ * non-empty String, and then the caller continues at the destination of the
+ * edge. The probability of a box edge is the probability of taking it and of
+ * the called component producing a non-empty String. Empty edges may only lead
+ * to the final node of a component, so every step in between produces at
+ * least one character.<br>
+ *
+ * The components are numbered such that every component only calls
+ * components with smaller numbers, the last one is the root. A component that
+ * is called from several places exists only once, so the probability of a
+ * String and random Strings are calculated on the components directly.
+ * {@link #flatten()} creates the ordinary DTMC with a copy of a component for
+ * every call.
+ */
+public class HierarchicalDTMC {
+
+	private final Component[] components;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param components
+	 *            the components, each one only calling components before it.
+	 *            The last one is the root.
+	 */
+	public HierarchicalDTMC(List<Component> components) {
+		if (components.isEmpty()) {
+			throw new IllegalArgumentException("A hierarchical DTMC needs at least one component.");
+		}
+		this.components = components.toArray(new Component[components.size()]);
+		for (int c = 0; c < this.components.length; c++) {
+			for (int box : this.components[c].box) {
+				if (box >= c) {
+					throw new IllegalArgumentException(
+							"Component " + c + " calls component " + box + ", which does not come before it.");
+				}
+			}
+		}
+	}
+
+	public int getComponentCount() {
+		return components.length;
+	}
+
+	public Component getComponent(int index) {
+		return components[index];
+	}
+
+	public Component getRoot() {
+		return components[components.length - 1];
+	}
+
+	/**
+	 * @return the number of nodes of all components.
+	 */
+	public long getNodeCount() {
+		return Arrays.stream(components).mapToLong(Component::getNodeCount).sum();
+	}
+
+	/**
+	 * @return the number of edges of all components.
+	 */
+	public long getEdgeCount() {
+		return Arrays.stream(components).mapToLong(Component::getEdgeCount).sum();
+	}
+
+	/**
+	 * Calculate the probability of a String. For every called component, the
+	 * probability of producing every substring of the String is calculated
+	 * once, starting with the components that do not call any others.
+	 *
+	 * @param string
+	 *            the String.
+	 * @return the probability.
+	 */
+	public double getProbability(String string) {
+		int n = string.length();
+		double[][][] spans = new double[components.length][][];
+		for (int c = 0; c < components.length - 1; c++) {
+			spans[c] = new double[n + 1][];
+			for (int start = 0; start <= n; start++) {
+				spans[c][start] = produce(components[c], string, start, spans);
+			}
+		}
+		return produce(getRoot(), string, 0, spans)[n];
+	}
+
+	/**
+	 * Push the probability mass through a component from a position of the
+	 * String on. As every edge except the empty ones to the final node
+	 * produces at least one character, the positions are processed in
+	 * ascending order.
+	 *
+	 * @return the probability of producing the String from start to every
+	 *         position.
+	 */
+	private double[] produce(Component component, String string, int start, double[][][] spans) {
+		int n = string.length();
+		double[][] mass = new double[n + 1][];
+		double[] result = new double[n + 1];
+		mass[start] = new double[component.getNodeCount()];
+		mass[start][0] = 1;
+		for (int pos = start; pos <= n; pos++) {
+			if (mass[pos] == null) {
+				continue;
+			}
+			for (int node = 0; node < component.getNodeCount(); node++) {
+				double m = mass[pos][node];
+				if (m == 0) {
+					continue;
+				}
+				for (int e = component.edgeStart[node]; e < component.edgeStart[node + 1]; e++) {
+					double p = m * component.probability[e];
+					int to = component.target[e];
+					if (component.box[e] >= 0) {
+						double[] called = spans[component.box[e]][pos];
+						double nonEmpty = 1 - components[component.box[e]].getEmptyProbability();
+						for (int end = pos + 1; end <= n; end++) {
+							if (called[end] > 0) {
+								add(mass, end, to, p * called[end] / nonEmpty, component);
+							}
+						}
+					} else if (string.startsWith(component.character[e], pos)) {
+						add(mass, pos + component.character[e].length(), to, p, component);
+					}
+				}
+			}
+			result[pos] = mass[pos][1];
+			mass[pos] = null;
+		}
+		return result;
+	}
+
+	private static void add(double[][] mass, int pos, int node, double p, Component component) {
+		if (mass[pos] == null) {
+			mass[pos] = new double[component.getNodeCount()];
+		}
+		mass[pos][node] += p;
+	}
+
+	/**
+	 * Produce a random String. Called components are run on a stack of return
+	 * nodes; as they produce non-empty Strings, their empty edges are not
+	 * taken when starting them.
+	 *
+	 * @param random
+	 *            the source of randomness.
+	 * @return the String.
+	 */
+	public String sample(Random random) {
+		StringBuilder sb = new StringBuilder();
+		Deque<int[]> calls = new ArrayDeque<>();
+		int c = components.length - 1, node = 0;
+		boolean nonEmpty = false;
+		while (true) {
+			if (node == 1) {
+				if (calls.isEmpty()) {
+					return sb.toString();
+				}
+				int[] call = calls.pop();
+				c = call[0];
+				node = call[1];
+				continue;
+			}
+			Component component = components[c];
+			boolean skipEmpty = node == 0 && nonEmpty;
+			double r = random.nextDouble() * (skipEmpty ? 1 - component.getEmptyProbability() : 1);
+			int chosen = -1;
+			for (int e = component.edgeStart[node]; e < component.edgeStart[node + 1]; e++) {
+				if (skipEmpty && component.box[e] < 0 && component.character[e].isEmpty()) {
+					continue;
+				}
+				chosen = e;
+				r -= component.probability[e];
+				if (r < 0) {
+					break;
+				}
+			}
+			if (chosen < 0) {
+				throw new IllegalStateException("Node " + node + " of component " + c + " has no edges.");
+			}
+			if (component.box[chosen] >= 0) {
+				calls.push(new int[] { c, component.target[chosen] });
+				c = component.box[chosen];
+				node = 0;
+				nonEmpty = true;
+			} else {
+				sb.append(component.character[chosen]);
+				node = component.target[chosen];
+				nonEmpty = false;
+			}
+		}
+	}
+
+	/**
+	 * Create the ordinary DTMC. Every call of a component gets its own copy of
+	 * the component, whose initial node is the start of the calling edge and
+	 * whose final node is its destination. Edges that become equal are
+	 * merged by adding their probabilities.
+	 *
+	 * @return the DTMC.
+	 */
+	public DTMC flatten() {
+		DTMC dtmc = new DTMC();
+		Node initial = dtmc.addInitialNode(null), finalNode = dtmc.addNode();
+		Map<Edge, Double> edges = new HashMap<>();
+
+		Deque<Call> calls = new ArrayDeque<>();
+		calls.add(new Call(components.length - 1, initial, finalNode, 1, false));
+		while (!calls.isEmpty()) {
+			Call call = calls.poll();
+			Component component = components[call.component];
+			Node[] nodes = new Node[component.getNodeCount()];
+			nodes[0] = call.from;
+			nodes[1] = call.to;
+			for (int i = 2; i < nodes.length; i++) {
+				nodes[i] = dtmc.addNode();
+			}
+			for (int node = 0; node < nodes.length; node++) {
+				double factor = node == 0 ? call.factor : 1;
+				for (int e = component.edgeStart[node]; e < component.edgeStart[node + 1]; e++) {
+					double p = factor * component.probability[e];
+					Node to = nodes[component.target[e]];
+					if (component.box[e] >= 0) {
+						double nonEmpty = 1 - components[component.box[e]].getEmptyProbability();
+						calls.add(new Call(component.box[e], nodes[node], to, p / nonEmpty, true));
+					} else if (!(node == 0 && call.nonEmpty && component.character[e].isEmpty())) {
+						edges.merge(new Edge(nodes[node], to, component.character[e], 0), p, Double::sum);
+					}
+				}
+			}
+		}
+		edges.forEach((e, p) -> dtmc.addEdge(e.from, e.to, e.character, p));
+		dtmc.makeNodeFinal(finalNode);
+		return dtmc;
+	}
+
+	@Override
+	public String toString() {
+		return "HierarchicalDTMC(" + components.length + " components, " + getNodeCount() + " nodes, "
+				+ getEdgeCount() + " edges)";
+	}
+
+	/**
+	 * A copy of a component to create while flattening.
+	 */
+	private static final class Call {
+
+		public final int component;
+		public final Node from, to;
+		/** the factor of the probabilities of the edges leaving the initial node */
+		public final double factor;
+		/** whether the empty edges leaving the initial node are dropped */
+		public final boolean nonEmpty;
+
+		public Call(int component, Node from, Node to, double factor, boolean nonEmpty) {
+			this.component = component;
+			this.from = from;
+			this.to = to;
+			this.factor = factor;
+			this.nonEmpty = nonEmpty;
+		}
+	}
+
+	/**
+	 * A component of a hierarchical DTMC, stored in compressed sparse row form
+	 * like a {@link CompactDTMC}. Node 0 is the initial node and node 1 the
+	 * final node.
+	 */
+	public static final class Component {
+
+		private final int[] edgeStart;
+		private final int[] target;
+		private final String[] character;
+		private final int[] box;
+		private final double[] probability;
+		private final double empty;
+
+		/**
+		 * Constructor. The arrays are not copied.
+		 *
+		 * @param edgeStart
+		 *            the index of the first edge of every node, followed by the
+		 *            number of edges.
+		 * @param target
+		 *            the destination node of every edge.
+		 * @param character
+		 *            the character of every edge, null for the edges calling
+		 *            components.
+		 * @param box
+		 *            the component called by every edge, or -1.
+		 * @param probability
+		 *            the probability of every edge.
+		 */
+		public Component(int[] edgeStart, int[] target, String[] character, int[] box, double[] probability) {
+			int nodes = edgeStart.length - 1;
+			int edges = target.length;
+			if (nodes < 2 || edgeStart[0] != 0 || edgeStart[nodes] != edges || character.length != edges
+					|| box.length != edges || probability.length != edges) {
+				throw new IllegalArgumentException();
+			} else if (edgeStart[2] != edgeStart[1]) {
+				throw new IllegalArgumentException("No outgoing edges for the final node allowed.");
+			}
+			double empty = 0;
+			for (int e = 0; e < edges; e++) {
+				if (target[e] == 0) {
+					throw new IllegalArgumentException("No incoming edges for the initial node allowed.");
+				} else if ((box[e] < 0) == (character[e] == null)) {
+					throw new IllegalArgumentException("An edge needs either a character or a box.");
+				} else if (box[e] < 0 && character[e].isEmpty()) {
+					if (target[e] != 1) {
+						throw new IllegalArgumentException("Empty edges may only lead to the final node.");
+					} else if (e < edgeStart[1]) {
+						empty += probability[e];
+					}
+				}
+			}
+			this.edgeStart = edgeStart;
+			this.target = target;
+			this.character = character;
+			this.box = box;
+			this.probability = probability;
+			this.empty = empty;
+		}
+
+		public int getNodeCount() {
+			return edgeStart.length - 1;
+		}
+
+		public int getEdgeCount() {
+			return target.length;
+		}
+
+		/**
+		 * Get the index of the first edge leaving a node.
+		 *
+		 * @param node
+		 *            the node, or the number of nodes to get the number of
+		 *            edges.
+		 * @return the index of the edge.
+		 */
+		public int getEdgeStart(int node) {
+			return edgeStart[node];
+		}
+
+		public int getTarget(int edge) {
+			return target[edge];
+		}
+
+		/**
+		 * @return the character of an edge, or null if it calls a component.
+		 */
+		public String getCharacter(int edge) {
+			return character[edge];
+		}
+
+		/**
+		 * @return the component called by an edge, or -1.
+		 */
+		public int getBox(int edge) {
+			return box[edge];
+		}
+
+		public double getProbability(int edge) {
+			return probability[edge];
+		}
+
+		/**
+		 * @return the probability of the component producing the empty String.
+		 */
+		public double getEmptyProbability() {
+			return empty;
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package de.uni_stuttgart.beehts.model;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import de.uni_stuttgart.beehts.analysis.SREProbability;
+import de.uni_stuttgart.beehts.model.SRE.*;
+
+/**
+ * A DTMC of an SRE whose states are only created when they are needed.<br>
+ *
+ * The states are the derivatives of the SRE: a state is the rest of the SRE
+ * that still has to be produced, stored as a list of subexpressions of the SRE
+ * (and the remaining parts of concatenations). The transitions of a state are
+ * calculated from its first subexpression like Antimirov's partial
+ * derivatives, weighted with the probabilities of the SRE, when they are
+ * requested by {@link #getTransitions(State)}. Every transition produces a
+ * character, except for the empty transition to the final state, which ends
+ * the String. Hence the probabilities of Strings and prefixes can be
+ * calculated by exploring only the states reached by them.<br>
+ *
+ * States are hash-consed, so a derivative that is reached in different ways
+ * is the same object. The transitions of the most recently used states are
+ * cached, the least recently used ones are dropped when the cache is full and
+ * calculated again when they are needed. States that are neither cached nor
+ * referenced anymore are garbage collected. This class is not thread-safe.
+ */
+public class LazyDTMC {
+
+	/** The default number of states whose transitions are cached. */
+	public static final int DEFAULT_CACHE_SIZE = 100000;
+
+	private final SREProbability epsilon;
+	/** The probability of the remaining parts of a concatenation to be empty. */
+	private final Map<SRE, double[]> suffixEpsilon = new IdentityHashMap<>();
+
+	private final Map<State, WeakReference<State>> states = new WeakHashMap<>();
+	private final Map<State, Transition[]> cache;
+	private final State initialState;
+	private final State finalState = new State(null, 0, null, 0);
+	private int nextId = 1;
+
+	/**
+	 * Constructor. Caches the transitions of {@link #DEFAULT_CACHE_SIZE}
+	 * states.
+	 *
+	 * @param sre
+	 *            the SRE.
+	 */
+	public LazyDTMC(SRE sre) {
+		this(sre, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sre
+	 *            the SRE.
+	 * @param cacheSize
+	 *            the number of states whose transitions are cached.
+	 */
+	public LazyDTMC(SRE sre, int cacheSize) {
+		if (cacheSize < 1) {
+			throw new IllegalArgumentException("The cache must hold at least one state.");
+		}
+		this.epsilon = new SREProbability(sre);
+		this.cache = new LinkedHashMap<State, Transition[]>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<State, Transition[]> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		this.initialState = state(sre, 0, finalState);
+	}
+
+	public State getInitialState() {
+		return initialState;
+	}
+
+	/**
+	 * Get the final state. It is the only state without transitions.
+	 *
+	 * @return the final state.
+	 */
+	public State getFinalState() {
+		return finalState;
+	}
+
+	/**
+	 * Get the number of states whose transitions are currently cached.
+	 *
+	 * @return the number of states.
+	 */
+	public int getCachedStateCount() {
+		return cache.size();
+	}
+
+	/**
+	 * Get the transitions leaving a state. They are calculated if they are not
+	 * cached.
+	 *
+	 * @param state
+	 *            a state of this DTMC.
+	 * @return the transitions. The array must not be modified.
+	 */
+	public Transition[] getTransitions(State state) {
+		Transition[] transitions = cache.get(state);
+		if (transitions == null) {
+			transitions = derive(state);
+			cache.put(state, transitions);
+		}
+		return transitions;
+	}
+
+	/**
+	 * Calculate the probability of a String.
+	 *
+	 * @param string
+	 *            the String.
+	 * @return the probability.
+	 */
+	public double getProbability(String string) {
+		double p = 0;
+		for (Map.Entry<State, Double> e : push(string).entrySet()) {
+			if (e.getKey() == finalState) {
+				p += e.getValue();
+			}
+			for (Transition t : getTransitions(e.getKey())) {
+				if (t.character.isEmpty()) {
+					p += e.getValue() * t.getProbability();
+				}
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Calculate the probability that a String starts with a prefix.
+	 * Characters of the SRE with more than one letter are not split, so they
+	 * have to be contained completely in the prefix.
+	 *
+	 * @param prefix
+	 *            the prefix.
+	 * @return the probability.
+	 */
+	public double getPrefixProbability(String prefix) {
+		return push(prefix).values().stream().mapToDouble(Double::doubleValue).sum();
+	}
+
+	/**
+	 * Push the probability mass from the initial state through the DTMC
+	 * along a String. Every transition except the ones to the final state
+	 * produces a character, so the positions are processed in ascending
+	 * order.
+	 *
+	 * @return the probability of reaching every state with the whole String.
+	 */
+	private Map<State, Double> push(String string) {
+		// the mass at the positions that have been reached, by position
+		Map<Integer, Map<State, Double>> mass = new HashMap<>();
+		mass.put(0, new HashMap<>());
+		mass.get(0).put(initialState, 1.);
+		for (int pos = 0; pos < string.length(); pos++) {
+			Map<State, Double> current = mass.remove(pos);
+			if (current == null) {
+				continue;
+			}
+			for (Map.Entry<State, Double> e : current.entrySet()) {
+				for (Transition t : getTransitions(e.getKey())) {
+					if (!t.character.isEmpty() && string.startsWith(t.character, pos)) {
+						mass.computeIfAbsent(pos + t.character.length(), end -> new HashMap<>()).merge(t.to,
+								e.getValue() * t.getProbability(), Double::sum);
+					}
+				}
+			}
+		}
+		return mass.getOrDefault(string.length(), new HashMap<>());
+	}
+
+	/**
+	 * Calculate the transitions of a state. The subexpressions of the state
+	 * produce the next character in turn, as long as the ones before produce
+	 * the empty String; the rest of the probability ends the String.
+	 */
+	private Transition[] derive(State state) {
+		Map<Transition, Double> transitions = new HashMap<>();
+		Deque<Derivative> stack = new ArrayDeque<>();
+		double weight = 1;
+		for (State s = state; s != finalState && weight > 0; s = s.next) {
+			stack.push(new Derivative(s.sre, s.position, s.next, weight));
+			weight *= epsilon(s.sre, s.position);
+		}
+		if (weight > 0 && state != finalState) {
+			transitions.put(new Transition(finalState, "", 0), weight);
+		}
+
+		while (!stack.isEmpty()) {
+			Derivative d = stack.pop();
+			switch (d.sre.getType()) {
+			case ATOMIC: {
+				String c = ((SREAtomic) d.sre).getCharacter();
+				if (c != null && !c.isEmpty()) {
+					transitions.merge(new Transition(d.next, c, 0), d.weight, Double::sum);
+				}
+				break;
+			}
+			case CAT: {
+				SRE[] parts = ((SREConcat) d.sre).getSubnodes();
+				double empty = d.weight;
+				for (int i = d.position; i < parts.length && empty > 0; i++) {
+					State next = i + 1 < parts.length ? state(d.sre, i + 1, d.next) : d.next;
+					stack.push(new Derivative(parts[i], 0, next, empty));
+					empty *= epsilon.getEpsilonProbability(parts[i]);
+				}
+				break;
+			}
+			case SUM: {
+				SRESum sum = (SRESum) d.sre;
+				double rateSum = 0;
+				for (int rate : sum.getRates()) {
+					rateSum += rate;
+				}
+				for (int i = 0; i < sum.getRates().length; i++) {
+					if (sum.getRates()[i] > 0) {
+						stack.push(new Derivative(sum.getSubnodes()[i], 0, d.next, d.weight * sum.getRates()[i] / rateSum));
+					}
+				}
+				break;
+			}
+			case KLEENE: {
+				// iterations producing the empty String are folded into the
+				// probability of the iterations producing a character, like in
+				// SREProbability
+				SREKleene kleene = (SREKleene) d.sre;
+				double p = kleene.getRepetitionRate();
+				double denominator = 1 - p * epsilon.getEpsilonProbability(kleene.getChild());
+				if (p > 0 && denominator > 0) {
+					stack.push(new Derivative(kleene.getChild(), 0, state(d.sre, 0, d.next), d.weight * p / denominator));
+				}
+				break;
+			}
+			default:
+				throw new IllegalArgumentException();
+			}
+		}
+
+		Transition[] retVal = new Transition[transitions.size()];
+		int i = 0;
+		for (Map.Entry<Transition, Double> e : transitions.entrySet()) {
+			retVal[i++] = new Transition(e.getKey().to, e.getKey().character, e.getValue());
+		}
+		return retVal;
+	}
+
+	/**
+	 * The probability that a subexpression, or the parts of a concatenation
+	 * from a position on, produce the empty String.
+	 */
+	private double epsilon(SRE sre, int position) {
+		if (sre.getType() != SRE.Type.CAT) {
+			return epsilon.getEpsilonProbability(sre);
+		}
+		double[] suffix = suffixEpsilon.get(sre);
+		if (suffix == null) {
+			SRE[] parts = ((SREConcat) sre).getSubnodes();
+			suffix = new double[parts.length + 1];
+			suffix[parts.length] = 1;
+			for (int i = parts.length - 1; i >= 0; i--) {
+				suffix[i] = suffix[i + 1] * epsilon.getEpsilonProbability(parts[i]);
+			}
+			suffixEpsilon.put(sre, suffix);
+		}
+		return suffix[position];
+	}
+
+	/**
+	 * Get the hash-consed state for a subexpression followed by the rest of a
+	 * state.
+	 */
+	private State state(SRE sre, int position, State next) {
+		State candidate = new State(sre, position, next, 0);
+		WeakReference<State> ref = states.get(candidate);
+		State existing = ref != null ? ref.get() : null;
+		if (existing != null) {
+			return existing;
+		}
+		State state = new State(sre, position, next, nextId++);
+		states.put(state, new WeakReference<>(state));
+		return state;
+	}
+
+	/**
+	 * A state of the DTMC: a subexpression (or the parts of a concatenation
+	 * from a position on), followed by the rest of the state. As the rest is
+	 * hash-consed as well, states are compared by the identity of their parts.
+	 */
+	public static final class State {
+
+		private final SRE sre;
+		private final int position;
+		private final State next;
+		private final int id;
+
+		private State(SRE sre, int position, State next, int id) {
+			this.sre = sre;
+			this.position = position;
+			this.next = next;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof State)) {
+				return false;
+			}
+			State other = (State) o;
+			return sre == other.sre && position == other.position && next == other.next;
+		}
+
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(sre) * 31 + position) * 31 + System.identityHashCode(next);
+		}
+
+		@Override
+		public String toString() {
+			return Integer.toString(id);
+		}
+	}
+
+	/**
+	 * A transition to a state producing a character. Transitions are equal if
+	 * their destinations and characters are, like {@link DTMC.Edge edges}.
+	 */
+	public static final class Transition {
+
+		public final State to;
+		public final String character;
+		private final double probability;
+
+		private Transition(State to, String character, double probability) {
+			this.to = to;
+			this.character = character;
+			this.probability = probability;
+		}
+
+		public double getProbability() {
+			return probability;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Transition)) {
+				return false;
+			}
+			Transition other = (Transition) o;
+			return to == other.to && character.equals(other.character);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(to) * 31 + character.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "--> " + to + " (\"" + character + "\":" + probability + ")";
+		}
+	}
+
+	/**
+	 * A subexpression that produces the next character of a state, followed
+	 * by the rest of the state.
+	 */
+	private static final class Derivative {
+
+		public final SRE sre;
+		public final int position;
+		public final State next;
+		public final double weight;
+
+		public Derivative(SRE sre, int position, State next, double weight) {
+			this.sre = sre;
+			this.position = position;
+			this.next = next;
+			this.weight = weight;
+		}
+	}
+}
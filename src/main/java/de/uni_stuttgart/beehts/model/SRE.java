@@ -1,13 +1,15 @@
 package de.uni_stuttgart.beehts.model;
 
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.OptionalInt;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
+import de.uni_stuttgart.beehts.analysis.SREProbability;
+import de.uni_stuttgart.beehts.model.serialization.SREWriter;
 import de.uni_stuttgart.beehts.util.MathHelpers;
 
 /**
@@ -30,14 +32,12 @@ public abstract class SRE {
 	}
 
 	/**
-	 * Calculate the probability for a given String.
+	 * Calculate the probability for a given String. For repeated queries on
+	 * the same SRE, use {@link SREProbability} directly.
 	 * 
 	 * @param string
 	 *            The string to calculate the probability for.
 	 * @return The probability
-	 * @throws UnsupportedOperationException
-	 *             in the current implementation state, this will always be
-	 *             thrown.
 	 */
 	public abstract double getProbability(String string);
 
@@ -48,7 +48,37 @@ public abstract class SRE {
 	 */
 	public abstract Type getType();
 
-	public abstract SRE clone();
+	/**
+	 * Get the direct children of this SRE. For sums, the indices match the
+	 * indices of {@link SRESum#getRates()}.
+	 * 
+	 * @return an array of SREs, empty for atomic SREs.
+	 */
+	public abstract SRE[] getChildren();
+
+	/**
+	 * Create a deep copy of this SRE. Subtrees that are shared (i.e. the same
+	 * SRE object is referenced multiple times, as it happens e.g. in the
+	 * results of {@link de.uni_stuttgart.beehts.transformation.DTMC2SREDeltaBrz
+	 * DTMC2SREDeltaBrz}) are copied only once and remain shared in the copy.
+	 * 
+	 * @return A deep copy of this SRE.
+	 */
+	@Override
+	public SRE clone() {
+		return clone(new IdentityHashMap<>());
+	}
+
+	/**
+	 * Create a deep copy of this SRE, reusing copies that have already been
+	 * made.
+	 * 
+	 * @param copies
+	 *            maps already copied nodes (by identity) to their copies. Newly
+	 *            created copies are added.
+	 * @return A deep copy of this SRE.
+	 */
+	protected abstract SRE clone(Map<SRE, SRE> copies);
 
 	/**
 	 * Simplify the SRE by removing unneeded nesting.
@@ -192,6 +222,11 @@ public abstract class SRE {
 			return Type.ATOMIC;
 		}
 
+		@Override
+		public SRE[] getChildren() {
+			return new SRE[0];
+		}
+
 		@Override
 		public SRE simplify() {
 			// an atomic SRE cannot be further simplified
@@ -206,8 +241,13 @@ public abstract class SRE {
 		}
 
 		@Override
-		public SRE clone() {
-			return new SREAtomic(getCharacter());
+		protected SRE clone(Map<SRE, SRE> copies) {
+			SRE copy = copies.get(this);
+			if (copy == null) {
+				copy = new SREAtomic(getCharacter());
+				copies.put(this, copy);
+			}
+			return copy;
 		}
 
 		@Override
@@ -249,12 +289,7 @@ public abstract class SRE {
 
 		@Override
 		public String toString() {
-			StringBuilder builder = new StringBuilder(subnodes[0].toString());
-			for (int i = 1; i < subnodes.length; i++) {
-				builder.append(" : ");
-				builder.append(subnodes[i].toString());
-			}
-			return "(" + builder.toString() + ")";
+			return new SREWriter().print(this);
 		}
 
 		@Override
@@ -274,6 +309,11 @@ public abstract class SRE {
 			return Type.CAT;
 		}
 
+		@Override
+		public SRE[] getChildren() {
+			return subnodes;
+		}
+
 		/**
 		 * Implementation of {@link SRE#simplify()}.<br>
 		 * 
@@ -323,22 +363,22 @@ public abstract class SRE {
 		}
 
 		@Override
-		public SRE clone() {
-			SRE[] sres = new SRE[subnodes.length];
-			for (int i = 0; i < subnodes.length; i++) {
-				sres[i] = subnodes[i].clone();
+		protected SRE clone(Map<SRE, SRE> copies) {
+			SRE copy = copies.get(this);
+			if (copy == null) {
+				SRE[] sres = new SRE[subnodes.length];
+				for (int i = 0; i < subnodes.length; i++) {
+					sres[i] = subnodes[i].clone(copies);
+				}
+				copy = new SREConcat(sres);
+				copies.put(this, copy);
 			}
-			return new SREConcat(sres);
+			return copy;
 		}
 
 		@Override
 		public double getProbability(String string) {
-			int[] sepIdx = new int[subnodes.length];
-			for (int i = 0; i < sepIdx.length; i++) {
-				sepIdx[i] = 0;
-			}
-			// for all possible separator combinations
-			throw new UnsupportedOperationException();
+			return new SREProbability(this).getProbability(string);
 		}
 	}
 
@@ -415,11 +455,22 @@ public abstract class SRE {
 			return rates;
 		}
 
+		/**
+		 * Replace the rates, like {@link SREDelta#applyChanges(SRE)} does.
+		 * 
+		 * @param rates
+		 *            the new nonnegative rates, one for every choice.
+		 */
+		void setRates(int[] rates) {
+			if (rates.length != subnodes.length || Arrays.stream(rates).anyMatch(r -> r < 0)) {
+				throw new IllegalArgumentException();
+			}
+			this.rates = rates;
+		}
+
 		@Override
 		public String toString() {
-			return '(' + IntStream.range(0, subnodes.length)
-					.mapToObj(i -> subnodes[i].toString() + '[' + rates[i] + ']').collect(Collectors.joining(" + "))
-					+ ')';
+			return new SREWriter().print(this);
 		}
 
 		@Override
@@ -440,6 +491,11 @@ public abstract class SRE {
 			return Type.SUM;
 		}
 
+		@Override
+		public SRE[] getChildren() {
+			return subnodes;
+		}
+
 		/**
 		 * Simplifies <code>a + a + b</code> to <code> a + b</code>.<br>
 		 * This used to simplify <code>a + (b + c)</code> to
@@ -493,27 +549,27 @@ public abstract class SRE {
 		}
 
 		@Override
-		public SRE clone() {
-			SRE[] sres = new SRE[subnodes.length];
-			int[] rates = new int[subnodes.length];
-			for (int i = 0; i < subnodes.length; i++) {
-				sres[i] = this.subnodes[i].clone();
-				rates[i] = this.rates[i];
+		protected SRE clone(Map<SRE, SRE> copies) {
+			SRE copy = copies.get(this);
+			if (copy == null) {
+				SRE[] sres = new SRE[subnodes.length];
+				int[] rates = new int[subnodes.length];
+				for (int i = 0; i < subnodes.length; i++) {
+					sres[i] = this.subnodes[i].clone(copies);
+					rates[i] = this.rates[i];
+				}
+				SRESum retVal = new SRESum();
+				retVal.rates = rates;
+				retVal.subnodes = sres;
+				copy = retVal;
+				copies.put(this, copy);
 			}
-			SRESum retVal = new SRESum();
-			retVal.rates = rates;
-			retVal.subnodes = sres;
-			return retVal;
+			return copy;
 		}
 
 		@Override
 		public double getProbability(String string) {
-			int rateSum = Arrays.stream(rates).sum();
-			double p = 0;
-			for (int i = 0; i < getSubnodes().length; i++) {
-				p += getSubnodes()[i].getProbability(string) * getRates()[i] / rateSum;
-			}
-			return p;
+			return new SREProbability(this).getProbability(string);
 		}
 	}
 
@@ -553,6 +609,19 @@ public abstract class SRE {
 			return sre;
 		}
 
+		/**
+		 * Replace the iterated SRE, like {@link #traverse(Traverser)} does.
+		 * 
+		 * @param sre
+		 *            the new SRE to iterate.
+		 */
+		void setChild(SRE sre) {
+			if (sre == null) {
+				throw new IllegalArgumentException();
+			}
+			this.sre = sre;
+		}
+
 		/**
 		 * Get the probability of another repetition.
 		 * 
@@ -562,9 +631,23 @@ public abstract class SRE {
 			return repetitionRate;
 		}
 
+		/**
+		 * Replace the repetition rate, like {@link SREDelta#applyChanges(SRE)}
+		 * does.
+		 * 
+		 * @param rate
+		 *            the new probability of iteration.
+		 */
+		void setRepetitionRate(double rate) {
+			if (rate < 0 || rate > 1) {
+				throw new IllegalArgumentException();
+			}
+			this.repetitionRate = rate;
+		}
+
 		@Override
 		public String toString() {
-			return "(" + sre.toString() + "*" + repetitionRate + ")";
+			return new SREWriter().print(this);
 		}
 
 		@Override
@@ -585,6 +668,11 @@ public abstract class SRE {
 			return Type.KLEENE;
 		}
 
+		@Override
+		public SRE[] getChildren() {
+			return new SRE[] { sre };
+		}
+
 		/**
 		 * Implementation of {@link SRE#simplify()}.<br>
 		 * Simplifies <code>(a*)*<code> to <code>a*</code>.
@@ -621,13 +709,18 @@ public abstract class SRE {
 		}
 
 		@Override
-		public SRE clone() {
-			return new SREKleene(getChild().clone(), repetitionRate);
+		protected SRE clone(Map<SRE, SRE> copies) {
+			SRE copy = copies.get(this);
+			if (copy == null) {
+				copy = new SREKleene(getChild().clone(copies), repetitionRate);
+				copies.put(this, copy);
+			}
+			return copy;
 		}
 
 		@Override
 		public double getProbability(String string) {
-			throw new UnsupportedOperationException();
+			return new SREProbability(this).getProbability(string);
 		}
 	}
 }
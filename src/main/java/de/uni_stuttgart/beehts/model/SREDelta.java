@@ -1,73 +1,194 @@
 package de.uni_stuttgart.beehts.model;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.InputMismatchException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.OptionalInt;
+import java.util.function.BiConsumer;
 
 import de.uni_stuttgart.beehts.model.SRE.SREAtomic;
 import de.uni_stuttgart.beehts.model.SRE.SREKleene;
+import de.uni_stuttgart.beehts.model.SRE.SRESum;
 import de.uni_stuttgart.beehts.model.SRE.Traverser;
 import de.uni_stuttgart.beehts.model.SRE.Type;
 import de.uni_stuttgart.beehts.model.construction.SREBuilder;
+import de.uni_stuttgart.beehts.util.SREHelpers;
 import de.uni_stuttgart.beehts.util.StringHelpers;
 
 public class SREDelta implements Delta<SRE> {
 
 	private Map<SRE, SRE> replacements = new HashMap<>();
+	/** The new repetition rates of Kleene stars, which keep their children */
+	private Map<SREKleene, Double> repetitionRates = new HashMap<>();
+	/** The new rates of sums, which keep their children */
+	private Map<SRESum, int[]> sumRates = new HashMap<>();
 
+	/**
+	 * Parse a delta script. Every line has the form {@code index > sre} and
+	 * replaces the subexpression with the given index by the SRE, in which
+	 * {@code \index} stands for a copy of the subexpression with that index.
+	 * The indices are those shown by {@link #printIndices(SRE)}. Blank lines
+	 * are ignored.
+	 *
+	 * @param sre
+	 *            the SRE the delta is applied to.
+	 * @param s
+	 *            the script.
+	 * @return the delta.
+	 * @throws IllegalArgumentException
+	 *             if the script is invalid. The message contains the line and
+	 *             column of the error.
+	 */
 	public static Delta<SRE> parse(SRE sre, String s) {
-		if (!isValid(s)) {
-			throw new IllegalArgumentException();
+		try {
+			return parse(sre, new StringReader(s));
+		} catch (IOException e) {
+			// reading from a String does not fail
+			throw new UncheckedIOException(e);
 		}
+	}
 
+	/**
+	 * Parse a delta script line by line, see {@link #parse(SRE, String)}.
+	 *
+	 * @param sre
+	 *            the SRE the delta is applied to.
+	 * @param reader
+	 *            the script. It is read until its end, but not closed.
+	 * @return the delta.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static SREDelta parse(SRE sre, Reader reader) throws IOException {
 		SREDelta delta = new SREDelta();
+		parse(sre, reader, delta::addChange);
+		return delta;
+	}
 
-		for (String line : s.split("\\R")) {
-			String[] parts = line.split("\\s*>\\s*");
-
-			SRE toReplace = getByIndex(sre, Integer.parseInt(parts[0]));
-			SRE replacement = SREBuilder.parse(parts[1]);
+	/**
+	 * Parse a delta script line by line and pass each replacement to a
+	 * consumer as soon as its line is read, see {@link #parse(SRE, String)}.
+	 * The lines before an invalid line have been passed when the exception is
+	 * thrown.
+	 *
+	 * @param sre
+	 *            the SRE whose subexpressions are referred to.
+	 * @param reader
+	 *            the script. It is read until its end, but not closed.
+	 * @param changes
+	 *            the consumer of the original subexpressions and their
+	 *            replacements.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static void parse(SRE sre, Reader reader, BiConsumer<SRE, SRE> changes) throws IOException {
+		DeltaScanner scanner = new DeltaScanner(reader);
+		PreOrder indices = new PreOrder(sre);
+		while (scanner.nextLine()) {
+			int column = scanner.column();
+			SRE toReplace = indices.get(scanner.integer());
+			if (toReplace == null) {
+				throw scanner.error(column, "There is no subexpression with this index.", null);
+			}
+			scanner.expect('>');
 
+			column = scanner.column();
+			SRE replacement;
+			try {
+				replacement = SREBuilder.parse(scanner.rest());
+			} catch (IllegalArgumentException | InputMismatchException e) {
+				throw scanner.error(column, e.getMessage() != null ? e.getMessage() : "Invalid SRE.", e);
+			}
+			int sreColumn = column;
 			replacement = replacement.traverse(new Traverser() {
 
 				@Override
 				protected SRE postOrder(SRE traverseSRE, OptionalInt weight) {
-					if (traverseSRE.getType() == Type.ATOMIC) {
-						SREAtomic s = (SREAtomic) traverseSRE;
-						if (s.getCharacter().trim().startsWith("\\")) {
-							int i = Integer.parseInt(s.getCharacter().trim().substring(1));
-							return getByIndex(sre, i);
+					// an escaped index is parsed to an atomic SRE consisting of
+					// digits, which is no valid character otherwise. It is
+					// replaced by a copy, as the original is replaced itself.
+					if (traverseSRE.getType() == Type.ATOMIC && isIndex(((SREAtomic) traverseSRE).getCharacter())) {
+						String index = ((SREAtomic) traverseSRE).getCharacter();
+						SRE referenced = null;
+						try {
+							referenced = indices.get(Integer.parseInt(index));
+						} catch (NumberFormatException e) {
+							// handled below
+						}
+						if (referenced == null) {
+							throw scanner.error(sreColumn, "There is no subexpression with the index " + index + ".",
+									null);
 						}
+						return referenced.clone();
 					}
 					return traverseSRE;
 				}
 			}).y;
 
-			delta.addChange(toReplace, replacement);
+			changes.accept(toReplace, replacement);
 		}
-
-		return delta;
 	}
 
-	private static boolean isValid(String s) {
-		String sre = "[\\s\\w\\d\\\\\\:\\*\\[\\]\\.\\+\\(\\)]+";
-		String line = "\\d\\s*>" + sre;
-		return s.matches("(" + line + "\\R)*" + line);
+	private static boolean isIndex(String character) {
+		for (int i = 0; i < character.length(); i++) {
+			if (character.charAt(i) < '0' || character.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return !character.isEmpty();
 	}
 
+	/**
+	 * Get a subexpression by its index in pre order, starting at 1.
+	 *
+	 * @param sre
+	 *            the SRE.
+	 * @param index
+	 *            the index.
+	 * @return the subexpression or null if the SRE has less subexpressions.
+	 */
 	public static SRE getByIndex(SRE sre, int index) {
-		return sre.traverse(new Traverser() {
+		return new PreOrder(sre).get(index);
+	}
 
-			SRE sre = null;
-			int currIndex = 1;
+	/**
+	 * The subexpressions of an SRE in pre order, as visited by
+	 * {@link SRE#traverse(Traverser)}. They are enumerated lazily up to the
+	 * highest index requested so far, without recursion.
+	 */
+	private static class PreOrder {
 
-			@Override
-			protected void preOrder(SRE sre) {
-				if (currIndex++ == index)
-					this.sre = sre;
+		private final List<SRE> nodes = new ArrayList<>();
+		private final Deque<SRE> stack = new ArrayDeque<>();
+
+		public PreOrder(SRE sre) {
+			stack.push(sre);
+		}
+
+		public SRE get(int index) {
+			if (index < 1) {
+				return null;
 			}
-		}).x.sre;
+			while (nodes.size() < index && !stack.isEmpty()) {
+				SRE next = stack.pop();
+				nodes.add(next);
+				SRE[] children = next.getChildren();
+				for (int i = children.length - 1; i >= 0; i--) {
+					stack.push(children[i]);
+				}
+			}
+			return index <= nodes.size() ? nodes.get(index - 1) : null;
+		}
 	}
 
 	public static String printIndices(SRE sre) {
@@ -147,18 +268,77 @@ public class SREDelta implements Delta<SRE> {
 		return Collections.unmodifiableMap(replacements);
 	}
 
+	/**
+	 * Change the repetition rate of a Kleene star. Unlike a replacement, the
+	 * star and its child are kept, so the DTMC only needs new probabilities.
+	 * 
+	 * @param kleene
+	 *            the Kleene star.
+	 * @param rate
+	 *            the new probability of iteration.
+	 */
+	public void addRateChange(SREKleene kleene, double rate) {
+		if (rate < 0 || rate > 1) {
+			throw new IllegalArgumentException("The repetition rate " + rate + " is no probability.");
+		}
+		repetitionRates.put(kleene, rate);
+	}
+
+	/**
+	 * Change the rates of a sum. Unlike a replacement, the sum and its
+	 * children are kept, so the DTMC only needs new probabilities.
+	 * 
+	 * @param sum
+	 *            the sum.
+	 * @param rates
+	 *            the new nonnegative rates, one for every choice. The array is
+	 *            not copied.
+	 */
+	public void addRateChange(SRESum sum, int[] rates) {
+		if (rates.length != sum.getSubnodes().length) {
+			throw new IllegalArgumentException("The sum has " + sum.getSubnodes().length + " choices, but "
+					+ rates.length + " rates are given.");
+		} else if (Arrays.stream(rates).anyMatch(r -> r < 0)) {
+			throw new IllegalArgumentException("The rates must be nonnegative.");
+		}
+		sumRates.put(sum, rates);
+	}
+
+	public Map<SREKleene, Double> getRepetitionRateChanges() {
+		return Collections.unmodifiableMap(repetitionRates);
+	}
+
+	public Map<SRESum, int[]> getSumRateChanges() {
+		return Collections.unmodifiableMap(sumRates);
+	}
+
+	/**
+	 * Change the rates and replace the changed subexpressions. Like
+	 * {@link SRE#traverse(Traverser)}, this changes the nodes in place, but
+	 * every distinct node is visited once and without recursion.
+	 */
 	@Override
 	public SRE applyChanges(SRE sre) {
-		return sre.traverse(new SRE.Traverser() {
-
-			@Override
-			protected SRE postOrder(SRE sre, OptionalInt weight) {
-				if (replacements.containsKey(sre)) {
-					return replacements.get(sre);
-				} else {
-					return sre;
+		repetitionRates.forEach(SREKleene::setRepetitionRate);
+		sumRates.forEach(SRESum::setRates);
+		for (SRE node : SREHelpers.postOrder(sre)) {
+			if (node.getType() == Type.KLEENE) {
+				SRE replacement = replacements.get(((SREKleene) node).getChild());
+				if (replacement != null) {
+					((SREKleene) node).setChild(replacement);
+				}
+			} else {
+				// the children of sums and concatenations are stored in the
+				// returned array
+				SRE[] children = node.getChildren();
+				for (int i = 0; i < children.length; i++) {
+					SRE replacement = replacements.get(children[i]);
+					if (replacement != null) {
+						children[i] = replacement;
+					}
 				}
 			}
-		}).y;
+		}
+		return replacements.getOrDefault(sre, sre);
 	}
 }
@@ -0,0 +1,250 @@
+package de.uni_stuttgart.beehts.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.model.simplification.SREDigest;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * This class calculates the differences between two SREs as an
+ * {@link SREDelta}, e.g. to update the DTMC of an SRE incrementally after its
+ * file was edited.<br>
+ *
+ * Both SREs are walked top-down in parallel. Subexpressions with the same
+ * {@link SREDigest structural digest} are left unchanged. Nodes that only
+ * differ in their children are kept and their children are compared. Nodes
+ * whose rates differ as well get the new rates, if their children still
+ * correspond to each other. Every
+ * other node of the original SRE is replaced by a copy of the corresponding
+ * node of the target SRE, in which subexpressions that occur in the replaced
+ * node are reused, so the transformation of the delta only needs to handle
+ * the parts that actually changed.<br>
+ *
+ * Changes of rates and replacements apply to every occurrence of a node. A
+ * subexpression that occurs several times in the original SRE is therefore
+ * never changed itself: a node with such a child that differs from the target
+ * is replaced as a whole.
+ */
+public class SREDiff {
+
+	private final Map<SRE, SREDigest> originalDigests;
+	private final Map<SRE, SREDigest> targetDigests;
+	/** The subexpressions of the original SRE that occur several times */
+	private final Set<SRE> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private SREDiff(SRE original, SRE target) {
+		this.originalDigests = SREDigest.ofAll(original);
+		this.targetDigests = SREDigest.ofAll(target);
+		Set<SRE> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (SRE node : SREHelpers.postOrder(original)) {
+			for (SRE child : node.getChildren()) {
+				if (!referenced.add(child)) {
+					shared.add(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculate the differences between two SREs. Applying the result to the
+	 * original SRE yields an SRE that is structurally equal to the target.
+	 * Neither SRE is modified.
+	 *
+	 * @param original
+	 *            the SRE to change.
+	 * @param target
+	 *            the SRE to change the original into.
+	 * @return the replacements to apply to the original.
+	 */
+	public static SREDelta diff(SRE original, SRE target) {
+		return new SREDiff(original, target).compare(original, target);
+	}
+
+	private SREDelta compare(SRE original, SRE target) {
+		SREDelta delta = new SREDelta();
+		Deque<SRE> originals = new ArrayDeque<>();
+		Deque<SRE> targets = new ArrayDeque<>();
+		originals.push(original);
+		targets.push(target);
+		while (!originals.isEmpty()) {
+			SRE o = originals.pop(), t = targets.pop();
+			if (originalDigests.get(o).equals(targetDigests.get(t))) {
+				continue;
+			} else if (sameNode(o, t) && (sameRates(o, t) || alignedChildren(o, t)) && !changesShared(o, t)) {
+				if (!sameRates(o, t)) {
+					addRateChange(o, t, delta);
+				}
+				for (int i = 0; i < o.getChildren().length; i++) {
+					originals.push(o.getChildren()[i]);
+					targets.push(t.getChildren()[i]);
+				}
+			} else {
+				delta.addChange(o, replacement(o, t));
+			}
+		}
+		return delta;
+	}
+
+	/**
+	 * Check if two nodes are equal, apart from their children and rates.
+	 */
+	private static boolean sameNode(SRE original, SRE target) {
+		if (original.getType() != target.getType()
+				|| original.getChildren().length != target.getChildren().length) {
+			return false;
+		}
+		switch (original.getType()) {
+		case ATOMIC:
+			return ((SREAtomic) original).getCharacter().equals(((SREAtomic) target).getCharacter());
+		case CAT: // fallthrough
+		case SUM: // fallthrough
+		case KLEENE:
+			return true;
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private static boolean sameRates(SRE original, SRE target) {
+		switch (original.getType()) {
+		case SUM:
+			return Arrays.equals(((SRESum) original).getRates(), ((SRESum) target).getRates());
+		case KLEENE:
+			return ((SREKleene) original).getRepetitionRate() == ((SREKleene) target).getRepetitionRate();
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Check if the children of two nodes correspond to each other at the same
+	 * positions. Otherwise, e.g. if the choices of a sum have been reordered,
+	 * the node is replaced to reuse its children at their new positions.
+	 */
+	private boolean alignedChildren(SRE original, SRE target) {
+		for (int i = 0; i < original.getChildren().length; i++) {
+			SRE o = original.getChildren()[i], t = target.getChildren()[i];
+			if (!originalDigests.get(o).equals(targetDigests.get(t)) && !sameNode(o, t)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if a child that occurs several times differs from the
+	 * corresponding child of the target.
+	 */
+	private boolean changesShared(SRE original, SRE target) {
+		for (int i = 0; i < original.getChildren().length; i++) {
+			SRE o = original.getChildren()[i];
+			if (shared.contains(o) && !originalDigests.get(o).equals(targetDigests.get(target.getChildren()[i]))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Change the rates of a node to the ones of the target.
+	 */
+	private static void addRateChange(SRE original, SRE target, SREDelta delta) {
+		if (original.getType() == Type.SUM) {
+			delta.addRateChange((SRESum) original, ((SRESum) target).getRates().clone());
+		} else {
+			delta.addRateChange((SREKleene) original, ((SREKleene) target).getRepetitionRate());
+		}
+	}
+
+	/**
+	 * Copy the target, reusing the subexpressions of the replaced node. Every
+	 * subexpression is reused at most once, and parts of reused subexpressions
+	 * are not reused again.
+	 */
+	private SRE replacement(SRE replaced, SRE target) {
+		Map<SREDigest, List<SRE>> candidates = new HashMap<>();
+		for (SRE node : SREHelpers.postOrder(replaced)) {
+			if (node != replaced) {
+				candidates.computeIfAbsent(originalDigests.get(node), d -> new ArrayList<>()).add(node);
+			}
+		}
+		Set<SRE> used = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		Deque<SRE> nodes = new ArrayDeque<>();
+		Deque<List<SRE>> copies = new ArrayDeque<>();
+		nodes.push(target);
+		copies.push(new ArrayList<>());
+		while (true) {
+			SRE node = nodes.peek();
+			List<SRE> children = copies.peek();
+			SRE copy = null;
+			if (children.isEmpty()) {
+				copy = reuse(candidates.get(targetDigests.get(node)), used);
+			}
+			if (copy == null && children.size() < node.getChildren().length) {
+				nodes.push(node.getChildren()[children.size()]);
+				copies.push(new ArrayList<>());
+				continue;
+			} else if (copy == null) {
+				copy = copy(node, children);
+			}
+			nodes.pop();
+			copies.pop();
+			if (nodes.isEmpty()) {
+				return copy;
+			}
+			copies.peek().add(copy);
+		}
+	}
+
+	/**
+	 * Take the first candidate that does not overlap with the subexpressions
+	 * reused so far.
+	 *
+	 * @return the reused subexpression or null, if there is none.
+	 */
+	private static SRE reuse(List<SRE> candidates, Set<SRE> used) {
+		if (candidates == null) {
+			return null;
+		}
+		for (SRE candidate : candidates) {
+			List<SRE> parts = SREHelpers.postOrder(candidate);
+			if (parts.stream().noneMatch(used::contains)) {
+				used.addAll(parts);
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	private static SRE copy(SRE node, List<SRE> children) {
+		switch (node.getType()) {
+		case ATOMIC:
+			return new SREAtomic(((SREAtomic) node).getCharacter());
+		case CAT:
+			return new SREConcat(children.toArray(new SRE[children.size()]));
+		case SUM: {
+			int[] rates = ((SRESum) node).getRates();
+			Tuple<SRE, Integer>[] tuples = SREHelpers.newAlternatives(rates.length);
+			for (int i = 0; i < rates.length; i++) {
+				tuples[i] = new Tuple<>(children.get(i), rates[i]);
+			}
+			return new SRESum(tuples);
+		}
+		case KLEENE:
+			return new SREKleene(children.get(0), ((SREKleene) node).getRepetitionRate());
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+}
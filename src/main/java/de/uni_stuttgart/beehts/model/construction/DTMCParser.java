@@ -1,143 +1,757 @@
 package de.uni_stuttgart.beehts.model.construction;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import de.uni_stuttgart.beehts.model.DTMC;
 import de.uni_stuttgart.beehts.model.DTMC.Node;
 
+/**
+ * This class creates DTMCs from their String representation. Two syntaxes are
+ * supported:
+ * <ul>
+ * <li>{@code I: n0; F: n1, n2; n0 --> n1 ("a":0.5), n0 --> n2 ("b":0.5)}</li>
+ * <li>The matrix syntax: the initial node in the first line, the final nodes
+ * separated by whitespace in the second line and one edge
+ * {@code from to probability [character]} per following line. The character
+ * defaults to "a" followed by the target node, {@value #EMPTY_CHARACTER}
+ * stands for the empty character.</li>
+ * </ul>
+ * The input is validated while it is read, so it is never held in memory as a
+ * whole. Files in the matrix syntax are memory-mapped and their edge lines are
+ * parsed in parallel, see {@link #fromFile(Path)}.
+ */
 public class DTMCParser {
 
+	/**
+	 * The character of edges with the empty character in the matrix syntax,
+	 * which only allows words as characters.
+	 */
+	public static final String EMPTY_CHARACTER = "_empty";
+
+	/** The minimal number of bytes of edge lines parsed by one task. */
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
 	public static DTMC parse(String s) {
-		if (isCorrectDTMCSyntax(s)) {
-			return parseDTMC(s);
-		} else if (isCorrectMatrixSyntax(s)) {
-			return parseMatrix(s);
+		try {
+			return parse(new StringReader(s));
+		} catch (IOException e) {
+			// reading from a String does not fail
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Parse a DTMC from a UTF-8 encoded stream.
+	 *
+	 * @param in
+	 *            the stream. It is read until its end, but not closed.
+	 * @return the DTMC.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static DTMC parse(InputStream in) throws IOException {
+		return parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Parse a DTMC from a Reader.
+	 *
+	 * @param reader
+	 *            the Reader. It is read until its end, but not closed.
+	 * @return the DTMC.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static DTMC parse(Reader reader) throws IOException {
+		Input input = new Input(reader);
+		input.skipWhitespace();
+		DTMC dtmc;
+		if (Character.toLowerCase(input.peek()) == 'i') {
+			char first = (char) input.next();
+			if (input.peek() == ':') {
+				dtmc = parseDTMC(input);
+			} else {
+				input.unread(first);
+				dtmc = parseMatrix(input);
+			}
 		} else {
-			throw new IllegalArgumentException();
+			dtmc = parseMatrix(input);
 		}
+		dtmc.simplify();
+		return dtmc;
 	}
 
-	private static DTMC parseMatrix(String s) {
-		DTMC dtmc = new DTMC();
-		Map<String, Node> nameToNode = new HashMap<>();
+	/**
+	 * Parse a DTMC from a UTF-8 encoded file. Files in the matrix syntax are
+	 * memory-mapped and split into chunks of lines, which are parsed in
+	 * parallel. The edges are added to the DTMC in the order of the file
+	 * afterwards, so the result is the same as for {@link #parse(Reader)}.
+	 *
+	 * @param file
+	 *            the file.
+	 * @return the DTMC.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static DTMC fromFile(Path file) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			// a mapping is limited to 2 GiB, stream larger files instead
+			buffer = channel.size() <= Integer.MAX_VALUE
+					? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) : null;
+		}
+		int start = 0;
+		while (buffer != null && start < buffer.limit() && (buffer.get(start) & 0xff) <= ' ') {
+			start++;
+		}
+		if (buffer == null || (start + 1 < buffer.limit() && (buffer.get(start) | 0x20) == 'i'
+				&& buffer.get(start + 1) == ':')) {
+			try (Reader reader = Files.newBufferedReader(file)) {
+				return parse(reader);
+			}
+		}
+		DTMC dtmc = parseMatrix(buffer, start);
+		dtmc.simplify();
+		return dtmc;
+	}
 
-		String[] edges = s.trim().split("\\R", -1);
+	/**
+	 * Parse the matrix syntax from a mapped file.
+	 */
+	private static DTMC parseMatrix(ByteBuffer buffer, int start) {
+		int limit = buffer.limit();
+		ByteLine line = new ByteLine(buffer);
+		int lineNumber = 1;
+		for (int i = 0; i < start; i++) {
+			if (isLineTerminator((char) buffer.get(i)) && !isCRLF(buffer, i)) {
+				lineNumber++;
+			}
+		}
 
-		String initial = edges[0].trim();
-		nameToNode.put(initial, dtmc.addInitialNode(initial));
-		Arrays.stream(edges[1].split("\\s+")).forEach(n -> {
-			n = n.trim();
-			nameToNode.put(n, dtmc.addFinalNode(n));
-		});
-
-		for (String edge : Arrays.asList(edges).subList(2, edges.length)) {
-			edge = edge.trim().replaceAll("\\s\\s+", " ");
-			String[] parts = edge.split(" ");
-
-			for (int i = 0; i < 2; i++) {
-				if (!nameToNode.containsKey(parts[i])) {
-					nameToNode.put(parts[i], dtmc.addNode(parts[i]));
-				}
+		int pos = line.read(start, limit);
+		String initial = parseInitial(line, lineNumber++);
+		if (pos >= limit) {
+			throw error(lineNumber, "Missing line with the final nodes.");
+		}
+		pos = line.read(pos, limit);
+		MatrixBuilder builder = new MatrixBuilder(initial, parseFinals(line, lineNumber++));
+
+		int chunks = (int) Math.min(ForkJoinPool.getCommonPoolParallelism() * 4L, (limit - pos) / MIN_CHUNK_SIZE);
+		int[] bounds = new int[Math.max(chunks, 1) + 1];
+		bounds[0] = pos;
+		for (int i = 1; i < bounds.length - 1; i++) {
+			bounds[i] = nextLine(buffer, Math.max(bounds[i - 1], pos + (int) ((long) (limit - pos) * i / chunks)),
+					limit);
+		}
+		bounds[bounds.length - 1] = limit;
+
+		IntStream indices = IntStream.range(0, bounds.length - 1);
+		List<EdgeBuffer> parsed = (bounds.length > 2 ? indices.parallel() : indices)
+				.mapToObj(i -> parseEdges(new ByteLine(buffer), bounds[i], bounds[i + 1]))
+				.collect(Collectors.toList());
+		for (EdgeBuffer edges : parsed) {
+			builder.addEdges(edges, lineNumber);
+			lineNumber += edges.lines;
+		}
+		return builder.dtmc;
+	}
+
+	/**
+	 * Parse the edge lines of a chunk. Errors are recorded instead of thrown,
+	 * so the first error of the file can be reported after all chunks are
+	 * parsed.
+	 */
+	private static EdgeBuffer parseEdges(ByteLine line, int start, int end) {
+		EdgeBuffer edges = new EdgeBuffer();
+		int pos = start;
+		while (pos < end) {
+			pos = line.read(pos, end);
+			try {
+				parseEdge(line, edges, edges.lines);
+			} catch (IllegalArgumentException e) {
+				edges.error = e.getMessage();
+				edges.errorLine = edges.lines;
+				break;
 			}
+			edges.lines++;
+		}
+		return edges;
+	}
 
-			String character = "a" + parts[1];
-			if (parts.length == 4) {
-				character = parts[3];
+	/**
+	 * Parse the matrix syntax from a Reader.
+	 */
+	private static DTMC parseMatrix(Input input) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int lineNumber = input.line;
+		input.readLine(line);
+		String initial = parseInitial(line, lineNumber);
+		lineNumber = input.line;
+		if (!input.readLine(line)) {
+			throw error(lineNumber, "Missing line with the final nodes.");
+		}
+		MatrixBuilder builder = new MatrixBuilder(initial, parseFinals(line, lineNumber));
+
+		EdgeBuffer edges = new EdgeBuffer();
+		lineNumber = input.line;
+		while (input.readLine(line)) {
+			try {
+				parseEdge(line, edges, 0);
+			} catch (IllegalArgumentException e) {
+				throw error(lineNumber, e.getMessage());
 			}
+			builder.addEdges(edges, lineNumber);
+			edges.size = 0;
+			lineNumber = input.line;
+		}
+		return builder.dtmc;
+	}
 
-			dtmc.addEdge(nameToNode.get(parts[0]), nameToNode.get(parts[1]), character,
-					Double.parseDouble(parts[2].replaceAll(",", ".")));
+	private static String parseInitial(CharSequence line, int lineNumber) {
+		int[] bounds = new int[4];
+		if (split(line, bounds) != 1 || !isWord(line, bounds[0], bounds[1])) {
+			throw error(lineNumber, "Expected the name of the initial node, got '" + line + "'.");
 		}
+		return line.subSequence(bounds[0], bounds[1]).toString();
+	}
 
-		dtmc.simplify();
-		return dtmc;
+	private static List<String> parseFinals(CharSequence line, int lineNumber) {
+		List<String> finals = new ArrayList<>();
+		int end = 0;
+		while (true) {
+			int start = skipWhitespace(line, end);
+			if (start == line.length()) {
+				return finals;
+			}
+			end = skipWord(line, start);
+			if (end == start || (end < line.length() && !isWhitespace(line.charAt(end)))) {
+				throw error(lineNumber, "Expected the names of the final nodes, got '" + line + "'.");
+			}
+			finals.add(line.subSequence(start, end).toString());
+		}
 	}
 
-	private static DTMC parseDTMC(String s) {
-		DTMC dtmc = DTMC.EMPTY();
-		Map<String, Node> nameToNode = new HashMap<>();
+	/**
+	 * Parse a line {@code from to probability [character]}. Empty lines are
+	 * skipped.
+	 */
+	private static void parseEdge(CharSequence line, EdgeBuffer edges, int lineIndex) {
+		int[] bounds = edges.bounds;
+		int fields = split(line, bounds);
+		if (fields == 0) {
+			return;
+		} else if (fields < 3 || fields > 4) {
+			throw new IllegalArgumentException("Expected 'from to probability [character]', got '" + line + "'.");
+		}
+		for (int i = 0; i < fields; i++) {
+			if (i != 2 && !isWord(line, bounds[2 * i], bounds[2 * i + 1])) {
+				throw new IllegalArgumentException(
+						"Illegal name: '" + line.subSequence(bounds[2 * i], bounds[2 * i + 1]) + "'.");
+			}
+		}
+		String from = line.subSequence(bounds[0], bounds[1]).toString();
+		String to = line.subSequence(bounds[2], bounds[3]).toString();
+		String character = fields == 4 ? line.subSequence(bounds[6], bounds[7]).toString() : "a" + to;
+		if (character.equals(EMPTY_CHARACTER)) {
+			character = "";
+		}
+		edges.add(from, to, character, parseProbability(line, bounds[4], bounds[5]), lineIndex);
+	}
+
+	/**
+	 * Parse a probability: a digit, optionally followed by a dot or comma and
+	 * more digits and an exponent {@code e-digits}.
+	 */
+	private static double parseProbability(CharSequence line, int start, int end) {
+		int i = start;
+		boolean valid = i < end && isDigit(line.charAt(i++));
+		if (valid && i < end && (line.charAt(i) == '.' || line.charAt(i) == ',')) {
+			int digits = ++i;
+			while (i < end && isDigit(line.charAt(i))) {
+				i++;
+			}
+			valid = i > digits;
+		}
+		if (valid && i < end && line.charAt(i) == 'e') {
+			i++;
+			valid = i < end && line.charAt(i++) == '-';
+			int digits = i;
+			while (i < end && isDigit(line.charAt(i))) {
+				i++;
+			}
+			valid &= i > digits;
+		}
+		String probability = line.subSequence(start, end).toString();
+		if (!valid || i != end) {
+			throw new IllegalArgumentException("Illegal probability: '" + probability + "'.");
+		}
+		return Double.parseDouble(probability.replace(',', '.'));
+	}
 
-		String[] split = s.replaceAll("[\r\n]", " ").trim().split(";");
+	/**
+	 * Find the fields of a line, which are separated by whitespace.
+	 *
+	 * @param bounds
+	 *            the start and end indices of the fields (output parameter). Its
+	 *            length limits the number of fields found.
+	 * @return the number of fields, or a larger number if the bounds could not
+	 *         hold all of them.
+	 */
+	private static int split(CharSequence line, int[] bounds) {
+		int fields = 0;
+		int i = skipWhitespace(line, 0);
+		while (i < line.length()) {
+			int start = i;
+			while (i < line.length() && !isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			if (2 * fields + 1 >= bounds.length) {
+				return fields + 1;
+			}
+			bounds[2 * fields] = start;
+			bounds[2 * fields + 1] = i;
+			fields++;
+			i = skipWhitespace(line, i);
+		}
+		return fields;
+	}
+
+	private static int skipWhitespace(CharSequence line, int i) {
+		while (i < line.length() && isWhitespace(line.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int skipWord(CharSequence line, int i) {
+		while (i < line.length() && isWordCharacter(line.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isWord(CharSequence line, int start, int end) {
+		return end > start && skipWord(line, start) == end;
+	}
 
-		String initial = split[0].split(":")[1].trim();
+	private static boolean isWordCharacter(int c) {
+		return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\u000B' || c == '\f' || c == '\n' || c == '\r';
+	}
+
+	private static boolean isLineTerminator(int c) {
+		return c == '\n' || c == '\r' || c == '\u000B' || c == '\f' || c == '\u0085' || c == '\u2028'
+				|| c == '\u2029';
+	}
+
+	private static boolean isCRLF(ByteBuffer buffer, int i) {
+		return buffer.get(i) == '\r' && i + 1 < buffer.limit() && buffer.get(i + 1) == '\n';
+	}
+
+	/**
+	 * @return the start of the line after the one containing position i.
+	 */
+	private static int nextLine(ByteBuffer buffer, int i, int limit) {
+		while (i < limit && !isLineTerminator(buffer.get(i))) {
+			i++;
+		}
+		return i < limit && isCRLF(buffer, i) ? i + 2 : Math.min(i + 1, limit);
+	}
+
+	private static IllegalArgumentException error(int line, String message) {
+		return new IllegalArgumentException("Line " + line + ": " + message);
+	}
+
+	/**
+	 * Parse the syntax {@code I: n0; F: n1, n2; n0 --> n1 ("a":1.0)} after the
+	 * 'i'.
+	 */
+	private static DTMC parseDTMC(Input input) throws IOException {
+		DTMC dtmc = new DTMC();
+		Map<String, Node> nameToNode = new HashMap<>();
+
+		input.expect(':');
+		String initial = input.word();
 		nameToNode.put(initial, dtmc.addInitialNode(initial));
+		input.expect(';');
 
-		String[] finalNodes = split[1].split(":")[1].split(",");
-		Arrays.stream(finalNodes).map(string -> string.trim()).forEach(string -> {
-			if (!nameToNode.containsKey(string)) {
-				nameToNode.put(string, dtmc.addFinalNode(string));
-			} else {
-				dtmc.makeNodeFinal(nameToNode.get(string));
-			}
-		});
+		input.skipWhitespace();
+		if (Character.toLowerCase(input.peek()) != 'f') {
+			throw input.error("'F:'");
+		}
+		input.next();
+		input.expect(':');
+		input.skipWhitespace();
+		if (input.peek() != ';') {
+			do {
+				String name = input.word();
+				if (!nameToNode.containsKey(name)) {
+					nameToNode.put(name, dtmc.addFinalNode(name));
+				} else {
+					dtmc.makeNodeFinal(nameToNode.get(name));
+				}
+			} while (input.accept(','));
+		}
+		input.expect(';');
 
-		if (split.length == 3) {
-			splitEdges(split[2]).forEach(edge -> {
-				for (int i = 0; i < 2; i++) {
-					if (!nameToNode.containsKey(edge[i])) {
-						nameToNode.put(edge[i], dtmc.addNode(edge[i]));
+		input.skipWhitespace();
+		if (input.peek() >= 0) {
+			do {
+				// syntax: n1 --> n2 ("char" : rate)
+				int line = input.line;
+				String[] names = { input.word(), null };
+				input.expect("-->");
+				names[1] = input.word();
+				input.expect('(');
+				input.expect('"');
+				StringBuilder character = new StringBuilder();
+				while (input.peek() != '"') {
+					if (input.peek() < 0 || isWhitespace(input.peek())) {
+						throw input.error("'\"'");
 					}
+					character.append((char) input.next());
 				}
+				input.next();
+				input.expect(':');
+				double probability = input.probability();
+				input.expect(')');
 
-				dtmc.addEdge(nameToNode.get(edge[0]), nameToNode.get(edge[1]), edge[2], Double.parseDouble(edge[3]));
-			});
+				for (String name : names) {
+					if (!nameToNode.containsKey(name)) {
+						nameToNode.put(name, dtmc.addNode(name));
+					}
+				}
+				try {
+					dtmc.addEdge(nameToNode.get(names[0]), nameToNode.get(names[1]), character.toString(), probability);
+				} catch (IllegalArgumentException e) {
+					throw error(line, e.getMessage());
+				}
+			} while (input.accept(','));
+		}
+		input.skipWhitespace();
+		if (input.peek() >= 0) {
+			throw input.error("',' or the end of the input");
 		}
-
-		dtmc.simplify();
 		return dtmc;
 	}
 
-	private static List<String[]> splitEdges(String edgeString) {
-		List<String[]> edges = new LinkedList<>();
-		Arrays.stream(edgeString.split(",")).forEach(string -> {
-			String[] edge = new String[4];
-			string = string.trim();
-
-			// syntax: n1 --> n2 ("char" : rate)
-			int firstSplit = string.indexOf("-->");
-			edge[0] = string.substring(0, firstSplit).trim();
-			int secondSplit = string.indexOf("(", firstSplit);
-			edge[1] = string.substring(firstSplit + 3, secondSplit).trim();
-			int thirdSplit = string.indexOf(":", secondSplit);
-			edge[2] = string.substring(secondSplit + 1, thirdSplit).trim();
-			edge[2] = edge[2].substring(1, edge[2].length() - 1);
-			edge[3] = string.substring(thirdSplit + 1, string.length() - 1).trim();
-
-			edges.add(edge);
-		});
-		return edges;
+	/**
+	 * Adds the nodes and edges of the matrix syntax to a DTMC.
+	 */
+	private static class MatrixBuilder {
+
+		public final DTMC dtmc = new DTMC();
+		private final Map<String, Node> nameToNode = new HashMap<>();
+
+		public MatrixBuilder(String initial, List<String> finals) {
+			nameToNode.put(initial, dtmc.addInitialNode(initial));
+			for (String name : finals) {
+				if (!nameToNode.containsKey(name)) {
+					nameToNode.put(name, dtmc.addFinalNode(name));
+				} else {
+					dtmc.makeNodeFinal(nameToNode.get(name));
+				}
+			}
+		}
+
+		/**
+		 * Add the parsed edges and report the error of their chunk, if any.
+		 *
+		 * @param firstLine
+		 *            the line number of the first line of the chunk.
+		 */
+		public void addEdges(EdgeBuffer edges, int firstLine) {
+			for (int i = 0; i < edges.size; i++) {
+				Node from = node(edges.from[i]), to = node(edges.to[i]);
+				try {
+					dtmc.addEdge(from, to, edges.character[i], edges.probability[i]);
+				} catch (IllegalArgumentException e) {
+					throw error(firstLine + edges.line[i], e.getMessage());
+				}
+			}
+			if (edges.error != null) {
+				throw error(firstLine + edges.errorLine, edges.error);
+			}
+		}
+
+		private Node node(String name) {
+			Node n = nameToNode.get(name);
+			if (n == null) {
+				n = dtmc.addNode(name);
+				nameToNode.put(name, n);
+			}
+			return n;
+		}
 	}
 
-	private static boolean isCorrectDTMCSyntax(String s) {
-		String regexInitial = "i:\\s*\\w+\\s*;";
-		String regexFinal = "f:((\\s*\\w+,)*\\s*\\w+)?\\s*;";
-		String regexEdge1 = "\\w+\\s*\\-\\-\\>\\s*\\w+";
-		String regexEdge2 = "\\\"[^\\s]*\\\"\\s*\\:\\s*[01](\\.\\d+)?";
-		String regexEdge = regexEdge1 + "\\s*\\(\\s*" + regexEdge2 + "\\s*\\)";
-		return s.replaceAll("[\r\n]", " ").trim().toLowerCase().matches(regexInitial + "\\s*" + regexFinal + "\\s*"
-				+ "((" + regexEdge + "\\s*,\\s*)*" + regexEdge + "\\s*)?");
+	/**
+	 * The edges parsed from a chunk of lines in the matrix syntax.
+	 */
+	private static class EdgeBuffer {
+
+		public String[] from = new String[16], to = new String[16], character = new String[16];
+		public double[] probability = new double[16];
+		/** the index of the line of each edge within the chunk */
+		public int[] line = new int[16];
+		public int size = 0;
+		/** the number of lines read */
+		public int lines = 0;
+		public String error = null;
+		public int errorLine;
+		/** space for the field bounds of a line */
+		public final int[] bounds = new int[8];
+
+		public void add(String from, String to, String character, double probability, int line) {
+			if (size == this.from.length) {
+				int capacity = 2 * size;
+				this.from = Arrays.copyOf(this.from, capacity);
+				this.to = Arrays.copyOf(this.to, capacity);
+				this.character = Arrays.copyOf(this.character, capacity);
+				this.probability = Arrays.copyOf(this.probability, capacity);
+				this.line = Arrays.copyOf(this.line, capacity);
+			}
+			this.from[size] = from;
+			this.to[size] = to;
+			this.character[size] = character;
+			this.probability[size] = probability;
+			this.line[size] = line;
+			size++;
+		}
 	}
 
-	private static boolean isCorrectMatrixSyntax(String s) {
-		String[] edges = s.trim().split("\\R", -1);
-		if (edges.length < 2)
-			return false;
-		if (!edges[0].trim().matches("\\w+"))
-			return false;
-		if (!edges[1].trim().matches("((\\w+\\s+)*\\w+)?"))
-			return false;
+	/**
+	 * A line of a mapped file. The syntax only allows ASCII characters, so
+	 * every byte is one character.
+	 */
+	private static class ByteLine implements CharSequence {
+
+		private final ByteBuffer buffer;
+		public int start, end;
 
-		String regexProbability = "\\d([\\.\\,]\\d+)?(e-\\d+)?";
-		String regexEdge = "\\w+\\s+\\w+\\s+" + regexProbability + "(\\s+\\w+)?";
-		for (int i = 2; i < edges.length; i++) {
-			if (!edges[i].trim().matches(regexEdge))
-				return false;
+		public ByteLine(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		private ByteLine(ByteBuffer buffer, int start, int end) {
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Read the line starting at a position.
+		 *
+		 * @return the start of the next line.
+		 */
+		public int read(int pos, int limit) {
+			start = pos;
+			end = pos;
+			while (end < limit && !isLineTerminator(buffer.get(end))) {
+				end++;
+			}
+			return end < limit && isCRLF(buffer, end) ? end + 2 : Math.min(end + 1, limit);
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (buffer.get(start + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new ByteLine(buffer, start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			char[] chars = new char[length()];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = charAt(i);
+			}
+			return new String(chars);
 		}
-		return true;
 	}
 
+	/**
+	 * Reads characters from a Reader and keeps track of the line number.
+	 */
+	private static class Input {
+
+		private final Reader reader;
+		private final char[] buffer = new char[8192];
+		private int pos = 0, length = 0;
+		private int pushedBack = -1;
+		private boolean lastWasCR = false;
+		/** the number of the line of the next character */
+		public int line = 1;
+
+		public Input(Reader reader) {
+			this.reader = reader;
+		}
+
+		public int peek() throws IOException {
+			if (pushedBack >= 0) {
+				return pushedBack;
+			}
+			while (pos == length) {
+				length = reader.read(buffer);
+				pos = 0;
+				if (length < 0) {
+					length = 0;
+					return -1;
+				}
+			}
+			return buffer[pos];
+		}
+
+		public int next() throws IOException {
+			int c = peek();
+			if (pushedBack >= 0) {
+				pushedBack = -1;
+			} else if (c >= 0) {
+				pos++;
+				if (isLineTerminator(c) && !(c == '\n' && lastWasCR)) {
+					line++;
+				}
+				lastWasCR = c == '\r';
+			}
+			return c;
+		}
+
+		/**
+		 * Put a character back that was read by {@link #next()} and was not a
+		 * line terminator.
+		 */
+		public void unread(char c) {
+			pushedBack = c;
+		}
+
+		/**
+		 * Read the rest of the current line.
+		 *
+		 * @return false at the end of the input.
+		 */
+		public boolean readLine(StringBuilder sb) throws IOException {
+			if (pushedBack >= 0) {
+				sb.setLength(1);
+				sb.setCharAt(0, (char) next());
+			} else {
+				sb.setLength(0);
+				if (peek() < 0) {
+					return false;
+				}
+			}
+			int c;
+			while ((c = next()) >= 0 && !isLineTerminator(c)) {
+				sb.append((char) c);
+			}
+			if (c == '\r' && peek() == '\n') {
+				next();
+			}
+			return true;
+		}
+
+		public void skipWhitespace() throws IOException {
+			while (peek() >= 0 && isWhitespace(peek())) {
+				next();
+			}
+		}
+
+		public void expect(char c) throws IOException {
+			skipWhitespace();
+			if (peek() != c) {
+				throw error("'" + c + "'");
+			}
+			next();
+		}
+
+		public void expect(String s) throws IOException {
+			skipWhitespace();
+			for (int i = 0; i < s.length(); i++) {
+				if (peek() != s.charAt(i)) {
+					throw error("'" + s + "'");
+				}
+				next();
+			}
+		}
+
+		public boolean accept(char c) throws IOException {
+			skipWhitespace();
+			if (peek() == c) {
+				next();
+				return true;
+			}
+			return false;
+		}
+
+		public String word() throws IOException {
+			skipWhitespace();
+			StringBuilder sb = new StringBuilder();
+			while (isWordCharacter(peek())) {
+				sb.append((char) next());
+			}
+			if (sb.length() == 0) {
+				throw error("a name");
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Read a probability: 0 or 1, optionally followed by a dot and digits.
+		 */
+		public double probability() throws IOException {
+			skipWhitespace();
+			StringBuilder sb = new StringBuilder();
+			if (peek() == '0' || peek() == '1') {
+				sb.append((char) next());
+				if (peek() == '.') {
+					sb.append((char) next());
+					while (isDigit(peek())) {
+						sb.append((char) next());
+					}
+				}
+			}
+			if (sb.length() == 0 || sb.charAt(sb.length() - 1) == '.') {
+				throw error("a probability");
+			}
+			return Double.parseDouble(sb.toString());
+		}
+
+		public IllegalArgumentException error(String expected) throws IOException {
+			int c = peek();
+			return DTMCParser.error(line,
+					"Expected " + expected + ", got " + (c < 0 ? "the end of the input" : "'" + (char) c + "'") + ".");
+		}
+	}
 }
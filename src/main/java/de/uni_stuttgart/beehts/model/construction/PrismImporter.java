@@ -0,0 +1,463 @@
+package de.uni_stuttgart.beehts.model.construction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.DTMC;
+import de.uni_stuttgart.beehts.model.DTMC.Node;
+
+/**
+ * This class imports DTMCs exported by PRISM in its explicit format: the
+ * transitions ({@code .tra}) and optionally the labels ({@code .lab}) and
+ * state variables ({@code .sta}) of the states.<br>
+ *
+ * The files are memory-mapped and parsed without creating a String per line.
+ * The counts in the header of the transition file are used to allocate arrays
+ * for all transitions before the DTMC is built.<br>
+ *
+ * Every state becomes a node named by its index. The initial node is the state
+ * labelled "init" (or state 0 without labels). The final nodes are either the
+ * states with a given label, whose transitions are dropped, or the absorbing
+ * states, i.e. the states without transitions to other states. The character
+ * of a transition is
+ * <ol>
+ * <li>its action, if the transition file has a fourth column, where the action
+ * {@value #EMPTY_ACTION} stands for the empty character,</li>
+ * <li>the labels of its target joined by '_', except "init" and
+ * "deadlock",</li>
+ * <li>the values of the state variables of its target joined by '_' or</li>
+ * <li>"a" followed by the index of its target, like in the matrix syntax of
+ * the {@link DTMCParser}.</li>
+ * </ol>
+ */
+public class PrismImporter {
+
+	/**
+	 * The action of transitions with the empty character, which cannot be
+	 * written as an action in PRISM. It is the same as in the matrix syntax of
+	 * the {@link DTMCParser}.
+	 */
+	public static final String EMPTY_ACTION = DTMCParser.EMPTY_CHARACTER;
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private String traName;
+	private int states;
+	private int transitions;
+	private int[] from, to;
+	private double[] probability;
+	/** the actions of the transitions or null, if there are none */
+	private String[] action = null;
+
+	private int initial = 0;
+	private boolean[] isFinal;
+	/** the character of the transitions to a state, if not given by an action */
+	private String[] symbol;
+	private final Map<String, String> symbols = new HashMap<>();
+
+	private PrismImporter() {
+	}
+
+	/**
+	 * Import a DTMC from a transition file. The labels and state variables are
+	 * read from the files with the same name and the extensions {@code .lab}
+	 * and {@code .sta}, if they exist. The absorbing states are the final
+	 * nodes.
+	 *
+	 * @param tra
+	 *            the transition file.
+	 * @return the DTMC.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static DTMC fromFiles(Path tra) throws IOException {
+		String base = tra.getFileName().toString().replaceFirst("\\.tra$", "");
+		Path lab = tra.resolveSibling(base + ".lab"), sta = tra.resolveSibling(base + ".sta");
+		return fromFiles(tra, Files.exists(lab) ? lab : null, Files.exists(sta) ? sta : null, null);
+	}
+
+	/**
+	 * Import a DTMC from the files of PRISM's explicit format.
+	 *
+	 * @param tra
+	 *            the transition file.
+	 * @param lab
+	 *            the label file or null.
+	 * @param sta
+	 *            the state file or null.
+	 * @param finalLabel
+	 *            the label of the final states or null to use the absorbing
+	 *            states.
+	 * @return the DTMC.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static DTMC fromFiles(Path tra, Path lab, Path sta, String finalLabel) throws IOException {
+		PrismImporter importer = new PrismImporter();
+		importer.readTransitions(new MappedFile(tra));
+		if (finalLabel != null && lab == null) {
+			throw new IllegalArgumentException("The final label " + finalLabel + " requires a label file.");
+		}
+		if (lab != null) {
+			importer.readLabels(new MappedFile(lab), finalLabel);
+		}
+		if (sta != null) {
+			importer.readStates(new MappedFile(sta));
+		}
+		if (finalLabel == null) {
+			importer.findAbsorbingStates();
+		}
+		return importer.build();
+	}
+
+	private void readTransitions(MappedFile file) {
+		traName = file.name;
+		states = file.readInt();
+		transitions = file.readInt();
+		if (states == 0) {
+			throw new IllegalArgumentException("A DTMC needs at least one state.");
+		}
+		file.nextLine();
+		from = new int[transitions];
+		to = new int[transitions];
+		probability = new double[transitions];
+		isFinal = new boolean[states];
+		symbol = new String[states];
+
+		for (int i = 0; i < transitions; i++) {
+			if (file.atEnd()) {
+				throw file.error(transitions + " transitions");
+			}
+			from[i] = file.readState(states);
+			to[i] = file.readState(states);
+			probability[i] = file.readDouble();
+			if (!file.atEndOfLine()) {
+				if (action == null) {
+					action = new String[transitions];
+				}
+				String token = file.readToken();
+				action[i] = token.equals(EMPTY_ACTION) ? "" : intern(token);
+			}
+			file.nextLine();
+		}
+		file.expectEnd();
+	}
+
+	private void readLabels(MappedFile file, String finalLabel) {
+		// header: 0="init" 1="deadlock" 2="elected"
+		Map<Integer, String> labels = new HashMap<>();
+		while (!file.atEndOfLine()) {
+			int index = file.readInt();
+			file.expect('=');
+			file.expect('"');
+			labels.put(index, file.readUntil('"'));
+			file.expect('"');
+		}
+		file.nextLine();
+
+		boolean initialFound = false;
+		StringBuilder sb = new StringBuilder();
+		while (!file.atEnd()) {
+			int state = file.readState(states);
+			file.expect(':');
+			sb.setLength(0);
+			while (!file.atEndOfLine()) {
+				String label = labels.get(file.readInt());
+				if (label == null) {
+					throw file.error("a label declared in the first line");
+				} else if (label.equals("init")) {
+					if (initialFound && initial != state) {
+						throw file.error("a single initial state");
+					}
+					initial = state;
+					initialFound = true;
+				} else if (label.equals(finalLabel)) {
+					isFinal[state] = true;
+				}
+				if (!label.equals("init") && !label.equals("deadlock")) {
+					sb.append(sb.length() > 0 ? "_" : "").append(label);
+				}
+			}
+			if (sb.length() > 0) {
+				symbol[state] = intern(sb.toString());
+			}
+			file.nextLine();
+		}
+	}
+
+	private void readStates(MappedFile file) {
+		// header: (var1,var2,...)
+		file.expect('(');
+		file.readUntil(')');
+		file.expect(')');
+		file.nextLine();
+
+		while (!file.atEnd()) {
+			int state = file.readState(states);
+			file.expect(':');
+			file.expect('(');
+			String values = file.readUntil(')');
+			file.expect(')');
+			if (symbol[state] == null) {
+				symbol[state] = intern(values.replace(',', '_'));
+			}
+			file.nextLine();
+		}
+	}
+
+	private void findAbsorbingStates() {
+		Arrays.fill(isFinal, true);
+		for (int i = 0; i < transitions; i++) {
+			if (from[i] != to[i]) {
+				isFinal[from[i]] = false;
+			}
+		}
+	}
+
+	private DTMC build() {
+		DTMC dtmc = new DTMC();
+		Node[] nodes = new Node[states];
+		for (int i = 0; i < states; i++) {
+			nodes[i] = dtmc.addNode(Integer.toString(i));
+		}
+		for (int i = 0; i < states; i++) {
+			if (isFinal[i]) {
+				dtmc.makeNodeFinal(nodes[i]);
+			}
+			if (symbol[i] == null) {
+				symbol[i] = "a" + i;
+			}
+		}
+		dtmc.makeNodeInitial(nodes[initial]);
+		for (int i = 0; i < transitions; i++) {
+			if (!isFinal[from[i]]) {
+				String character = action != null && action[i] != null ? action[i] : symbol[to[i]];
+				try {
+					dtmc.addEdge(nodes[from[i]], nodes[to[i]], character, probability[i]);
+				} catch (IllegalArgumentException e) {
+					// the transitions start in the second line
+					throw new IllegalArgumentException(traName + ", line " + (i + 2) + ": " + e.getMessage());
+				}
+			}
+		}
+		dtmc.simplify();
+		return dtmc;
+	}
+
+	private String intern(String s) {
+		String existing = symbols.putIfAbsent(s, s);
+		return existing == null ? s : existing;
+	}
+
+	/**
+	 * Reads the whitespace separated values of a memory-mapped file line by
+	 * line.
+	 */
+	private static class MappedFile {
+
+		private final String name;
+		private final ByteBuffer buffer;
+		private int pos = 0;
+		private int line = 1;
+
+		public MappedFile(Path file) throws IOException {
+			this.name = file.getFileName().toString();
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				if (channel.size() > Integer.MAX_VALUE) {
+					throw new IOException(name + " is larger than 2 GiB.");
+				}
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		}
+
+		private int peek() {
+			return pos < buffer.limit() ? buffer.get(pos) & 0xff : -1;
+		}
+
+		private void skipSpaces() {
+			while (peek() == ' ' || peek() == '\t') {
+				pos++;
+			}
+		}
+
+		public boolean atEndOfLine() {
+			skipSpaces();
+			return peek() < 0 || peek() == '\n' || peek() == '\r';
+		}
+
+		/**
+		 * @return true if only whitespace is left.
+		 */
+		public boolean atEnd() {
+			int p = pos;
+			while (p < buffer.limit() && (buffer.get(p) & 0xff) <= ' ') {
+				p++;
+			}
+			return p == buffer.limit();
+		}
+
+		public void expectEnd() {
+			if (!atEnd()) {
+				skipSpaces();
+				throw error("the end of the file");
+			}
+		}
+
+		/**
+		 * Check that the rest of the line is blank and move to the next line.
+		 */
+		public void nextLine() {
+			if (!atEndOfLine()) {
+				throw error("the end of the line");
+			}
+			if (peek() == '\r') {
+				pos++;
+			}
+			if (peek() == '\n') {
+				pos++;
+			}
+			line++;
+		}
+
+		public void expect(char c) {
+			skipSpaces();
+			if (peek() != c) {
+				throw error("'" + c + "'");
+			}
+			pos++;
+		}
+
+		public int readInt() {
+			skipSpaces();
+			long value = 0;
+			int start = pos;
+			while (peek() >= '0' && peek() <= '9' && value <= Integer.MAX_VALUE) {
+				value = 10 * value + (peek() - '0');
+				pos++;
+			}
+			if (pos == start || value > Integer.MAX_VALUE) {
+				pos = start;
+				throw error("a nonnegative integer");
+			}
+			return (int) value;
+		}
+
+		public int readState(int states) {
+			int start = pos;
+			int state = readInt();
+			if (state >= states) {
+				pos = start;
+				throw error("a state below " + states);
+			}
+			return state;
+		}
+
+		/**
+		 * Read a nonnegative decimal number. Numbers with at most 15 digits and
+		 * no exponent are converted exactly without creating a String.
+		 */
+		public double readDouble() {
+			skipSpaces();
+			int start = pos;
+			long mantissa = 0;
+			int digits = 0, fractionDigits = 0;
+			boolean fraction = false;
+			while ((peek() >= '0' && peek() <= '9') || (peek() == '.' && !fraction)) {
+				if (peek() == '.') {
+					fraction = true;
+				} else {
+					mantissa = 10 * mantissa + (peek() - '0');
+					digits += mantissa > 0 ? 1 : 0;
+					fractionDigits += fraction ? 1 : 0;
+				}
+				pos++;
+				if (digits > 15) {
+					break;
+				}
+			}
+			if (digits <= 15 && fractionDigits < POWERS_OF_TEN.length && pos > start && peek() != 'e' && peek() != 'E' && isSeparator(peek())
+					&& !(pos == start + 1 && fraction)) {
+				return mantissa / POWERS_OF_TEN[fractionDigits];
+			}
+			// many digits or an exponent
+			pos = start;
+			String token = readToken();
+			double value;
+			try {
+				value = isDecimal(token) ? Double.parseDouble(token) : Double.NaN;
+			} catch (NumberFormatException e) {
+				value = Double.NaN;
+			}
+			// Double.parseDouble also accepts signs, NaN, Infinity and hexadecimal numbers
+			if (!(value >= 0) || Double.isInfinite(value)) {
+				pos = start;
+				throw error("a probability");
+			}
+			return value;
+		}
+
+		private static boolean isDecimal(String token) {
+			for (int i = 0; i < token.length(); i++) {
+				char c = token.charAt(i);
+				boolean sign = c == '-' || c == '+';
+				if (!(c >= '0' && c <= '9') && c != '.' && c != 'e' && c != 'E'
+						&& !(sign && i > 0 && (token.charAt(i - 1) == 'e' || token.charAt(i - 1) == 'E'))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean isSeparator(int c) {
+			return c < 0 || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+		}
+
+		public String readToken() {
+			skipSpaces();
+			int start = pos;
+			while (!isSeparator(peek())) {
+				pos++;
+			}
+			return string(start, pos);
+		}
+
+		public String readUntil(char c) {
+			int start = pos;
+			while (peek() != c) {
+				if (peek() < 0 || peek() == '\n' || peek() == '\r') {
+					throw error("'" + c + "'");
+				}
+				pos++;
+			}
+			return string(start, pos);
+		}
+
+		private String string(int start, int end) {
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(start + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		public IllegalArgumentException error(String expected) {
+			return new IllegalArgumentException(name + ", line " + line + ": Expected " + expected + ", got "
+					+ (peek() < 0 ? "the end of the file" : "'" + (char) peek() + "'") + ".");
+		}
+	}
+}
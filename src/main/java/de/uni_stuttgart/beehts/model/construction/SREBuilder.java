@@ -1,6 +1,7 @@
 package de.uni_stuttgart.beehts.model.construction;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -79,9 +80,26 @@ public class SREBuilder {
 		return SREParser.parse(sre);
 	}
 
+	/**
+	 * Constructs an SRE from the String representation read from a Reader.
+	 * This uses the {@link SREParser}.
+	 * 
+	 * @param reader
+	 *            The Reader to read the SRE from. It is read until its end, but
+	 *            not closed.
+	 * @return An SRE.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static SRE parse(Reader reader) throws IOException {
+		return SREParser.parse(reader);
+	}
+
 	public static SRE fromFile(Path file) throws IOException {
 		if (file.toFile().isDirectory())
 			throw new IllegalArgumentException();
-		return parse(String.join("\n", Files.readAllLines(file)));
+		try (Reader reader = Files.newBufferedReader(file)) {
+			return parse(reader);
+		}
 	}
 }
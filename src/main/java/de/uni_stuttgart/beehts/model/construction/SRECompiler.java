@@ -0,0 +1,267 @@
+package de.uni_stuttgart.beehts.model.construction;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.CompactDTMC;
+
+/**
+ * This class compiles SREs from their String representation directly into a
+ * {@link CompactDTMC}, without creating an SRE.<br>
+ *
+ * The input is read in a single pass by the same parser as
+ * {@link SREBuilder#parse(String)}. Every subexpression becomes a fragment
+ * with an entry and an exit node as soon as it has been read, and its edges
+ * are appended to primitive buffers. Only the fragments of the subexpressions
+ * that are still open are kept as objects, so apart from the parser's stack
+ * the memory is proportional to the size of the DTMC.<br>
+ *
+ * The exit node of a fragment has no outgoing edges, so the parts of a
+ * concatenation are joined by merging the exit of each part with the entry of
+ * the next one, the exits of the parts of a sum are merged and the exit of the
+ * body of a Kleene star becomes its loop node. Merged nodes are tracked in a
+ * union-find array and resolved when the edges are sorted into the
+ * {@link CompactDTMC}. Only sums, Kleene stars and empty SREs need empty
+ * edges.
+ */
+public class SRECompiler implements SREParser.Builder<SRECompiler.Fragment> {
+
+	/** The index of the empty character in the symbol table. */
+	private static final int EPSILON = 0;
+
+	/** the node each node has been merged into, or the node itself */
+	private int[] parent = new int[64];
+	private int nodes = 0;
+
+	private int[] from = new int[64], to = new int[64], symbol = new int[64];
+	private double[] probability = new double[64];
+	private int edges = 0;
+
+	private final Map<String, Integer> symbolIndex = new HashMap<>();
+	private String[] symbols = new String[16];
+
+	private SRECompiler() {
+		symbol("");
+	}
+
+	/**
+	 * Compile an SRE.
+	 *
+	 * @param sre
+	 *            the String representation of the SRE.
+	 * @return the DTMC.
+	 */
+	public static CompactDTMC compile(String sre) {
+		try {
+			return compile(CharBuffer.wrap(sre));
+		} catch (IOException e) {
+			// reading from a CharBuffer does not fail
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Compile an SRE from a file.
+	 *
+	 * @param file
+	 *            the file containing the String representation of the SRE.
+	 * @return the DTMC.
+	 * @throws IOException
+	 *             if reading the file fails.
+	 */
+	public static CompactDTMC compile(Path file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			return compile(reader);
+		}
+	}
+
+	/**
+	 * Compile an SRE from a Reader.
+	 *
+	 * @param reader
+	 *            the Reader. It is read until its end, but not closed.
+	 * @return the DTMC.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	public static CompactDTMC compile(Reader reader) throws IOException {
+		return compile((Readable) reader);
+	}
+
+	private static CompactDTMC compile(Readable input) throws IOException {
+		SRECompiler compiler = new SRECompiler();
+		Fragment root = SREParser.parse(input, compiler);
+		return compiler.toCompactDTMC(root);
+	}
+
+	@Override
+	public Fragment atomic(String character) {
+		Fragment f = new Fragment(addNode(), addNode());
+		addEdge(f.entry, f.exit, symbol(character), 1);
+		return f;
+	}
+
+	@Override
+	public Fragment concat(List<Fragment> parts) {
+		for (int i = 1; i < parts.size(); i++) {
+			merge(parts.get(i - 1).exit, parts.get(i).entry);
+		}
+		return new Fragment(parts.get(0).entry, parts.get(parts.size() - 1).exit);
+	}
+
+	@Override
+	public Fragment sum(List<Fragment> parts, int[] rates) {
+		double sum = Arrays.stream(rates).sum();
+		Fragment f = new Fragment(addNode(), parts.get(0).exit);
+		for (int i = 0; i < rates.length; i++) {
+			addEdge(f.entry, parts.get(i).entry, EPSILON, rates[i] / sum);
+			merge(parts.get(i).exit, f.exit);
+		}
+		return f;
+	}
+
+	@Override
+	public Fragment kleene(Fragment sre, double rate) {
+		if (rate == 0) {
+			return atomic("");
+		} else if (sre.loop >= 0) {
+			// simplify nested stars like SREKleene#simplify()
+			rate = 1 - (1 - rate) / (1 - rate * sre.rate);
+			probability[sre.loop] = rate;
+			probability[sre.loop + 1] = 1 - rate;
+			return new Fragment(sre.entry, sre.exit, sre.loop, rate);
+		}
+		// the iterations start and end at the exit of the body
+		Fragment f = new Fragment(sre.exit, addNode(), edges, rate);
+		addEdge(f.entry, sre.entry, EPSILON, rate);
+		addEdge(f.entry, f.exit, EPSILON, 1 - rate);
+		return f;
+	}
+
+	private int addNode() {
+		if (nodes == parent.length) {
+			parent = Arrays.copyOf(parent, 2 * nodes);
+		}
+		parent[nodes] = nodes;
+		return nodes++;
+	}
+
+	private void addEdge(int from, int to, int symbol, double probability) {
+		if (edges == this.from.length) {
+			this.from = Arrays.copyOf(this.from, 2 * edges);
+			this.to = Arrays.copyOf(this.to, 2 * edges);
+			this.symbol = Arrays.copyOf(this.symbol, 2 * edges);
+			this.probability = Arrays.copyOf(this.probability, 2 * edges);
+		}
+		this.from[edges] = from;
+		this.to[edges] = to;
+		this.symbol[edges] = symbol;
+		this.probability[edges] = probability;
+		edges++;
+	}
+
+	private int symbol(String character) {
+		Integer index = symbolIndex.get(character);
+		if (index == null) {
+			index = symbolIndex.size();
+			symbolIndex.put(character, index);
+			if (index == symbols.length) {
+				symbols = Arrays.copyOf(symbols, 2 * index);
+			}
+			symbols[index] = character;
+		}
+		return index;
+	}
+
+	private void merge(int a, int b) {
+		parent[find(a)] = find(b);
+	}
+
+	/**
+	 * Find the node a node has been merged into and compress the path to it.
+	 */
+	private int find(int node) {
+		int root = node;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		while (parent[node] != root) {
+			int next = parent[node];
+			parent[node] = root;
+			node = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Number the nodes that have not been merged into others and sort the
+	 * edges by their start node.
+	 */
+	private CompactDTMC toCompactDTMC(Fragment root) {
+		int[] id = new int[nodes];
+		int count = 0;
+		for (int n = 0; n < nodes; n++) {
+			if (find(n) == n) {
+				id[n] = count++;
+			}
+		}
+		for (int n = 0; n < nodes; n++) {
+			id[n] = id[find(n)];
+		}
+		parent = null;
+
+		int[] edgeStart = new int[count + 1];
+		for (int e = 0; e < edges; e++) {
+			edgeStart[id[from[e]] + 1]++;
+		}
+		for (int n = 0; n < count; n++) {
+			edgeStart[n + 1] += edgeStart[n];
+		}
+		int[] next = Arrays.copyOf(edgeStart, count);
+		int[] target = new int[edges];
+		int[] edgeSymbol = new int[edges];
+		double[] edgeProbability = new double[edges];
+		for (int e = 0; e < edges; e++) {
+			int i = next[id[from[e]]]++;
+			target[i] = id[to[e]];
+			edgeSymbol[i] = symbol[e];
+			edgeProbability[i] = probability[e];
+		}
+		return new CompactDTMC(id[root.entry], new int[] { id[root.exit] }, edgeStart, target, edgeSymbol,
+				edgeProbability, Arrays.copyOf(symbols, symbolIndex.size()));
+	}
+
+	/**
+	 * The entry and the exit node of a compiled subexpression.
+	 */
+	static class Fragment {
+
+		public final int entry, exit;
+		/**
+		 * the index of the edge into the body of a Kleene star, followed by the
+		 * edge leaving it, or -1
+		 */
+		public final int loop;
+		public final double rate;
+
+		public Fragment(int entry, int exit) {
+			this(entry, exit, -1, 0);
+		}
+
+		public Fragment(int entry, int exit, int loop, double rate) {
+			this.entry = entry;
+			this.exit = exit;
+			this.loop = loop;
+			this.rate = rate;
+		}
+	}
+}
@@ -1,16 +1,27 @@
 package de.uni_stuttgart.beehts.model.construction;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.InputMismatchException;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.SREAtomic;
 import de.uni_stuttgart.beehts.model.Tuple;
 
 /**
- * This class helps creating SREs from Strings.
- * 
+ * This class helps creating SREs from Strings.<br>
+ *
+ * The input is read character by character in a single pass. Nested
+ * parentheses are handled with an explicit stack instead of recursion, so the
+ * time is linear in the length of the input and the nesting depth is not
+ * limited by the call stack.
+ *
  * @author Tobias Beeh
  */
 class SREParser {
@@ -57,173 +68,534 @@ class SREParser {
 	}
 
 	/**
-	 * Parse an SRE from a String.
-	 * 
-	 * @param s
-	 *            the String to parse.
-	 * @return A constructed SRE.
+	 * Splits the input into tokens. Everything between two operators is one
+	 * token, which needs to be a rate or an identifier.
 	 */
-	public static SRE parse(String s) {
-		return buildSRE(tokenize(s));
-	}
+	private static class Lexer {
 
-	private static List<Token> tokenize(String s) {
-		return splitAtTokens(s).stream()
-				.map(x -> x.trim())
-				.filter(x -> !x.isEmpty())
-				.map(x -> stringToToken(x))
-				.collect(Collectors.toList());
-	}
+		private final Readable input;
+		private final CharBuffer buffer = CharBuffer.allocate(8192);
+		private final StringBuilder word = new StringBuilder();
+		/** an operator read while completing the previous token, or -1 */
+		private int pendingOperator = -1;
+		private Token peeked = null;
 
-	private static SRE buildSRE(List<Token> tokens) {
-		return buildSRE(tokens, 0, tokens.size() - 1);
-	}
+		public Lexer(Readable input) {
+			this.input = input;
+			buffer.flip();
+		}
 
-	/**
-	 * Build an SRE from a list of tokens.
-	 * 
-	 * @param tokens
-	 *            The tokens recognized from the String.
-	 * @param firstIdx
-	 *            The index of the first token to include.
-	 * @param lastIdx
-	 *            The index of the last token to include.
-	 * @return An SRE representing the tokens.
-	 */
-	private static SRE buildSRE(List<Token> tokens, int firstIdx, int lastIdx) {
-		List<Tuple<SRE, Integer>> sres = new LinkedList<>();
-		boolean lookingForDelimiter = false;
-		Token.Type outerDelimType = null;
-		for (int i = firstIdx; i <= lastIdx; i++) {
-			switch (tokens.get(i).type) {
-			case PAREN_OPEN: {
-				if (lookingForDelimiter) {
-					throw new InputMismatchException("Was looking for a delimiter, got a '('");
+		public Token peek() throws IOException {
+			if (peeked == null) {
+				peeked = lex();
+			}
+			return peeked;
+		}
+
+		public Token next() throws IOException {
+			Token t = peek();
+			peeked = null;
+			return t;
+		}
+
+		private int read() throws IOException {
+			while (!buffer.hasRemaining()) {
+				buffer.clear();
+				int n = input.read(buffer);
+				buffer.flip();
+				if (n < 0) {
+					return -1;
 				}
-				int startIdx = i;
-				int nestedParenthesis = 0;
-				searchClosing: while (true) {
-					i++;
-					if (i > lastIdx)
-						throw new InputMismatchException("No matching closing parenthesis found.");
-					switch (tokens.get(i).type) {
-					case PAREN_OPEN:
-						nestedParenthesis++;
-						break;
-					case PAREN_CLOSE: {
-						if (nestedParenthesis > 0) {
-							nestedParenthesis--;
-						} else {
-							break searchClosing;
-						}
-						break;
+			}
+			return buffer.get();
+		}
+
+		/**
+		 * @return the next token or null at the end of the input.
+		 */
+		private Token lex() throws IOException {
+			if (pendingOperator >= 0) {
+				Token t = operator((char) pendingOperator);
+				pendingOperator = -1;
+				return t;
+			}
+			word.setLength(0);
+			boolean blank = true;
+			while (true) {
+				int c = read();
+				if (c < 0) {
+					return blank ? null : word(word.toString().trim());
+				}
+				switch (c) {
+				case '(':
+				case ')':
+				case '+':
+				case ':':
+				case '*':
+				case '[':
+				case ']':
+					if (blank) {
+						return operator((char) c);
 					}
-					default:
-						break;
+					pendingOperator = c;
+					return word(word.toString().trim());
+				case '\\':
+					// escape sequence incoming, using next character as literal.
+					word.append((char) c);
+					c = read();
+					if (c >= 0) {
+						word.append((char) c);
 					}
+					blank = false;
+					break;
+				default:
+					word.append((char) c);
+					blank &= c <= ' ';
+					break;
 				}
-				int rate = getRate(tokens, i + 1);
-				sres.add(new Tuple<>(buildSRE(tokens, startIdx + 1, i - 1), rate));
-				if (rate >= 0)
-					i += 3;
-				lookingForDelimiter = true;
-				break;
 			}
-			case IDENTIFIER: {
-				String content = tokens.get(i).content;
-				if (lookingForDelimiter) {
-					throw new InputMismatchException("Was looking for a delimiter, got an identifier: " + content);
-				}
-				content = applyEscapeSequences(content);
-				int rate = getRate(tokens, i + 1);
-				sres.add(new Tuple<>(SREBuilder.atomic(content), rate));
-				if (rate >= 0)
-					i += 3;
-				lookingForDelimiter = true;
-				break;
+		}
+
+		private static Token operator(char c) {
+			switch (c) {
+			case '(':
+				return new Token(Token.Type.PAREN_OPEN);
+			case ')':
+				return new Token(Token.Type.PAREN_CLOSE);
+			case '[':
+				return new Token(Token.Type.BRACKET_OPEN);
+			case ']':
+				return new Token(Token.Type.BRACKET_CLOSE);
+			case '+':
+				return new Token(Token.Type.DELIM_SUM);
+			case ':':
+				return new Token(Token.Type.DELIM_CAT);
+			case '*':
+				return new Token(Token.Type.DELIM_KLEENE);
+			default:
+				throw new IllegalArgumentException();
 			}
-			case DELIM_SUM: {
-				if (!lookingForDelimiter) {
-					throw new InputMismatchException("Was looking for an Identifier, got a sum sign");
+		}
+
+		private static Token word(String x) {
+			if (isRate(x)) {
+				return new Token(Token.Type.RATE, x);
+			} else if (isIdentifier(x)) {
+				return new Token(Token.Type.IDENTIFIER, x);
+			} else {
+				throw new InputMismatchException("Could not parse the following string: " + x);
+			}
+		}
+
+		/**
+		 * Check for digits, optionally followed by a dot and more digits.
+		 */
+		private static boolean isRate(String x) {
+			int i = 0;
+			while (i < x.length() && isDigit(x.charAt(i))) {
+				i++;
+			}
+			if (i == 0) {
+				return false;
+			} else if (i < x.length() && x.charAt(i) == '.') {
+				int dot = i++;
+				while (i < x.length() && isDigit(x.charAt(i))) {
+					i++;
 				}
-				if (outerDelimType != null && outerDelimType != Token.Type.DELIM_SUM) {
-					throw new InputMismatchException("Please use parenthesis to clarify your intention.");
-				} else {
-					outerDelimType = Token.Type.DELIM_SUM;
+				return i > dot + 1 && i == x.length();
+			}
+			return i == x.length();
+		}
+
+		/**
+		 * Check for word characters and escape sequences.
+		 */
+		private static boolean isIdentifier(String x) {
+			for (int i = 0; i < x.length(); i++) {
+				char c = x.charAt(i);
+				if (c == '\\') {
+					i++;
+					if (i >= x.length() || isLineTerminator(x.charAt(i))) {
+						return false;
+					}
+				} else if (!isDigit(c) && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != '_') {
+					return false;
 				}
-				lookingForDelimiter = false;
-				break;
 			}
-			case DELIM_CAT: {
-				if (!lookingForDelimiter) {
-					throw new InputMismatchException("Was looking for an Identifier, got a concatenation");
+			return !x.isEmpty();
+		}
+
+		private static boolean isDigit(char c) {
+			return c >= '0' && c <= '9';
+		}
+
+		private static boolean isLineTerminator(char c) {
+			return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+		}
+	}
+
+	/**
+	 * An SRE read by the parser. The parts of concatenations are kept in a
+	 * deque until the concatenation is needed as an SRE, so nested
+	 * concatenations can be flattened (as done by
+	 * {@link SREBuilder#concat(SRE...)}) without copying them at every level.
+	 */
+	private static class Item {
+
+		private SRE sre;
+		private Deque<SRE> parts;
+
+		public Item(SRE sre) {
+			this.sre = sre;
+		}
+
+		public Item(Deque<SRE> parts) {
+			this.parts = parts;
+		}
+
+		public SRE sre() {
+			if (sre == null) {
+				sre = parts.size() == 1 ? parts.getFirst()
+						: SREBuilder.concat(parts.toArray(new SRE[parts.size()]));
+				parts = null;
+			}
+			return sre;
+		}
+
+		/**
+		 * @return the number of parts this item adds to a concatenation.
+		 */
+		public int size() {
+			return parts != null ? parts.size() : sre.getType() == SRE.Type.CAT ? sre.getChildren().length : 1;
+		}
+
+		/**
+		 * Add the parts of this item to the front of a concatenation.
+		 */
+		public void prependTo(Deque<SRE> concat) {
+			if (parts != null) {
+				parts.descendingIterator().forEachRemaining(concat::addFirst);
+			} else if (sre.getType() == SRE.Type.CAT) {
+				SRE[] children = sre.getChildren();
+				for (int i = children.length - 1; i >= 0; i--) {
+					concat.addFirst(children[i]);
 				}
-				if (outerDelimType != null && outerDelimType != Token.Type.DELIM_CAT) {
-					throw new InputMismatchException("Please use parenthesis to clarify your intention.");
-				} else {
-					outerDelimType = Token.Type.DELIM_CAT;
+			} else if (!isEpsilon(sre)) {
+				concat.addFirst(sre);
+			}
+		}
+
+		/**
+		 * Add the parts of this item to the end of a concatenation.
+		 */
+		public void appendTo(Deque<SRE> concat) {
+			if (parts != null) {
+				concat.addAll(parts);
+			} else if (sre.getType() == SRE.Type.CAT) {
+				concat.addAll(Arrays.asList(sre.getChildren()));
+			} else if (!isEpsilon(sre)) {
+				concat.add(sre);
+			}
+		}
+
+		private static boolean isEpsilon(SRE sre) {
+			return sre.getType() == SRE.Type.ATOMIC && ((SREAtomic) sre).getCharacter().isEmpty();
+		}
+	}
+
+	/**
+	 * Creates the results of the parser. The parser only checks the syntax and
+	 * calls the builder for every operation, so the same parser can create
+	 * SREs or e.g. compile the input directly.
+	 *
+	 * @param <T>
+	 *            the type of the (partial) results.
+	 */
+	interface Builder<T> {
+
+		T atomic(String character);
+
+		/**
+		 * @param parts
+		 *            at least two parts. The list may be modified.
+		 */
+		T concat(List<T> parts);
+
+		/**
+		 * @param parts
+		 *            at least two parts. The list may be modified.
+		 * @param rates
+		 *            the nonnegative rates of the parts.
+		 */
+		T sum(List<T> parts, int[] rates);
+
+		T kleene(T sre, double rate);
+	}
+
+	/**
+	 * Builds SREs, flattening nested concatenations.
+	 */
+	private static final Builder<Item> SRE_BUILDER = new Builder<Item>() {
+
+		@Override
+		public Item atomic(String character) {
+			return new Item(SREBuilder.atomic(character));
+		}
+
+		/**
+		 * Concatenate the SREs, starting with the largest nested one and adding
+		 * the others to its front or end. Epsilons are dropped, the parts of
+		 * nested concatenations never contain any.
+		 */
+		@Override
+		public Item concat(List<Item> sres) {
+			int largest = 0;
+			for (int i = 1; i < sres.size(); i++) {
+				if (sres.get(i).size() > sres.get(largest).size()) {
+					largest = i;
 				}
-				lookingForDelimiter = false;
-				break;
 			}
-			case DELIM_KLEENE: {
-				boolean isRateInBrackets = tokens.get(i + 1).type == Token.Type.BRACKET_OPEN
-						&& tokens.get(i + 3).type == Token.Type.BRACKET_CLOSE;
-				int ratePosition = i + 1 + (isRateInBrackets ? 1 : 0);
-				Tuple<SRE, Integer> sre = sres.remove(sres.size() - 1);
-				if (!lookingForDelimiter)
-					throw new InputMismatchException("Was looking for an Identifier, got a kleene star");
-				else if (sre.y >= 0)
-					throw new InputMismatchException("Illegal input: I do not know what 'identifier[rate]*' means.");
-				else if (tokens.get(ratePosition).type != Token.Type.RATE)
-					throw new InputMismatchException("You need to specify a rate for the kleene star");
-				double rate = Double.parseDouble(tokens.get(ratePosition).content);
-				if (rate < 0 || rate > 1)
-					throw new InputMismatchException("Please specify a rate between 0 and 1 for the kleene iteration");
-				int sumRate = getRate(tokens, i + 2);
-				sres.add(new Tuple<>(SREBuilder.kleene(sre.x, rate), sumRate));
-				if (sumRate >= 0)
-					i += 4;
-				else
-					i++;
-				if (isRateInBrackets)
-					i += 2;
-				break;
+			Item l = sres.get(largest);
+			Deque<SRE> parts = l.parts != null ? l.parts : new ArrayDeque<>();
+			if (l.parts == null) {
+				l.appendTo(parts);
 			}
-			default:
-				throw new InputMismatchException(
-						"Token " + tokens.get(i).toString() + " does not fit into this context.");
+			for (int i = largest - 1; i >= 0; i--) {
+				sres.get(i).prependTo(parts);
+			}
+			for (int i = largest + 1; i < sres.size(); i++) {
+				sres.get(i).appendTo(parts);
 			}
+			return parts.isEmpty() ? new Item(SREAtomic.EPSILON()) : new Item(parts);
 		}
-		if (sres.size() == 0) {
-			throw new InputMismatchException("ERR: Malformed or empty SRE.");
-		} else if (sres.size() == 1) {
-			return sres.get(0).x;
-		} else {
+
+		@Override
+		public Item sum(List<Item> sres, int[] rates) {
+			@SuppressWarnings("unchecked")
+			Tuple<SRE, Integer>[] tmp = new Tuple[sres.size()];
+			for (int i = 0; i < tmp.length; i++) {
+				tmp[i] = new Tuple<>(sres.get(i).sre(), rates[i]);
+			}
+			return new Item(SREBuilder.sum(tmp));
+		}
+
+		@Override
+		public Item kleene(Item sre, double rate) {
+			return new Item(SREBuilder.kleene(sre.sre(), rate));
+		}
+	};
+
+	/**
+	 * The SREs of one pair of parentheses, which are all combined by the same
+	 * operation.
+	 */
+	private static class Level<T> {
+
+		public final List<T> sres = new ArrayList<>();
+		/** the rate of each SRE, or -1 */
+		public final List<Integer> rates = new ArrayList<>();
+		public boolean lookingForDelimiter = false;
+		public Token.Type outerDelimType = null;
+
+		public void delimiter(Token.Type type) {
+			if (!lookingForDelimiter) {
+				throw new InputMismatchException("Was looking for an Identifier, got a "
+						+ (type == Token.Type.DELIM_SUM ? "sum sign" : "concatenation"));
+			}
+			if (outerDelimType != null && outerDelimType != type) {
+				throw new InputMismatchException("Please use parenthesis to clarify your intention.");
+			}
+			outerDelimType = type;
+			lookingForDelimiter = false;
+		}
+
+		public T build(Builder<T> builder) {
+			if (sres.size() == 0) {
+				throw new InputMismatchException("ERR: Malformed or empty SRE.");
+			} else if (sres.size() == 1) {
+				return sres.get(0);
+			}
 			switch (outerDelimType) {
 			case DELIM_CAT:
-				sres.forEach(sre -> {
-					if (sre.y >= 0)
+				rates.forEach(rate -> {
+					if (rate >= 0)
 						throw new InputMismatchException("You must not specify a rate for a concatenation!");
 				});
-				return SREBuilder.concat(sres.stream().map(sre -> sre.x).toArray(SRE[]::new));
+				return builder.concat(sres);
 			case DELIM_SUM:
-				sres.forEach(x -> {
-					if (x.y < 0)
+				rates.forEach(rate -> {
+					if (rate < 0)
 						throw new InputMismatchException("You must provide a nonnegative integer rate for a sum!");
 				});
-				@SuppressWarnings("unchecked")
-				Tuple<SRE, Integer>[] tmp = new Tuple[sres.size()];
-				return SREBuilder.sum(sres.toArray(tmp));
+				return builder.sum(sres, rates.stream().mapToInt(Integer::intValue).toArray());
 			default:
 				throw new InputMismatchException("ERR: Malformed SRE.");
 			}
 		}
 	}
 
+	/**
+	 * Parse an SRE from a String.
+	 *
+	 * @param s
+	 *            the String to parse.
+	 * @return A constructed SRE.
+	 */
+	public static SRE parse(String s) {
+		try {
+			return parse(CharBuffer.wrap(s));
+		} catch (IOException e) {
+			// reading from a CharBuffer does not fail
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Parse an SRE from a character source, e.g. a Reader or a CharBuffer.
+	 *
+	 * @param input
+	 *            the source to read the SRE from. It is read until its end.
+	 * @return A constructed SRE.
+	 * @throws IOException
+	 *             if reading from the input fails.
+	 */
+	public static SRE parse(Readable input) throws IOException {
+		return parse(input, SRE_BUILDER).sre();
+	}
+
+	/**
+	 * Parse an SRE from a character source and create the result with a
+	 * builder.
+	 *
+	 * @param input
+	 *            the source to read the SRE from. It is read until its end.
+	 * @param builder
+	 *            the builder that is called for each operation, from the
+	 *            innermost to the outermost one.
+	 * @return the result of the builder for the whole SRE.
+	 * @throws IOException
+	 *             if reading from the input fails.
+	 */
+	public static <T> T parse(Readable input, Builder<T> builder) throws IOException {
+		Lexer lexer = new Lexer(input);
+		Deque<Level<T>> levels = new ArrayDeque<>();
+		levels.push(new Level<>());
+
+		Token token;
+		while ((token = lexer.next()) != null) {
+			Level<T> level = levels.peek();
+			switch (token.type) {
+			case PAREN_OPEN:
+				if (level.lookingForDelimiter) {
+					throw new InputMismatchException("Was looking for a delimiter, got a '('");
+				}
+				levels.push(new Level<>());
+				break;
+			case PAREN_CLOSE:
+				if (levels.size() == 1) {
+					throw new InputMismatchException("Token ) does not fit into this context.");
+				}
+				levels.pop();
+				addSRE(levels.peek(), level.build(builder), lexer, builder);
+				break;
+			case IDENTIFIER:
+				if (level.lookingForDelimiter) {
+					throw new InputMismatchException(
+							"Was looking for a delimiter, got an identifier: " + token.content);
+				}
+				addSRE(level, builder.atomic(applyEscapeSequences(token.content)), lexer, builder);
+				break;
+			case DELIM_SUM: // fallthrough
+			case DELIM_CAT:
+				level.delimiter(token.type);
+				break;
+			case DELIM_KLEENE:
+				throw new InputMismatchException("Was looking for an Identifier, got a kleene star");
+			default:
+				throw new InputMismatchException("Token " + token.toString() + " does not fit into this context.");
+			}
+		}
+		if (levels.size() > 1) {
+			throw new InputMismatchException("No matching closing parenthesis found.");
+		}
+		return levels.pop().build(builder);
+	}
+
+	/**
+	 * Add an identifier or a parenthesized SRE to a level, together with the
+	 * Kleene stars and the rate following it.
+	 */
+	private static <T> void addSRE(Level<T> level, T sre, Lexer lexer, Builder<T> builder) throws IOException {
+		int rate = -1;
+		while (lexer.peek() != null) {
+			Token.Type next = lexer.peek().type;
+			if (next == Token.Type.BRACKET_OPEN && rate < 0) {
+				lexer.next();
+				rate = getRate(lexer);
+			} else if (next == Token.Type.DELIM_KLEENE) {
+				if (rate >= 0) {
+					throw new InputMismatchException("Illegal input: I do not know what 'identifier[rate]*' means.");
+				}
+				lexer.next();
+				sre = builder.kleene(sre, getKleeneRate(lexer));
+			} else {
+				break;
+			}
+		}
+		level.sres.add(sre);
+		level.rates.add(rate);
+		level.lookingForDelimiter = true;
+	}
+
+	/**
+	 * Read the rest of a sum rate after the opening bracket.
+	 */
+	private static int getRate(Lexer lexer) throws IOException {
+		Token rate = lexer.next();
+		if (rate == null || rate.type != Token.Type.RATE) {
+			throw new InputMismatchException("Token [ does not fit into this context.");
+		} else if (rate.content.indexOf('.') >= 0) {
+			throw new InputMismatchException("You must not use double values for a sum rate!");
+		}
+		expectClosingBracket(lexer);
+		try {
+			return Integer.parseInt(rate.content);
+		} catch (NumberFormatException e) {
+			throw new InputMismatchException("The sum rate " + rate.content + " is too large.");
+		}
+	}
+
+	/**
+	 * Read the rate after a Kleene star, which may be put in brackets.
+	 */
+	private static double getKleeneRate(Lexer lexer) throws IOException {
+		boolean isRateInBrackets = lexer.peek() != null && lexer.peek().type == Token.Type.BRACKET_OPEN;
+		if (isRateInBrackets) {
+			lexer.next();
+		}
+		Token token = lexer.next();
+		if (token == null || token.type != Token.Type.RATE) {
+			throw new InputMismatchException("You need to specify a rate for the kleene star");
+		}
+		if (isRateInBrackets) {
+			expectClosingBracket(lexer);
+		}
+		double rate = Double.parseDouble(token.content);
+		if (rate < 0 || rate > 1)
+			throw new InputMismatchException("Please specify a rate between 0 and 1 for the kleene iteration");
+		return rate;
+	}
+
+	private static void expectClosingBracket(Lexer lexer) throws IOException {
+		Token token = lexer.next();
+		if (token == null || token.type != Token.Type.BRACKET_CLOSE) {
+			throw new InputMismatchException("Missing closing bracket after a rate.");
+		}
+	}
+
 	/**
 	 * Apply the escape sequences supported by the parser.
-	 * 
+	 *
 	 * Supported escape sequences (note that \ is escaped as neccessary in java
 	 * string literals):<br>
 	 * {@code "" == applyEscapeSequences("\\e")}<br>
@@ -231,7 +603,7 @@ class SREParser {
 	 * For other characters after '\', the character itself is placed there:<br>
 	 * {@code "\\" == applyEscapeSequences("\\\\")}<br>
 	 * {@code "x" == applyEscapeSequences("\\x")}
-	 * 
+	 *
 	 * @param content
 	 *            The string with the escape sequences.
 	 * @return The same string with the escape sequences replaced by literals.
@@ -260,73 +632,4 @@ class SREParser {
 		}
 		return sb.toString();
 	}
-
-	private static int getRate(List<Token> tokens, int i) {
-		if (i + 2 < tokens.size() && tokens.get(i).type == Token.Type.BRACKET_OPEN
-				&& tokens.get(i + 1).type == Token.Type.RATE && tokens.get(i + 2).type == Token.Type.BRACKET_CLOSE) {
-			if (tokens.get(i + 1).content.matches(".*\\..*")) {
-				throw new InputMismatchException("You must not use double values for a sum rate!");
-			}
-			return Integer.parseInt(tokens.get(i + 1).content);
-		} else {
-			return -1;
-		}
-	}
-
-	private static Token stringToToken(String x) {
-		switch (x) {
-		case "(":
-			return new Token(Token.Type.PAREN_OPEN);
-		case ")":
-			return new Token(Token.Type.PAREN_CLOSE);
-		case "[":
-			return new Token(Token.Type.BRACKET_OPEN);
-		case "]":
-			return new Token(Token.Type.BRACKET_CLOSE);
-		case "+":
-			return new Token(Token.Type.DELIM_SUM);
-		case ":":
-			return new Token(Token.Type.DELIM_CAT);
-		case "*":
-			return new Token(Token.Type.DELIM_KLEENE);
-		default:
-			if (x.matches("\\d+(\\.\\d+)?")) {
-				return new Token(Token.Type.RATE, x);
-			} else if (x.matches("(\\\\[A-Za-z0-9]|(\\w|\\\\.)+)")) {
-				return new Token(Token.Type.IDENTIFIER, x);
-			} else {
-				throw new InputMismatchException("Could not parse the following string: " + x);
-			}
-		}
-	}
-
-	private static List<String> splitAtTokens(String s) {
-		List<String> tokens = new LinkedList<>();
-		int lastIndex = 0;
-		for (int i = 0; i < s.length(); i++) {
-			switch (s.charAt(i)) {
-			case '(':
-			case ')':
-			case '+':
-			case ':':
-			case '*':
-			case '[':
-			case ']':
-				String lastToken = s.substring(lastIndex, i);
-				if (!lastToken.matches("\\s*"))
-					tokens.add(lastToken);
-				tokens.add(s.charAt(i) + "");
-				lastIndex = i + 1;
-				break;
-			case '\\':
-				// escape sequence incoming, using next character as literal.
-				i++;
-				// treat this as normal text, therefore fallthrough
-			default:
-				break;
-			}
-		}
-		tokens.add(s.substring(lastIndex, s.length()));
-		return tokens;
-	}
 }
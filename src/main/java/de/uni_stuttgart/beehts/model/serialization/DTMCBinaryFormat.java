@@ -0,0 +1,259 @@
+package de.uni_stuttgart.beehts.model.serialization;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.DTMC;
+import de.uni_stuttgart.beehts.model.DTMC.Edge;
+import de.uni_stuttgart.beehts.model.DTMC.Node;
+
+/**
+ * This class saves DTMCs in a compact binary format and loads them again, which
+ * is much faster than parsing a text format.<br>
+ *
+ * All values are stored big-endian. A file consists of
+ * <ol>
+ * <li>the header: the magic number {@value #MAGIC}, the version, the number of
+ * nodes, edges, symbols and final nodes and the index of the initial node (7
+ * ints),</li>
+ * <li>the indices of the final nodes (ints),</li>
+ * <li>the columns of the edges: the indices of the start nodes (ints), the
+ * indices of the destination nodes (ints), the indices of the characters in
+ * the symbol table (ints) and the probabilities (doubles),</li>
+ * <li>the symbol table: the characters, each as its length and its UTF-8 bytes,
+ * and</li>
+ * <li>the names of the nodes in the same way, where a length of -1 stands for a
+ * node without name.</li>
+ * </ol>
+ * The columns have a fixed size, so they are read through views of the mapped
+ * file without copying them.
+ */
+public class DTMCBinaryFormat {
+
+	/** The first four bytes of every file, "DTMC" in ASCII. */
+	public static final int MAGIC = 0x44544d43;
+	/** The version of the format written by this class. */
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 7 * 4;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Save a DTMC. An existing file is overwritten.
+	 *
+	 * @param dtmc
+	 *            the DTMC to save.
+	 * @param file
+	 *            the file to write to.
+	 * @throws IOException
+	 *             if writing the file fails.
+	 */
+	public static void write(DTMC dtmc, Path file) throws IOException {
+		Map<Node, Integer> index = new HashMap<>();
+		for (Node n : dtmc.getNodes()) {
+			index.put(n, index.size());
+		}
+		Map<String, Integer> symbolIndex = new HashMap<>();
+		List<String> symbols = new ArrayList<>();
+		int edges = dtmc.getEdges().size();
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output out = new Output(channel, 0);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(index.size());
+			out.putInt(edges);
+			// the number of symbols is known after writing the edges
+			out.putInt(0);
+			out.putInt(dtmc.getFinalNodes().size());
+			out.putInt(index.get(dtmc.getInitialNode()));
+			for (Node n : dtmc.getFinalNodes()) {
+				out.putInt(index.get(n));
+			}
+			out.flush();
+
+			// the columns are written at the same time, each through its own
+			// buffer
+			long columns = HEADER_SIZE + 4L * dtmc.getFinalNodes().size();
+			Output from = new Output(channel, columns);
+			Output to = new Output(channel, columns + 4L * edges);
+			Output symbol = new Output(channel, columns + 8L * edges);
+			Output probability = new Output(channel, columns + 12L * edges);
+			for (Node n : dtmc.getNodes()) {
+				for (Edge e : dtmc.getOutgoingEdges(n)) {
+					from.putInt(index.get(e.from));
+					to.putInt(index.get(e.to));
+					Integer s = symbolIndex.get(e.character);
+					if (s == null) {
+						s = symbols.size();
+						symbolIndex.put(e.character, s);
+						symbols.add(e.character);
+					}
+					symbol.putInt(s);
+					probability.putDouble(e.getProbability());
+				}
+			}
+			from.flush();
+			to.flush();
+			symbol.flush();
+			probability.flush();
+
+			Output strings = new Output(channel, columns + 20L * edges);
+			for (String s : symbols) {
+				strings.putString(s);
+			}
+			for (Node n : dtmc.getNodes()) {
+				strings.putString(n.name);
+			}
+			strings.flush();
+
+			ByteBuffer count = ByteBuffer.allocate(4).putInt(0, symbols.size());
+			channel.write(count, 4 * 4);
+		}
+	}
+
+	/**
+	 * Load a DTMC.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @return the DTMC.
+	 * @throws IOException
+	 *             if the file cannot be read or is no DTMC file of a supported
+	 *             version.
+	 */
+	public static DTMC read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException(file + " is no DTMC file.");
+			}
+			IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).asIntBuffer();
+			if (header.get(0) != MAGIC) {
+				throw new IOException(file + " is no DTMC file.");
+			} else if (header.get(1) != VERSION) {
+				throw new IOException(file + " has the unsupported version " + header.get(1) + ".");
+			}
+			int nodes = header.get(2), edges = header.get(3), symbols = header.get(4), finals = header.get(5);
+			int initial = header.get(6);
+			long columns = HEADER_SIZE + 4L * finals;
+			long strings = columns + 20L * edges;
+			if (nodes <= 0 || edges < 0 || symbols < 0 || finals < 0 || channel.size() < strings) {
+				throw new IOException(file + " is corrupt.");
+			}
+
+			IntBuffer finalNodes = map(channel, HEADER_SIZE, 4L * finals).asIntBuffer();
+			IntBuffer from = map(channel, columns, 4L * edges).asIntBuffer();
+			IntBuffer to = map(channel, columns + 4L * edges, 4L * edges).asIntBuffer();
+			IntBuffer symbol = map(channel, columns + 8L * edges, 4L * edges).asIntBuffer();
+			DoubleBuffer probability = map(channel, columns + 12L * edges, 8L * edges).asDoubleBuffer();
+			ByteBuffer stringTable = map(channel, strings, channel.size() - strings);
+
+			try {
+				String[] characters = new String[symbols];
+				for (int i = 0; i < symbols; i++) {
+					characters[i] = getString(stringTable);
+				}
+				DTMC dtmc = new DTMC();
+				Node[] nodeArray = new Node[nodes];
+				for (int i = 0; i < nodes; i++) {
+					nodeArray[i] = dtmc.addNode(getString(stringTable));
+				}
+				dtmc.makeNodeInitial(nodeArray[initial]);
+				for (int i = 0; i < finals; i++) {
+					dtmc.makeNodeFinal(nodeArray[finalNodes.get(i)]);
+				}
+				for (int i = 0; i < edges; i++) {
+					dtmc.addEdge(nodeArray[from.get(i)], nodeArray[to.get(i)], characters[symbol.get(i)],
+							probability.get(i));
+				}
+				return dtmc;
+			} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+				throw new IOException(file + " is corrupt.", e);
+			}
+		}
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Sections larger than 2 GiB are not supported.");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		} else if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes consecutive values to a channel, starting at a given position.
+	 */
+	private static class Output {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private long position;
+
+		public Output(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		public void putInt(int i) throws IOException {
+			ensureRemaining(4);
+			buffer.putInt(i);
+		}
+
+		public void putDouble(double d) throws IOException {
+			ensureRemaining(8);
+			buffer.putDouble(d);
+		}
+
+		public void putString(String s) throws IOException {
+			if (s == null) {
+				putInt(-1);
+				return;
+			}
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			for (int i = 0; i < bytes.length; i += BUFFER_SIZE) {
+				int length = Math.min(BUFFER_SIZE, bytes.length - i);
+				ensureRemaining(length);
+				buffer.put(bytes, i, length);
+			}
+		}
+
+		private void ensureRemaining(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		public void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package de.uni_stuttgart.beehts.model.serialization;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.DTMC;
+import de.uni_stuttgart.beehts.model.DTMC.Edge;
+import de.uni_stuttgart.beehts.model.DTMC.Node;
+import de.uni_stuttgart.beehts.model.construction.DTMCParser;
+import de.uni_stuttgart.beehts.model.construction.PrismImporter;
+
+/**
+ * This class writes DTMCs to any {@link Appendable}, either in the matrix
+ * syntax of the {@link DTMCParser} or in PRISM's explicit format, which can be
+ * read by PRISM and the {@link PrismImporter}.<br>
+ *
+ * The edges are written one by one while iterating over the DTMC, so apart
+ * from the output buffer only the edges of a single node (and, for PRISM, the
+ * index of every node) are held in memory.
+ */
+public class DTMCWriter {
+
+	/**
+	 * The label of the final states in PRISM's label file. PRISM uses it for
+	 * states without transitions, which is what final nodes are.
+	 */
+	public static final String FINAL_LABEL = "deadlock";
+
+	/**
+	 * Write a DTMC in the matrix syntax to a file. An existing file is
+	 * overwritten.
+	 *
+	 * @param dtmc
+	 *            the DTMC to write.
+	 * @param file
+	 *            the file to write to.
+	 * @throws IOException
+	 *             if writing the file fails.
+	 */
+	public static void writeMatrix(DTMC dtmc, Path file) throws IOException {
+		try (BufferedWriter w = Files.newBufferedWriter(file)) {
+			writeMatrix(dtmc, w);
+		}
+	}
+
+	/**
+	 * Write a DTMC in the matrix syntax: the initial node, the final nodes and
+	 * a line {@code from to probability character} per edge. The empty
+	 * character is written as {@value DTMCParser#EMPTY_CHARACTER}.
+	 *
+	 * @param dtmc
+	 *            the DTMC to write. The names of its nodes and its characters
+	 *            must consist of word characters, as required by the syntax,
+	 *            but characters may be empty. No character may be
+	 *            {@value DTMCParser#EMPTY_CHARACTER}.
+	 * @param out
+	 *            the destination. It is not flushed or closed.
+	 * @throws IOException
+	 *             if the destination throws one.
+	 */
+	public static void writeMatrix(DTMC dtmc, Appendable out) throws IOException {
+		out.append(name(dtmc.getInitialNode())).append('\n');
+		boolean first = true;
+		for (Node n : dtmc.getFinalNodes()) {
+			out.append(first ? "" : " ").append(name(n));
+			first = false;
+		}
+		out.append('\n');
+
+		for (Node n : dtmc.getNodes()) {
+			for (Edge e : dtmc.getOutgoingEdges(n)) {
+				out.append(name(e.from)).append(' ').append(name(e.to)).append(' ');
+				out.append(probability(e.getProbability())).append(' ').append(character(e)).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Write a DTMC in PRISM's explicit format to a transition and a label file.
+	 * Existing files are overwritten.
+	 *
+	 * @param dtmc
+	 *            the DTMC to write.
+	 * @param tra
+	 *            the transition file.
+	 * @param lab
+	 *            the label file.
+	 * @throws IOException
+	 *             if writing a file fails.
+	 */
+	public static void writePrism(DTMC dtmc, Path tra, Path lab) throws IOException {
+		try (BufferedWriter t = Files.newBufferedWriter(tra); BufferedWriter l = Files.newBufferedWriter(lab)) {
+			writePrism(dtmc, t, l);
+		}
+	}
+
+	/**
+	 * Write a DTMC in PRISM's explicit format. The states are numbered in the
+	 * order of {@link DTMC#getNodes()}, starting with the initial node as state
+	 * 0. The characters are written as actions, the empty one as
+	 * {@value PrismImporter#EMPTY_ACTION}, which the {@link PrismImporter} maps
+	 * back to the empty character. Final nodes get a self loop with probability
+	 * 1, like deadlocks in PRISM, and are labelled {@value #FINAL_LABEL}.
+	 *
+	 * @param dtmc
+	 *            the DTMC to write. Its characters must consist of word
+	 *            characters or be empty, and must not be
+	 *            {@value PrismImporter#EMPTY_ACTION}.
+	 * @param tra
+	 *            the destination of the transitions. It is not flushed or
+	 *            closed.
+	 * @param lab
+	 *            the destination of the labels. It is not flushed or closed.
+	 * @throws IOException
+	 *             if a destination throws one.
+	 */
+	public static void writePrism(DTMC dtmc, Appendable tra, Appendable lab) throws IOException {
+		Map<Node, Integer> index = new HashMap<>();
+		List<Node> nodes = new ArrayList<>(dtmc.getNodes().size());
+		nodes.add(dtmc.getInitialNode());
+		for (Node n : dtmc.getNodes()) {
+			if (n != dtmc.getInitialNode()) {
+				nodes.add(n);
+			}
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			index.put(nodes.get(i), i);
+		}
+
+		tra.append(Integer.toString(nodes.size())).append(' ');
+		tra.append(Integer.toString(dtmc.getEdges().size() + dtmc.getFinalNodes().size())).append('\n');
+		List<Edge> row = new ArrayList<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			String from = Integer.toString(i);
+			if (dtmc.getFinalNodes().contains(nodes.get(i))) {
+				tra.append(from).append(' ').append(from).append(" 1\n");
+				continue;
+			}
+			// PRISM expects the transitions of a state sorted by their target
+			row.addAll(dtmc.getOutgoingEdges(nodes.get(i)));
+			row.sort(Comparator.comparing(e -> index.get(e.to)));
+			for (Edge e : row) {
+				tra.append(from).append(' ').append(Integer.toString(index.get(e.to))).append(' ');
+				tra.append(probability(e.getProbability())).append(' ').append(character(e)).append('\n');
+			}
+			row.clear();
+		}
+
+		lab.append("0=\"init\" 1=\"" + FINAL_LABEL + "\"\n");
+		for (int i = 0; i < nodes.size(); i++) {
+			boolean isFinal = dtmc.getFinalNodes().contains(nodes.get(i));
+			if (i == 0 || isFinal) {
+				lab.append(Integer.toString(i)).append(':');
+				lab.append(i == 0 ? " 0" : "").append(isFinal ? " 1" : "").append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Get the word to write for the character of an edge. Both syntaxes use
+	 * the same word for the empty character.
+	 */
+	private static String character(Edge e) {
+		if (e.character.isEmpty()) {
+			return DTMCParser.EMPTY_CHARACTER;
+		} else if (!isWord(e.character) || e.character.equals(DTMCParser.EMPTY_CHARACTER)) {
+			throw new IllegalArgumentException("The character of " + e + " cannot be written.");
+		}
+		return e.character;
+	}
+
+	private static String name(Node n) {
+		String name = n.toString();
+		if (!isWord(name)) {
+			throw new IllegalArgumentException("The name of node " + name + " cannot be written.");
+		}
+		return name;
+	}
+
+	/**
+	 * Format a probability as accepted by the parsers, i.e. with a lower case
+	 * exponent.
+	 */
+	private static String probability(double p) {
+		return Double.toString(p).replace('E', 'e');
+	}
+
+	private static boolean isWord(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != '_') {
+				return false;
+			}
+		}
+		return !s.isEmpty();
+	}
+}
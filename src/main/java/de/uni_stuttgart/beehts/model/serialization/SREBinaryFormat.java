@@ -0,0 +1,290 @@
+package de.uni_stuttgart.beehts.model.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.model.Tuple;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * This class saves SREs in a compact binary format and loads them again.
+ * Every distinct node is written once, so subexpressions shared by multiple
+ * nodes (as in the results of a DTMC to SRE transformation) stay shared and
+ * the size of the file is proportional to the size of the DAG, not of the
+ * expanded SRE.<br>
+ *
+ * A file starts with the magic number {@value #MAGIC}, the version and the
+ * number of nodes. The nodes follow in post order, so the root is the last
+ * one. Every node starts with its type. Atomic nodes contain the index of
+ * their character in the symbol table, followed by the character itself if it
+ * is new. Other nodes refer to their children by the distance to their
+ * position, followed by the rates of sums and Kleene stars. Indices, lengths
+ * and rates of sums are stored as variable length integers.
+ */
+public class SREBinaryFormat {
+
+	/** The first four bytes of every file, "SREB" in ASCII. */
+	public static final int MAGIC = 0x53524542;
+	/** The version of the format written by this class. */
+	public static final int VERSION = 1;
+
+	private static final int ATOMIC = 0, CAT = 1, SUM = 2, KLEENE = 3;
+
+	/**
+	 * Save an SRE. An existing file is overwritten.
+	 *
+	 * @param sre
+	 *            the SRE to save.
+	 * @param file
+	 *            the file to write to.
+	 * @throws IOException
+	 *             if writing the file fails.
+	 */
+	public static void write(SRE sre, Path file) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file)) {
+			write(sre, out);
+		}
+	}
+
+	/**
+	 * Write an SRE to a channel.
+	 *
+	 * @param sre
+	 *            the SRE to write.
+	 * @param channel
+	 *            the destination. It is not closed.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public static void write(SRE sre, WritableByteChannel channel) throws IOException {
+		write(sre, Channels.newOutputStream(channel));
+	}
+
+	/**
+	 * Write an SRE to a stream.
+	 *
+	 * @param sre
+	 *            the SRE to write.
+	 * @param stream
+	 *            the destination. It is flushed, but not closed.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public static void write(SRE sre, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		List<SRE> nodes = SREHelpers.postOrder(sre);
+		Map<SRE, Integer> index = new IdentityHashMap<>();
+		Map<String, Integer> symbols = new HashMap<>();
+
+		out.writeInt(MAGIC);
+		writeVarInt(out, VERSION);
+		writeVarInt(out, nodes.size());
+		for (SRE node : nodes) {
+			int i = index.size();
+			switch (node.getType()) {
+			case ATOMIC: {
+				String character = ((SREAtomic) node).getCharacter();
+				Integer symbol = symbols.get(character);
+				out.writeByte(ATOMIC);
+				if (symbol != null) {
+					writeVarInt(out, symbol);
+				} else {
+					writeVarInt(out, symbols.size());
+					symbols.put(character, symbols.size());
+					byte[] bytes = character.getBytes(StandardCharsets.UTF_8);
+					writeVarInt(out, bytes.length);
+					out.write(bytes);
+				}
+				break;
+			}
+			case CAT:
+				out.writeByte(CAT);
+				writeVarInt(out, node.getChildren().length);
+				for (SRE child : node.getChildren()) {
+					writeVarInt(out, i - index.get(child));
+				}
+				break;
+			case SUM: {
+				SRESum sum = (SRESum) node;
+				out.writeByte(SUM);
+				writeVarInt(out, sum.getSubnodes().length);
+				for (int j = 0; j < sum.getSubnodes().length; j++) {
+					writeVarInt(out, i - index.get(sum.getSubnodes()[j]));
+					writeVarInt(out, sum.getRates()[j]);
+				}
+				break;
+			}
+			case KLEENE: {
+				SREKleene kleene = (SREKleene) node;
+				out.writeByte(KLEENE);
+				writeVarInt(out, i - index.get(kleene.getChild()));
+				out.writeDouble(kleene.getRepetitionRate());
+				break;
+			}
+			default:
+				throw new IllegalArgumentException();
+			}
+			index.put(node, i);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Load an SRE.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @return the SRE.
+	 * @throws IOException
+	 *             if the file cannot be read or is no SRE file of a supported
+	 *             version.
+	 */
+	public static SRE read(Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Read an SRE from a channel.
+	 *
+	 * @param channel
+	 *            the source. It is read until the end of the SRE, but not
+	 *            closed.
+	 * @return the SRE.
+	 * @throws IOException
+	 *             if reading fails or the data is no SRE of a supported
+	 *             version.
+	 */
+	public static SRE read(ReadableByteChannel channel) throws IOException {
+		return read(Channels.newInputStream(channel));
+	}
+
+	/**
+	 * Read an SRE from a stream.
+	 *
+	 * @param stream
+	 *            the source. It is not closed. As the data is read through a
+	 *            buffer, bytes after the SRE may be consumed as well.
+	 * @return the SRE.
+	 * @throws IOException
+	 *             if reading fails or the data is no SRE of a supported
+	 *             version.
+	 */
+	public static SRE read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("The data is no SRE.");
+		}
+		int version = readVarInt(in);
+		if (version != VERSION) {
+			throw new IOException("The SRE has the unsupported version " + version + ".");
+		}
+		int count = readVarInt(in);
+		if (count <= 0) {
+			throw new IOException("The SRE is corrupt.");
+		}
+		List<SRE> nodes = new ArrayList<>(Math.min(count, 1 << 16));
+		List<String> symbols = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			try {
+				nodes.add(readNode(in, nodes, symbols));
+			} catch (IllegalArgumentException e) {
+				// rejected by the constructor of the node
+				throw new IOException("The SRE is corrupt.", e);
+			}
+		}
+		return nodes.get(count - 1);
+	}
+
+	private static SRE readNode(DataInputStream in, List<SRE> nodes, List<String> symbols) throws IOException {
+		switch (in.readByte()) {
+		case ATOMIC: {
+			int symbol = readVarInt(in);
+			if (symbol == symbols.size()) {
+				byte[] bytes = new byte[readLength(in)];
+				in.readFully(bytes);
+				symbols.add(new String(bytes, StandardCharsets.UTF_8));
+			} else if (symbol < 0 || symbol > symbols.size()) {
+				throw new IOException("The SRE is corrupt.");
+			}
+			return new SREAtomic(symbols.get(symbol));
+		}
+		case CAT: {
+			SRE[] children = new SRE[readLength(in)];
+			for (int j = 0; j < children.length; j++) {
+				children[j] = child(in, nodes);
+			}
+			return new SREConcat(children);
+		}
+		case SUM: {
+			Tuple<SRE, Integer>[] children = SREHelpers.newAlternatives(readLength(in));
+			for (int j = 0; j < children.length; j++) {
+				children[j] = new Tuple<>(child(in, nodes), readVarInt(in));
+			}
+			return new SRESum(children);
+		}
+		case KLEENE: {
+			SRE child = child(in, nodes);
+			return new SREKleene(child, in.readDouble());
+		}
+		default:
+			throw new IOException("The SRE is corrupt.");
+		}
+	}
+
+	private static SRE child(DataInputStream in, List<SRE> nodes) throws IOException {
+		int distance = readVarInt(in);
+		if (distance <= 0 || distance > nodes.size()) {
+			throw new IOException("The SRE is corrupt.");
+		}
+		return nodes.get(nodes.size() - distance);
+	}
+
+	private static int readLength(DataInputStream in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0) {
+			throw new IOException("The SRE is corrupt.");
+		}
+		return length;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("The SRE is corrupt.");
+	}
+}
@@ -0,0 +1,236 @@
+package de.uni_stuttgart.beehts.model.serialization;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+
+/**
+ * This class writes the String representation of SREs (as returned by
+ * {@link SRE#toString()}) to any {@link Appendable}. The SRE is written in a
+ * single pass without recursion, hence the time needed is linear in the size
+ * of the output, regardless of the depth of the SRE.<br>
+ *
+ * The output may be limited in length and depth, which is useful to preview
+ * huge SREs. Parts of the SRE that are omitted are marked with
+ * {@value #ELLIPSIS}.
+ */
+public class SREWriter {
+
+	/**
+	 * The marker that is written instead of omitted parts of the SRE.
+	 */
+	public static final String ELLIPSIS = "...";
+
+	private final long maxLength;
+	private final int maxDepth;
+
+	/**
+	 * Constructor. The created writer writes SREs completely.
+	 */
+	public SREWriter() {
+		this(Long.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxLength
+	 *            the maximum number of characters to write. If the String
+	 *            representation is longer, it is cut off and {@value #ELLIPSIS}
+	 *            is appended.
+	 * @param maxDepth
+	 *            the maximum depth of nodes to write. The root has a depth of
+	 *            0. Non-atomic nodes that are nested deeper are replaced by
+	 *            {@value #ELLIPSIS}.
+	 */
+	public SREWriter(long maxLength, int maxDepth) {
+		if (maxLength < 0 || maxDepth < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.maxLength = maxLength;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Get the String representation of an SRE, respecting the limits of this
+	 * writer.
+	 *
+	 * @param sre
+	 *            the SRE to print.
+	 * @return the (possibly shortened) String representation.
+	 */
+	public String print(SRE sre) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			write(sre, sb);
+		} catch (IOException e) {
+			throw new AssertionError("StringBuilders do not throw IOExceptions.", e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write the String representation of an SRE to a file. An existing file is
+	 * overwritten.
+	 *
+	 * @param sre
+	 *            the SRE to write.
+	 * @param file
+	 *            the file to write to.
+	 * @return true if the SRE was written completely, false if it was
+	 *         shortened.
+	 * @throws IOException
+	 *             if writing the file fails.
+	 */
+	public boolean write(SRE sre, Path file) throws IOException {
+		try (BufferedWriter w = Files.newBufferedWriter(file)) {
+			return write(sre, w);
+		}
+	}
+
+	/**
+	 * Write the String representation of an SRE.
+	 *
+	 * @param sre
+	 *            the SRE to write.
+	 * @param out
+	 *            the destination (e.g. a {@link StringBuilder} or a
+	 *            {@link java.io.Writer}). It is not flushed or closed.
+	 * @return true if the SRE was written completely, false if it was
+	 *         shortened.
+	 * @throws IOException
+	 *             if the destination throws one.
+	 */
+	public boolean write(SRE sre, Appendable out) throws IOException {
+		Output output = new Output(out, maxLength);
+		Deque<Frame> stack = new ArrayDeque<>();
+		boolean complete = open(sre, 0, output, stack);
+
+		while (!stack.isEmpty() && !output.isFull()) {
+			Frame f = stack.peek();
+			switch (f.sre.getType()) {
+			case CAT: {
+				SRE[] subnodes = ((SREConcat) f.sre).getSubnodes();
+				if (f.next == subnodes.length) {
+					output.append(")");
+					stack.pop();
+					continue;
+				} else if (f.next > 0) {
+					output.append(" : ");
+				}
+				complete &= open(subnodes[f.next++], f.depth + 1, output, stack);
+				break;
+			}
+			case SUM: {
+				SRESum sum = (SRESum) f.sre;
+				if (f.next > 0) {
+					output.append("[" + sum.getRates()[f.next - 1] + "]");
+				}
+				if (f.next == sum.getSubnodes().length) {
+					output.append(")");
+					stack.pop();
+					continue;
+				} else if (f.next > 0) {
+					output.append(" + ");
+				}
+				complete &= open(sum.getSubnodes()[f.next++], f.depth + 1, output, stack);
+				break;
+			}
+			case KLEENE: {
+				SREKleene kleene = (SREKleene) f.sre;
+				if (f.next == 0) {
+					f.next++;
+					complete &= open(kleene.getChild(), f.depth + 1, output, stack);
+				} else {
+					output.append("*" + kleene.getRepetitionRate() + ")");
+					stack.pop();
+				}
+				break;
+			}
+			case ATOMIC: // fallthrough, atomic SREs are never pushed
+			default:
+				throw new IllegalArgumentException();
+			}
+		}
+
+		if (output.isFull()) {
+			out.append(ELLIPSIS);
+			return false;
+		}
+		return complete;
+	}
+
+	/**
+	 * Start writing a node. Atomic nodes (and nodes that are too deep) are
+	 * written completely, all others are pushed to the stack.
+	 *
+	 * @return false if the node has been omitted.
+	 */
+	private boolean open(SRE sre, int depth, Output output, Deque<Frame> stack) throws IOException {
+		if (sre.getType() == SRE.Type.ATOMIC) {
+			output.append(((SREAtomic) sre).getCharacter());
+		} else if (depth > maxDepth) {
+			output.append(ELLIPSIS);
+			return false;
+		} else {
+			output.append("(");
+			stack.push(new Frame(sre, depth));
+		}
+		return true;
+	}
+
+	/**
+	 * A node whose children are currently written.
+	 */
+	private static class Frame {
+
+		public final SRE sre;
+		public final int depth;
+		/** the index of the next child to write */
+		public int next = 0;
+
+		public Frame(SRE sre, int depth) {
+			this.sre = sre;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * Wraps the destination and keeps track of the number of characters that
+	 * may still be written.
+	 */
+	private static class Output {
+
+		private final Appendable out;
+		private long remaining;
+		private boolean full = false;
+
+		public Output(Appendable out, long maxLength) {
+			this.out = out;
+			this.remaining = maxLength;
+		}
+
+		public void append(CharSequence s) throws IOException {
+			if (full) {
+				return;
+			} else if (s.length() > remaining) {
+				out.append(s, 0, (int) remaining);
+				remaining = 0;
+				full = true;
+			} else {
+				out.append(s);
+				remaining -= s.length();
+			}
+		}
+
+		public boolean isFull() {
+			return full;
+		}
+	}
+}
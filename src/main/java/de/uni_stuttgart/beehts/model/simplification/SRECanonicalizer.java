@@ -0,0 +1,320 @@
+package de.uni_stuttgart.beehts.model.simplification;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.model.Tuple;
+import de.uni_stuttgart.beehts.util.MathHelpers;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * This class calculates a canonical form of an SRE and its digest. Two SREs
+ * get the same canonical form if they only differ in
+ * <ul>
+ * <li>the nesting of concatenations and of compatible sums (see
+ * {@link SRENormalizer}),</li>
+ * <li>the sharing of subexpressions,</li>
+ * <li>epsilons within concatenations,</li>
+ * <li>the order of the alternatives of sums,</li>
+ * <li>alternatives that occur multiple times or have a rate of 0 and</li>
+ * <li>rates that are scaled by a common factor.</li>
+ * </ul>
+ * The alternatives of a sum are sorted by their digest and the rates are
+ * divided by their greatest common divisor. Structurally equal subexpressions
+ * are represented by the same object in the canonical form, so it should be
+ * {@link SRE#clone() cloned} before it is modified.<br>
+ *
+ * Concatenations that are shared are kept as operands of the concatenations
+ * containing them, as flattening them may be exponential in the size of the
+ * SRE. Their digest does not depend on this: the digest of a concatenation
+ * hashes the sequence of its flattened operands with a polynomial hash, which
+ * composes across nested concatenations. Apart from that, the digest is the
+ * {@link SREDigest structural digest} of the canonical form. It is calculated
+ * bottom-up without recursion.
+ */
+public class SRECanonicalizer {
+
+	/** The canonical form of every node of the normalized SRE. */
+	private final Map<SRE, SRE> canonical = new IdentityHashMap<>();
+	/** The digest of every canonical node. */
+	private final Map<SRE, SREDigest> digests = new IdentityHashMap<>();
+	/** The hash-consing table of the canonical nodes. */
+	private final Map<SREDigest, SRE> unique = new HashMap<>();
+	/** The hashes of the flattened operands of every canonical concatenation. */
+	private final Map<SRE, Sequence> sequences = new IdentityHashMap<>();
+	/** The concatenations of the normalized SRE that are not flattened. */
+	private final Set<SRE> shared;
+	private final SRE root;
+
+	/**
+	 * Constructor. Calculates the canonical form.
+	 *
+	 * @param sre
+	 *            the SRE to canonicalize. It is not modified.
+	 */
+	public SRECanonicalizer(SRE sre) {
+		SRE normalized = SRENormalizer.normalize(sre);
+		shared = SREHelpers.sharedNodes(normalized);
+		for (SRE node : SREHelpers.postOrder(normalized)) {
+			canonical.put(node, canonicalize(node));
+		}
+		root = canonical.get(normalized);
+	}
+
+	/**
+	 * Get the canonical form.
+	 *
+	 * @return the canonical SRE.
+	 */
+	public SRE getCanonicalSRE() {
+		return root;
+	}
+
+	/**
+	 * Get the 128 bit digest of the canonical form.
+	 *
+	 * @return the digest.
+	 */
+	public SREDigest getDigest() {
+		return digests.get(root);
+	}
+
+	private SRE canonicalize(SRE node) {
+		switch (node.getType()) {
+		case ATOMIC:
+			return intern(node);
+		case KLEENE: {
+			SREKleene kleene = (SREKleene) node;
+			SRE child = canonical.get(kleene.getChild());
+			return intern(child == kleene.getChild() ? node : new SREKleene(child, kleene.getRepetitionRate()));
+		}
+		case CAT: {
+			List<SRE> children = new ArrayList<>();
+			for (SRE child : node.getChildren()) {
+				SRE c = canonical.get(child);
+				// canonicalizing a child may yield a concatenation or epsilon
+				if (c.getType() == SRE.Type.CAT && !shared.contains(child)) {
+					children.addAll(Arrays.asList(c.getChildren()));
+				} else if (c.getType() != SRE.Type.ATOMIC || !((SREAtomic) c).getCharacter().isEmpty()) {
+					children.add(c);
+				}
+			}
+			if (children.isEmpty()) {
+				return intern(SREAtomic.EPSILON());
+			} else if (children.size() == 1) {
+				return children.get(0);
+			}
+			SRE[] array = children.toArray(new SRE[children.size()]);
+			return intern(Arrays.equals(array, node.getChildren()) ? node : new SREConcat(array));
+		}
+		case SUM:
+			return canonicalizeSum((SRESum) node);
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private SRE canonicalizeSum(SRESum sum) {
+		List<Tuple<SRE, Integer>> alternatives = new ArrayList<>();
+		for (int i = 0; i < sum.getSubnodes().length; i++) {
+			alternatives.add(new Tuple<>(canonical.get(sum.getSubnodes()[i]), sum.getRates()[i]));
+		}
+		// merging alternatives may make a nested sum compatible, so flatten
+		// and merge until nothing changes
+		do {
+			alternatives = merge(flatten(alternatives));
+		} while (alternatives.stream().anyMatch(t -> multiplier(t.x, t.y) > 0));
+		if (alternatives.isEmpty()) {
+			// no alternative can be chosen, keep all of them
+			for (int i = 0; i < sum.getSubnodes().length; i++) {
+				alternatives.add(new Tuple<>(canonical.get(sum.getSubnodes()[i]), 0));
+			}
+		} else if (alternatives.size() == 1) {
+			return alternatives.get(0).x;
+		}
+
+		int gcd = MathHelpers.gcd(alternatives.stream().mapToInt(t -> t.y));
+		if (gcd > 1) {
+			alternatives.forEach(t -> t.y /= gcd);
+		}
+		alternatives.sort(Comparator.<Tuple<SRE, Integer>, SREDigest> comparing(t -> digests.get(t.x))
+				.thenComparing(t -> t.y));
+
+		Tuple<SRE, Integer>[] array = alternatives.toArray(SREHelpers.newAlternatives(alternatives.size()));
+		return intern(new SRESum(array));
+	}
+
+	/**
+	 * Replace the compatible nested sums by their alternatives, see
+	 * {@link SRENormalizer}.
+	 */
+	private List<Tuple<SRE, Integer>> flatten(List<Tuple<SRE, Integer>> alternatives) {
+		List<Tuple<SRE, Integer>> result = new ArrayList<>();
+		Deque<Tuple<SRE, Integer>> todo = new ArrayDeque<>();
+		for (int i = alternatives.size() - 1; i >= 0; i--) {
+			todo.push(alternatives.get(i));
+		}
+		while (!todo.isEmpty()) {
+			Tuple<SRE, Integer> current = todo.pop();
+			int multiplier = multiplier(current.x, current.y);
+			if (multiplier > 0) {
+				SRESum inner = (SRESum) current.x;
+				int gcd = MathHelpers.gcd(inner.getRates());
+				for (int i = inner.getSubnodes().length - 1; i >= 0; i--) {
+					todo.push(new Tuple<>(inner.getSubnodes()[i], inner.getRates()[i] / gcd * multiplier));
+				}
+			} else {
+				result.add(current);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Check if an alternative is a sum that can be flattened.
+	 *
+	 * @return the factor to multiply the reduced inner rates with, or 0 if
+	 *         the alternative cannot be flattened.
+	 */
+	private int multiplier(SRE alternative, int rate) {
+		if (alternative.getType() != SRE.Type.SUM || rate <= 0) {
+			return 0;
+		}
+		int[] rates = ((SRESum) alternative).getRates();
+		int gcd = MathHelpers.gcd(rates);
+		if (gcd == 0) {
+			return 0;
+		}
+		long reducedSum = 0;
+		int maxRate = 0;
+		for (int r : rates) {
+			reducedSum += r / gcd;
+			maxRate = Math.max(maxRate, r / gcd);
+		}
+		if (rate % reducedSum != 0) {
+			return 0;
+		}
+		int multiplier = (int) (rate / reducedSum);
+		return maxRate <= Integer.MAX_VALUE / multiplier ? multiplier : 0;
+	}
+
+	/**
+	 * Merge equal alternatives, they are represented by the same object.
+	 * Alternatives with a rate of 0 are dropped.
+	 */
+	private static List<Tuple<SRE, Integer>> merge(List<Tuple<SRE, Integer>> alternatives) {
+		Map<SRE, Integer> indices = new IdentityHashMap<>();
+		List<Tuple<SRE, Integer>> result = new ArrayList<>();
+		for (Tuple<SRE, Integer> alternative : alternatives) {
+			int rate = alternative.y;
+			Integer index = indices.get(alternative.x);
+			if (rate == 0) {
+				continue;
+			} else if (index != null && result.get(index).y <= Integer.MAX_VALUE - rate) {
+				result.get(index).y += rate;
+			} else {
+				indices.put(alternative.x, result.size());
+				result.add(new Tuple<>(alternative.x, rate));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the canonical object that is structurally equal to the given node.
+	 * The children of the node need to be canonical already.
+	 */
+	private SRE intern(SRE node) {
+		Sequence sequence = null;
+		SREDigest digest;
+		if (node.getType() == SRE.Type.CAT) {
+			for (SRE child : node.getChildren()) {
+				Sequence s = child.getType() == SRE.Type.CAT ? sequences.get(child) : new Sequence(digests.get(child));
+				sequence = sequence == null ? s : sequence.append(s);
+			}
+			digest = sequence.digest();
+		} else {
+			digest = SREDigest.of(node, digests::get);
+		}
+		SRE existing = unique.putIfAbsent(digest, node);
+		if (existing != null) {
+			return existing;
+		}
+		digests.put(node, digest);
+		if (sequence != null) {
+			sequences.put(node, sequence);
+		}
+		return node;
+	}
+
+	/**
+	 * Two polynomial hashes modulo the prime 2<sup>61</sup> - 1 of a sequence
+	 * of digests. The hash of the concatenation of two sequences can be
+	 * calculated from their hashes and lengths, so the hash of a flattened
+	 * concatenation does not require flattening it.
+	 */
+	private static final class Sequence {
+
+		private static final long PRIME = (1L << 61) - 1;
+		private static final long BASE1 = 0x1b2f5e3a9c4d7e1L, BASE2 = 0x0e7a3c91d5b2f43L;
+
+		private final long length;
+		private final long hash1, hash2;
+		/** the bases to the power of the length */
+		private final long power1, power2;
+
+		/**
+		 * The sequence of one digest.
+		 */
+		public Sequence(SREDigest digest) {
+			this(1, reduce(digest.getHigh()), reduce(digest.getLow()), BASE1, BASE2);
+		}
+
+		private Sequence(long length, long hash1, long hash2, long power1, long power2) {
+			this.length = length;
+			this.hash1 = hash1;
+			this.hash2 = hash2;
+			this.power1 = power1;
+			this.power2 = power2;
+		}
+
+		public Sequence append(Sequence other) {
+			return new Sequence(length + other.length, reduce(multiply(hash1, other.power1) + other.hash1),
+					reduce(multiply(hash2, other.power2) + other.hash2), multiply(power1, other.power1),
+					multiply(power2, other.power2));
+		}
+
+		public SREDigest digest() {
+			return SREDigest.ofSequence(length, hash1, hash2);
+		}
+
+		/**
+		 * Multiply two numbers below the prime modulo the prime, splitting
+		 * them into halves of 31 and 30 bits to avoid an overflow.
+		 */
+		private static long multiply(long a, long b) {
+			long a1 = a >>> 31, a0 = a & 0x7fffffffL, b1 = b >>> 31, b0 = b & 0x7fffffffL;
+			long middle = a0 * b1 + a1 * b0;
+			return reduce((a1 * b1 << 1) + (middle >>> 30) + ((middle & 0x3fffffffL) << 31) + a0 * b0);
+		}
+
+		/**
+		 * Reduce an unsigned number below 2<sup>64</sup> modulo the prime.
+		 */
+		private static long reduce(long x) {
+			long r = (x & PRIME) + (x >>> 61);
+			r = (r & PRIME) + (r >>> 61);
+			return r >= PRIME ? r - PRIME : r;
+		}
+	}
+}
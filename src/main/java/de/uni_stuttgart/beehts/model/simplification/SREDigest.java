@@ -0,0 +1,194 @@
+package de.uni_stuttgart.beehts.model.simplification;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * A 128 bit structural digest of an SRE. It is the MD5 hash of the type, the
+ * characters and rates of a node and the digests of its children, so
+ * structurally equal SREs have the same digest, no matter if subexpressions
+ * are shared or not.<br>
+ *
+ * The digest of the canonical form calculated by {@link SRECanonicalizer} is
+ * the same for SREs describing the same model up to the order of alternatives
+ * and the scaling of rates, so it can be used as a key for caches and
+ * deduplication. There, concatenations are hashed over the sequence of their
+ * flattened operands, so the nesting and sharing of concatenations does not
+ * change the digest either.
+ */
+public final class SREDigest implements Comparable<SREDigest> {
+
+	private static final byte ATOMIC = 'A', CAT = 'C', SUM = 'S', KLEENE = 'K', SEQUENCE = 'Q';
+
+	private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support MD5
+			throw new IllegalStateException(e);
+		}
+	});
+
+	private final long high;
+	private final long low;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bytes
+	 *            the 16 bytes of the digest, most significant first.
+	 */
+	public SREDigest(byte[] bytes) {
+		if (bytes.length != 16) {
+			throw new IllegalArgumentException("A digest needs 16 bytes, got " + bytes.length);
+		}
+		long h = 0, l = 0;
+		for (int i = 0; i < 8; i++) {
+			h = (h << 8) | (bytes[i] & 0xff);
+			l = (l << 8) | (bytes[i + 8] & 0xff);
+		}
+		this.high = h;
+		this.low = l;
+	}
+
+	/**
+	 * Calculate the structural digests of all distinct nodes of an SRE.
+	 *
+	 * @param sre
+	 *            the SRE.
+	 * @return the digest of every node.
+	 */
+	public static Map<SRE, SREDigest> ofAll(SRE sre) {
+		Map<SRE, SREDigest> digests = new IdentityHashMap<>();
+		for (SRE node : SREHelpers.postOrder(sre)) {
+			digests.put(node, of(node, digests::get));
+		}
+		return digests;
+	}
+
+	/**
+	 * Calculate the structural digest of a node.
+	 *
+	 * @param node
+	 *            the node.
+	 * @param children
+	 *            provides the digests of the children of the node.
+	 * @return the digest.
+	 */
+	public static SREDigest of(SRE node, Function<SRE, SREDigest> children) {
+		MessageDigest md5 = MD5.get();
+		switch (node.getType()) {
+		case ATOMIC: {
+			byte[] bytes = ((SREAtomic) node).getCharacter().getBytes(StandardCharsets.UTF_8);
+			md5.update(ATOMIC);
+			md5.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+			md5.update(bytes);
+			break;
+		}
+		case CAT: {
+			md5.update(CAT);
+			md5.update(ByteBuffer.allocate(4).putInt(node.getChildren().length).array());
+			for (SRE child : node.getChildren()) {
+				md5.update(children.apply(child).toBytes());
+			}
+			break;
+		}
+		case SUM: {
+			SRESum sum = (SRESum) node;
+			md5.update(SUM);
+			md5.update(ByteBuffer.allocate(4).putInt(sum.getSubnodes().length).array());
+			for (int i = 0; i < sum.getSubnodes().length; i++) {
+				md5.update(children.apply(sum.getSubnodes()[i]).toBytes());
+				md5.update(ByteBuffer.allocate(4).putInt(sum.getRates()[i]).array());
+			}
+			break;
+		}
+		case KLEENE: {
+			SREKleene kleene = (SREKleene) node;
+			md5.update(KLEENE);
+			md5.update(ByteBuffer.allocate(8).putDouble(kleene.getRepetitionRate()).array());
+			md5.update(children.apply(kleene.getChild()).toBytes());
+			break;
+		}
+		default:
+			throw new IllegalArgumentException();
+		}
+		return new SREDigest(md5.digest());
+	}
+
+	/**
+	 * Calculate the digest of a concatenation from the hashes of the sequence
+	 * of its flattened operands, see {@link SRECanonicalizer}.
+	 *
+	 * @param length
+	 *            the number of operands.
+	 * @param hash1
+	 *            the first hash of the sequence.
+	 * @param hash2
+	 *            the second hash of the sequence.
+	 * @return the digest.
+	 */
+	static SREDigest ofSequence(long length, long hash1, long hash2) {
+		MessageDigest md5 = MD5.get();
+		md5.update(SEQUENCE);
+		md5.update(ByteBuffer.allocate(24).putLong(length).putLong(hash1).putLong(hash2).array());
+		return new SREDigest(md5.digest());
+	}
+
+	long getHigh() {
+		return high;
+	}
+
+	long getLow() {
+		return low;
+	}
+
+	/**
+	 * Get the digest as bytes.
+	 *
+	 * @return the 16 bytes of the digest, most significant first.
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = new byte[16];
+		for (int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (high >>> (56 - 8 * i));
+			bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+		}
+		return bytes;
+	}
+
+	@Override
+	public int compareTo(SREDigest other) {
+		int c = Long.compareUnsigned(high, other.high);
+		return c != 0 ? c : Long.compareUnsigned(low, other.low);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof SREDigest) {
+			SREDigest other = (SREDigest) o;
+			return high == other.high && low == other.low;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(high ^ low);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+}
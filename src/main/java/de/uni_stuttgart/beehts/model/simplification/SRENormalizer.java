@@ -0,0 +1,214 @@
+package de.uni_stuttgart.beehts.model.simplification;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.model.Tuple;
+import de.uni_stuttgart.beehts.util.MathHelpers;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * This class removes degenerate nesting from SREs, as it is produced e.g. by
+ * state elimination (which nests concatenations and sums one level per
+ * eliminated state).<br>
+ *
+ * Chains of concatenations are flattened completely (removing epsilons), as
+ * concatenation is associative. Chains of sums are flattened as long as the
+ * rates are compatible, that is, if the rate of a nested sum is a multiple of
+ * the sum of its (reduced) rates: <code>a[x] + (b[y] + c[z])[k*(y+z)] ==>
+ * a[x] + b[k*y] + c[k*z]</code>. Other sums are kept to preserve the
+ * probabilities exactly. Subexpressions that are referenced more than once are
+ * normalized once and kept as operands instead of being flattened into every
+ * parent, so they stay shared and the result is not larger than the SRE.<br>
+ *
+ * Afterwards, no unshared concatenation is nested directly in another one and
+ * no unshared compatible sum in another sum, so the depth of the result is
+ * bounded by the number of alternations between the types of nodes on a path.
+ * The SRE is processed without recursion in time linear in its size. The
+ * original SRE is not modified.
+ */
+public class SRENormalizer {
+
+	private final Map<SRE, SRE> normalized = new IdentityHashMap<>();
+	/** the subexpressions that are not flattened into their parents */
+	private final Set<SRE> shared;
+
+	private SRENormalizer(SRE sre) {
+		shared = SREHelpers.sharedNodes(sre);
+	}
+
+	/**
+	 * Normalize an SRE.
+	 *
+	 * @param sre
+	 *            the SRE to normalize.
+	 * @return the normalized SRE. Subexpressions that needed no change are
+	 *         reused.
+	 */
+	public static SRE normalize(SRE sre) {
+		return new SRENormalizer(sre).process(sre);
+	}
+
+	private SRE process(SRE sre) {
+		Deque<Frame> stack = new ArrayDeque<>();
+		stack.push(new Frame(sre));
+		while (!stack.isEmpty()) {
+			Frame f = stack.peek();
+			if (f.next < f.operands.size()) {
+				SRE operand = f.operands.get(f.next++);
+				if (!normalized.containsKey(operand)) {
+					stack.push(new Frame(operand));
+				}
+			} else {
+				stack.pop();
+				normalized.put(f.sre, f.build());
+			}
+		}
+		return normalized.get(sre);
+	}
+
+	/**
+	 * A node to normalize. The operands are the nodes at the ends of the chain
+	 * of equal operations starting at this node.
+	 */
+	private class Frame {
+
+		public final SRE sre;
+		public final List<SRE> operands = new ArrayList<>();
+		/** the (scaled) rates of the operands, if this is a sum */
+		public final List<Long> rates = new ArrayList<>();
+		public int next = 0;
+
+		public Frame(SRE sre) {
+			this.sre = sre;
+			switch (sre.getType()) {
+			case CAT:
+				collectConcat();
+				break;
+			case SUM:
+				collectSum();
+				break;
+			case KLEENE:
+				operands.add(((SREKleene) sre).getChild());
+				break;
+			case ATOMIC:
+				break;
+			default:
+				throw new IllegalArgumentException();
+			}
+		}
+
+		private void collectConcat() {
+			Deque<SRE> todo = new ArrayDeque<>();
+			todo.push(sre);
+			while (!todo.isEmpty()) {
+				SRE current = todo.pop();
+				if (current.getType() == SRE.Type.CAT && (current == sre || !shared.contains(current))) {
+					SRE[] subnodes = ((SREConcat) current).getSubnodes();
+					for (int i = subnodes.length - 1; i >= 0; i--) {
+						todo.push(subnodes[i]);
+					}
+				} else if (!isEpsilon(current)) {
+					operands.add(current);
+				}
+			}
+		}
+
+		private void collectSum() {
+			Deque<SRE> todo = new ArrayDeque<>();
+			Deque<Long> factors = new ArrayDeque<>();
+			SRESum root = (SRESum) sre;
+			for (int i = root.getSubnodes().length - 1; i >= 0; i--) {
+				todo.push(root.getSubnodes()[i]);
+				factors.push((long) root.getRates()[i]);
+			}
+			while (!todo.isEmpty()) {
+				SRE current = todo.pop();
+				long rate = factors.pop();
+				long multiplier = current.getType() == SRE.Type.SUM && !shared.contains(current)
+						? multiplier((SRESum) current, rate) : 0;
+				if (multiplier > 0) {
+					SRESum inner = (SRESum) current;
+					long gcd = MathHelpers.gcd(inner.getRates());
+					for (int i = inner.getSubnodes().length - 1; i >= 0; i--) {
+						todo.push(inner.getSubnodes()[i]);
+						factors.push(inner.getRates()[i] / gcd * multiplier);
+					}
+				} else {
+					operands.add(current);
+					rates.add(rate);
+				}
+			}
+		}
+
+		/**
+		 * Check if a nested sum with the given rate is compatible.
+		 *
+		 * @return the factor to multiply the reduced inner rates with, or 0 if
+		 *         the nested sum cannot be flattened.
+		 */
+		private long multiplier(SRESum inner, long rate) {
+			long gcd = MathHelpers.gcd(inner.getRates());
+			if (gcd == 0) {
+				return 0;
+			}
+			long reducedSum = 0;
+			long maxRate = 0;
+			for (int r : inner.getRates()) {
+				reducedSum += r / gcd;
+				maxRate = Math.max(maxRate, r / gcd);
+			}
+			if (rate % reducedSum != 0) {
+				return 0;
+			}
+			long multiplier = rate / reducedSum;
+			return multiplier > 0 && maxRate <= Integer.MAX_VALUE / multiplier ? multiplier : 0;
+		}
+
+		public SRE build() {
+			SRE[] children = new SRE[operands.size()];
+			for (int i = 0; i < children.length; i++) {
+				children[i] = normalized.get(operands.get(i));
+			}
+			boolean changed = !Arrays.equals(children, sre.getChildren());
+
+			switch (sre.getType()) {
+			case ATOMIC:
+				return sre;
+			case KLEENE:
+				return changed ? new SREKleene(children[0], ((SREKleene) sre).getRepetitionRate()) : sre;
+			case CAT:
+				if (children.length == 0) {
+					return SREAtomic.EPSILON();
+				} else if (children.length == 1) {
+					return children[0];
+				}
+				return changed ? new SREConcat(children) : sre;
+			case SUM: {
+				if (!changed) {
+					return sre;
+				}
+				Tuple<SRE, Integer>[] tuples = SREHelpers.newAlternatives(children.length);
+				for (int i = 0; i < children.length; i++) {
+					tuples[i] = new Tuple<>(children[i], (int) (long) rates.get(i));
+				}
+				return new SRESum(tuples);
+			}
+			default:
+				throw new IllegalArgumentException();
+			}
+		}
+	}
+
+	private static boolean isEpsilon(SRE sre) {
+		return sre.getType() == SRE.Type.ATOMIC && ((SREAtomic) sre).getCharacter().isEmpty();
+	}
+}
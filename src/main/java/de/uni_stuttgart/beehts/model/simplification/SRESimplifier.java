@@ -0,0 +1,391 @@
+package de.uni_stuttgart.beehts.model.simplification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.model.Tuple;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * This class simplifies SREs algebraically. In contrast to
+ * {@link SRE#simplify()}, the whole SRE is rewritten until nothing changes
+ * anymore. The following rules are applied (the probability of every String
+ * stays the same):
+ * <ul>
+ * <li><code>a : (b : c) ==> a : b : c</code> and
+ * <code>a : epsilon ==> a</code></li>
+ * <li><code>a[x] + (b[y] + c[z])[w] ==> a[x*(y+z)] + b[w*y] + c[w*z]</code>,
+ * as long as the rates do not overflow</li>
+ * <li><code>a[x] + a[y] ==> a[x+y]</code></li>
+ * <li><code>(p : a)[x] + (p : b)[y] ==> (p : (a[x] + b[y]))[x+y]</code>, that
+ * is, common prefixes of the alternatives of a sum are factored out</li>
+ * <li><code>(a : s)[x] + (b : s)[y] ==> ((a[x] + b[y]) : s)[x+y]</code>, that
+ * is, common suffixes are factored out as well</li>
+ * <li><code>a*0 ==> epsilon</code> and <code>epsilon*p ==> epsilon</code>
+ * (for p &lt; 1)</li>
+ * </ul>
+ * Nested Kleene iterations are not merged, as <code>(a*p)*q</code> cannot be
+ * expressed by a single iteration without changing the probabilities.
+ * All nodes are hash-consed: structurally equal subexpressions are represented
+ * by the same object in the result. Hence the result is a DAG and should be
+ * {@link SRE#clone() cloned} before it is modified.
+ */
+public class SRESimplifier {
+
+	/** The hash-consing table. */
+	private final Map<Key, SRE> unique = new HashMap<>();
+
+	/**
+	 * Simplify an SRE. The SRE itself is not modified.
+	 *
+	 * @param sre
+	 *            the SRE to simplify.
+	 * @return the simplified SRE.
+	 */
+	public static SRE simplify(SRE sre) {
+		return new SRESimplifier().rewrite(sre);
+	}
+
+	/**
+	 * Rewrite an SRE until a fixpoint is reached. The hash-consing table is
+	 * kept, so SREs rewritten by the same simplifier share their common
+	 * subexpressions.
+	 *
+	 * @param sre
+	 *            the SRE to simplify.
+	 * @return the simplified SRE.
+	 */
+	public SRE rewrite(SRE sre) {
+		SRE current = sre;
+		while (true) {
+			SRE next = rewriteOnce(current);
+			if (next == current) {
+				return current;
+			}
+			current = next;
+		}
+	}
+
+	/**
+	 * Apply the rules once to every node, bottom-up.
+	 */
+	private SRE rewriteOnce(SRE sre) {
+		Map<SRE, SRE> rewritten = new IdentityHashMap<>();
+		for (SRE node : SREHelpers.postOrder(sre)) {
+			SRE[] children = node.getChildren();
+			SRE[] newChildren = new SRE[children.length];
+			for (int i = 0; i < children.length; i++) {
+				newChildren[i] = rewritten.get(children[i]);
+			}
+			switch (node.getType()) {
+			case ATOMIC:
+				rewritten.put(node, atomic(((SREAtomic) node).getCharacter()));
+				break;
+			case CAT:
+				rewritten.put(node, concat(newChildren));
+				break;
+			case SUM:
+				rewritten.put(node, sum(newChildren, ((SRESum) node).getRates()));
+				break;
+			case KLEENE:
+				rewritten.put(node, kleene(newChildren[0], ((SREKleene) node).getRepetitionRate()));
+				break;
+			default:
+				throw new IllegalArgumentException();
+			}
+		}
+		return rewritten.get(sre);
+	}
+
+	private SRE atomic(String c) {
+		return intern(new Key(c), () -> new SREAtomic(c));
+	}
+
+	private SRE kleene(SRE child, double rate) {
+		if (rate == 0 || (isEpsilon(child) && rate < 1)) {
+			return atomic("");
+		}
+		return intern(new Key(child, rate), () -> new SREKleene(child, rate));
+	}
+
+	private SRE concat(SRE... sres) {
+		List<SRE> flat = new ArrayList<>(sres.length);
+		for (SRE sre : sres) {
+			if (sre.getType() == SRE.Type.CAT) {
+				flat.addAll(Arrays.asList(sre.getChildren()));
+			} else if (!isEpsilon(sre)) {
+				flat.add(sre);
+			}
+		}
+		if (flat.isEmpty()) {
+			return atomic("");
+		} else if (flat.size() == 1) {
+			return flat.get(0);
+		}
+		SRE[] children = flat.toArray(new SRE[flat.size()]);
+		return intern(new Key(SRE.Type.CAT, children, null), () -> new SREConcat(children));
+	}
+
+	private SRE sum(SRE[] sres, int[] rates) {
+		List<SRE> children = new ArrayList<>(Arrays.asList(sres));
+		List<Long> childRates = new ArrayList<>();
+		for (int rate : rates) {
+			childRates.add((long) rate);
+		}
+
+		flattenSums(children, childRates);
+		mergeDuplicates(children, childRates);
+		boolean factored = factor(children, childRates, true) | factor(children, childRates, false);
+		if (factored) {
+			mergeDuplicates(children, childRates);
+		}
+		if (children.size() == 1) {
+			return children.get(0);
+		}
+
+		SRE[] c = children.toArray(new SRE[children.size()]);
+		int[] r = childRates.stream().mapToInt(x -> (int) (long) x).toArray();
+		return intern(new Key(SRE.Type.SUM, c, r), () -> {
+			Tuple<SRE, Integer>[] tuples = SREHelpers.newAlternatives(c.length);
+			for (int i = 0; i < c.length; i++) {
+				tuples[i] = new Tuple<>(c[i], r[i]);
+			}
+			return new SRESum(tuples);
+		});
+	}
+
+	/**
+	 * Pull the alternatives of nested sums up into the list, scaling the rates
+	 * accordingly. Nested sums are kept if the rates would overflow.
+	 */
+	private static void flattenSums(List<SRE> children, List<Long> rates) {
+		for (int i = 0; i < children.size(); i++) {
+			if (children.get(i).getType() != SRE.Type.SUM) {
+				continue;
+			}
+			SRESum inner = (SRESum) children.get(i);
+			long innerSum = Arrays.stream(inner.getRates()).asLongStream().sum();
+			if (innerSum == 0) {
+				continue;
+			}
+
+			// the new rates: others * innerSum, inner ones * outer rate
+			long[] newRates = new long[children.size() - 1 + inner.getRates().length];
+			int k = 0;
+			for (int j = 0; j < children.size(); j++) {
+				if (j != i) {
+					newRates[k++] = multiply(rates.get(j), innerSum);
+				}
+			}
+			for (int rate : inner.getRates()) {
+				newRates[k++] = multiply(rate, rates.get(i));
+			}
+			if (!reduce(newRates)) {
+				continue;
+			}
+
+			List<SRE> newChildren = new ArrayList<>(children);
+			newChildren.remove(i);
+			newChildren.addAll(Arrays.asList(inner.getSubnodes()));
+			children.clear();
+			children.addAll(newChildren);
+			rates.clear();
+			for (long rate : newRates) {
+				rates.add(rate);
+			}
+			i--;
+		}
+	}
+
+	/**
+	 * Merge identical alternatives. As all nodes are hash-consed, identical
+	 * means the same object.
+	 */
+	private static void mergeDuplicates(List<SRE> children, List<Long> rates) {
+		Map<SRE, Long> merged = new LinkedHashMap<>();
+		for (int i = 0; i < children.size(); i++) {
+			merged.merge(children.get(i), rates.get(i), Long::sum);
+		}
+		if (merged.size() == children.size() || merged.values().stream().anyMatch(r -> r > Integer.MAX_VALUE)) {
+			return;
+		}
+		children.clear();
+		rates.clear();
+		merged.forEach((sre, rate) -> {
+			children.add(sre);
+			rates.add(rate);
+		});
+	}
+
+	/**
+	 * Factor out common prefixes (or suffixes) of alternatives.
+	 *
+	 * @return true if anything has been factored out.
+	 */
+	private boolean factor(List<SRE> children, List<Long> rates, boolean prefix) {
+		Map<SRE, List<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < children.size(); i++) {
+			SRE[] parts = parts(children.get(i));
+			groups.computeIfAbsent(parts[prefix ? 0 : parts.length - 1], x -> new ArrayList<>()).add(i);
+		}
+		if (groups.size() == children.size()) {
+			return false;
+		}
+
+		List<SRE> newChildren = new ArrayList<>();
+		List<Long> newRates = new ArrayList<>();
+		boolean factored = false;
+		for (Map.Entry<SRE, List<Integer>> group : groups.entrySet()) {
+			List<Integer> members = group.getValue();
+			long rateSum = members.stream().mapToLong(rates::get).sum();
+			if (members.size() == 1 || rateSum > Integer.MAX_VALUE) {
+				for (int i : members) {
+					newChildren.add(children.get(i));
+					newRates.add(rates.get(i));
+				}
+				continue;
+			}
+
+			SRE[] remainders = new SRE[members.size()];
+			int[] remainderRates = new int[members.size()];
+			for (int j = 0; j < members.size(); j++) {
+				SRE[] parts = parts(children.get(members.get(j)));
+				remainders[j] = prefix ? concat(Arrays.copyOfRange(parts, 1, parts.length))
+						: concat(Arrays.copyOfRange(parts, 0, parts.length - 1));
+				remainderRates[j] = (int) (long) rates.get(members.get(j));
+			}
+			SRE rest = sum(remainders, remainderRates);
+			newChildren.add(prefix ? concat(group.getKey(), rest) : concat(rest, group.getKey()));
+			newRates.add(rateSum);
+			factored = true;
+		}
+
+		children.clear();
+		children.addAll(newChildren);
+		rates.clear();
+		rates.addAll(newRates);
+		return factored;
+	}
+
+	/**
+	 * The parts of an SRE regarding concatenation.
+	 */
+	private static SRE[] parts(SRE sre) {
+		return sre.getType() == SRE.Type.CAT ? sre.getChildren() : new SRE[] { sre };
+	}
+
+	private static boolean isEpsilon(SRE sre) {
+		return sre.getType() == SRE.Type.ATOMIC && ((SREAtomic) sre).getCharacter().isEmpty();
+	}
+
+	/**
+	 * Divide all rates by their greatest common divisor.
+	 *
+	 * @return true if all rates fit into an integer afterwards.
+	 */
+	private static boolean reduce(long[] rates) {
+		long gcd = 0;
+		for (long rate : rates) {
+			if (rate < 0) {
+				return false;
+			}
+			gcd = gcd(gcd, rate);
+		}
+		for (int i = 0; i < rates.length && gcd > 1; i++) {
+			rates[i] /= gcd;
+		}
+		return Arrays.stream(rates).allMatch(r -> r <= Integer.MAX_VALUE);
+	}
+
+	private static long gcd(long x, long y) {
+		return (y == 0) ? x : gcd(y, x % y);
+	}
+
+	/**
+	 * Multiply two nonnegative numbers. Returns -1 on overflow.
+	 */
+	private static long multiply(long x, long y) {
+		long result = x * y;
+		return (x != 0 && result / x != y) || result < 0 ? -1 : result;
+	}
+
+	private SRE intern(Key key, Supplier<SRE> constructor) {
+		SRE sre = unique.get(key);
+		if (sre == null) {
+			sre = constructor.get();
+			unique.put(key, sre);
+		}
+		return sre;
+	}
+
+	/**
+	 * The structure of a node. Children are compared by identity, as they are
+	 * hash-consed already.
+	 */
+	private static class Key {
+
+		private final SRE.Type type;
+		private final String character;
+		private final SRE[] children;
+		private final int[] rates;
+		private final double repetitionRate;
+
+		public Key(String character) {
+			this(SRE.Type.ATOMIC, character, new SRE[0], null, 0);
+		}
+
+		public Key(SRE child, double repetitionRate) {
+			this(SRE.Type.KLEENE, null, new SRE[] { child }, null, repetitionRate);
+		}
+
+		public Key(SRE.Type type, SRE[] children, int[] rates) {
+			this(type, null, children, rates, 0);
+		}
+
+		private Key(SRE.Type type, String character, SRE[] children, int[] rates, double repetitionRate) {
+			this.type = type;
+			this.character = character;
+			this.children = children;
+			this.rates = rates;
+			this.repetitionRate = repetitionRate;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			if (type != other.type || children.length != other.children.length
+					|| Double.compare(repetitionRate, other.repetitionRate) != 0
+					|| !Arrays.equals(rates, other.rates) || !Objects.equals(character, other.character)) {
+				return false;
+			}
+			for (int i = 0; i < children.length; i++) {
+				if (children[i] != other.children[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = type.hashCode() * 31 + Objects.hashCode(character);
+			for (SRE child : children) {
+				hash = hash * 31 + System.identityHashCode(child);
+			}
+			hash = hash * 31 + Arrays.hashCode(rates);
+			return hash * 31 + Double.hashCode(repetitionRate);
+		}
+	}
+}
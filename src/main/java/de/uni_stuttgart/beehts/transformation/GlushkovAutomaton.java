@@ -0,0 +1,284 @@
+package de.uni_stuttgart.beehts.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+
+/**
+ * The position automaton (Glushkov automaton) of an SRE with probabilities.<br>
+ *
+ * Every occurrence of a character in the SRE is a position. For every
+ * subexpression the probabilities of the positions it starts with, the
+ * probability of it being empty and the probabilities of leaving it after
+ * each of its last positions are computed in a single pass over the SRE. The
+ * probabilities of the positions following each other are collected on the
+ * way.<br>
+ *
+ * Subexpressions can be treated as boxes: a box is a single position that
+ * stands for a non-empty String produced by the subexpression, which may
+ * also be empty with a given probability. The probabilities of entering a box
+ * position do not include the probability of the box producing a non-empty
+ * String, see {@link #getEnterProbability(int, double)}.
+ */
+class GlushkovAutomaton {
+
+	/** the atomic SRE or the box of each position */
+	private final List<SRE> positions = new ArrayList<>();
+	/** the probabilities of the positions following each position */
+	private final List<Map<Integer, Double>> follow = new ArrayList<>();
+	private final Map<SRE, Double> boxes;
+	private final Fragment root;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sre
+	 *            the SRE.
+	 */
+	public GlushkovAutomaton(SRE sre) {
+		this(sre, Collections.emptyMap());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sre
+	 *            the SRE.
+	 * @param boxes
+	 *            the subexpressions to treat as boxes (compared by identity)
+	 *            and the probabilities of them producing the empty String. The
+	 *            SRE itself is never a box.
+	 */
+	public GlushkovAutomaton(SRE sre, Map<SRE, Double> boxes) {
+		this.boxes = boxes;
+		this.root = analyze(sre);
+	}
+
+	public int getPositionCount() {
+		return positions.size();
+	}
+
+	/**
+	 * @return the atomic SRE or the box of a position.
+	 */
+	public SRE getPosition(int position) {
+		return positions.get(position);
+	}
+
+	public boolean isBox(int position) {
+		return positions.get(position).getType() != SRE.Type.ATOMIC;
+	}
+
+	/**
+	 * @return the probabilities of the positions the SRE starts with.
+	 */
+	public Map<Integer, Double> getFirst() {
+		return root.first;
+	}
+
+	/**
+	 * @return the probabilities of the positions following a position.
+	 */
+	public Map<Integer, Double> getFollow(int position) {
+		return follow.get(position) != null ? follow.get(position) : Collections.emptyMap();
+	}
+
+	/**
+	 * @return the probability of the SRE ending after a position.
+	 */
+	public double getLast(int position) {
+		return root.last.getOrDefault(position, 0.);
+	}
+
+	/**
+	 * @return the probability of the SRE producing the empty String.
+	 */
+	public double getEmpty() {
+		return root.empty;
+	}
+
+	/**
+	 * Get the probability of actually entering a position, given the
+	 * probability from {@link #getFirst()} or {@link #getFollow(int)}. For a
+	 * box, this is the probability of it producing a non-empty String.
+	 */
+	public double getEnterProbability(int position, double probability) {
+		return isBox(position) ? probability * (1 - boxes.get(positions.get(position))) : probability;
+	}
+
+	/**
+	 * Number the nodes of a DTMC of the automaton. The initial node is 0 and
+	 * the final node is 1. Positions that are never followed by another one
+	 * are merged into the final node, all others get their own node.
+	 *
+	 * @return the node of every position.
+	 */
+	public int[] numberNodes() {
+		int[] nodes = new int[positions.size()];
+		int next = 2;
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = follow.get(i) == null && root.last.containsKey(i) ? 1 : next++;
+		}
+		return nodes;
+	}
+
+	/**
+	 * Compute the first and last positions of an SRE and the positions
+	 * following each other. The SRE is traversed in post order with an explicit
+	 * stack. A subexpression that occurs multiple times gets its own positions
+	 * for every occurrence.
+	 */
+	private Fragment analyze(SRE root) {
+		List<SRE> path = new ArrayList<>();
+		List<Integer> built = new ArrayList<>();
+		List<Fragment> fragments = new ArrayList<>();
+
+		path.add(root);
+		built.add(0);
+		while (!path.isEmpty()) {
+			int top = path.size() - 1;
+			SRE current = path.get(top);
+			boolean box = current != root && boxes.containsKey(current);
+			SRE[] children = box ? new SRE[0] : current.getChildren();
+			if (built.get(top) < children.length) {
+				built.set(top, built.get(top) + 1);
+				path.add(children[built.get(top) - 1]);
+				built.add(0);
+				continue;
+			}
+			path.remove(top);
+			built.remove(top);
+
+			List<Fragment> parts = fragments.subList(fragments.size() - children.length, fragments.size());
+			Fragment f;
+			if (box) {
+				f = position(current, boxes.get(current));
+			} else {
+				switch (current.getType()) {
+				case ATOMIC:
+					f = atomic((SREAtomic) current);
+					break;
+				case CAT:
+					f = parts.get(0);
+					for (int i = 1; i < parts.size(); i++) {
+						f = concat(f, parts.get(i));
+					}
+					break;
+				case SUM:
+					f = sum(parts, ((SRESum) current).getRates());
+					break;
+				case KLEENE:
+					f = kleene(parts.get(0), ((SREKleene) current).getRepetitionRate());
+					break;
+				default:
+					throw new IllegalArgumentException();
+				}
+			}
+			parts.clear();
+			fragments.add(f);
+		}
+		return fragments.get(0);
+	}
+
+	private Fragment atomic(SREAtomic sre) {
+		if (sre.getCharacter() == null) {
+			// accepts nothing
+			return new Fragment();
+		} else if (sre.getCharacter().isEmpty()) {
+			Fragment f = new Fragment();
+			f.empty = 1;
+			return f;
+		} else {
+			return position(sre, 0);
+		}
+	}
+
+	private Fragment position(SRE sre, double empty) {
+		Fragment f = new Fragment();
+		int position = positions.size();
+		positions.add(sre);
+		follow.add(null);
+		f.first.put(position, 1.);
+		f.last.put(position, 1.);
+		f.empty = empty;
+		return f;
+	}
+
+	private Fragment concat(Fragment f1, Fragment f2) {
+		for (Map.Entry<Integer, Double> x : f1.last.entrySet()) {
+			addFollow(x.getKey(), f2.first, x.getValue());
+		}
+		addAll(f1.first, f2.first, f1.empty);
+		if (f2.empty > 0) {
+			f1.last.replaceAll((x, p) -> p * f2.empty);
+			f1.last.putAll(f2.last);
+		} else {
+			f1.last = f2.last;
+		}
+		f1.empty *= f2.empty;
+		return f1;
+	}
+
+	private Fragment sum(List<Fragment> parts, int[] rates) {
+		double sum = Arrays.stream(rates).sum();
+		Fragment f = new Fragment();
+		for (int i = 0; i < rates.length; i++) {
+			Fragment part = parts.get(i);
+			double weight = rates[i] / sum;
+			// the positions of the parts are disjoint
+			addAll(f.first, part.first, weight);
+			f.last.putAll(part.last);
+			f.empty += weight * part.empty;
+		}
+		return f;
+	}
+
+	private Fragment kleene(Fragment f, double rate) {
+		// the body may be empty, so it can be passed any number of times
+		// before a position is reached or the star is left
+		double passes = 1 / (1 - rate * f.empty);
+		f.first.replaceAll((x, p) -> p * rate * passes);
+		for (Map.Entry<Integer, Double> x : f.last.entrySet()) {
+			addFollow(x.getKey(), f.first, x.getValue());
+		}
+		double empty = (1 - rate) * passes;
+		f.last.replaceAll((x, p) -> p * empty);
+		f.empty = empty;
+		return f;
+	}
+
+	private void addFollow(int position, Map<Integer, Double> next, double probability) {
+		if (follow.get(position) == null) {
+			follow.set(position, new HashMap<>());
+		}
+		addAll(follow.get(position), next, probability);
+	}
+
+	private static void addAll(Map<Integer, Double> to, Map<Integer, Double> from, double factor) {
+		if (factor == 0) {
+			return;
+		}
+		for (Map.Entry<Integer, Double> e : from.entrySet()) {
+			to.merge(e.getKey(), e.getValue() * factor, Double::sum);
+		}
+	}
+
+	/**
+	 * The first and last positions of a subexpression.
+	 */
+	private static class Fragment {
+
+		/** the probabilities of the positions the subexpression starts with */
+		public Map<Integer, Double> first = new HashMap<>();
+		/** the probability of leaving the subexpression after a position */
+		public Map<Integer, Double> last = new HashMap<>();
+		/** the probability of leaving the subexpression without a position */
+		public double empty = 0;
+	}
+}
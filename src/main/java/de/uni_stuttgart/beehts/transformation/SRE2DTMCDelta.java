@@ -1,35 +1,95 @@
 package de.uni_stuttgart.beehts.transformation;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import de.uni_stuttgart.beehts.model.*;
 import de.uni_stuttgart.beehts.model.DTMC.Edge;
 import de.uni_stuttgart.beehts.model.DTMC.Node;
 import de.uni_stuttgart.beehts.model.SRE.*;
-import de.uni_stuttgart.beehts.util.CollectionHelpers;
-
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * Transforms SREs to DTMCs and keeps track of the part of the DTMC each
+ * subexpression was transformed to, so deltas of the SRE can be translated to
+ * deltas of the DTMC.<br>
+ * 
+ * Every subexpression becomes a fragment with a single entry and a single exit
+ * node, which are connected to the surrounding fragments by empty edges. The
+ * SRE is traversed with an explicit stack, so its depth is not limited by the
+ * stack size of the thread. A subexpression that occurs several times (the
+ * same SRE object referenced by several parents) gets a fragment for every
+ * occurrence. The entry and exit nodes of the fragments are stored in arrays,
+ * together with the previous fragment of the same subexpression. Changes of
+ * rates only replace the edges carrying the probabilities of the changed
+ * Kleene star or sum.<br>
+ * 
+ * In parallel mode, the SRE is split into subexpressions of similar expanded
+ * size, whose fragments are built on the common fork/join pool. Each worker
+ * builds its fragments into a {@link Part}, which buffers the nodes (numbered
+ * from 0) and edges, as the DTMC and its node numbering are not thread-safe.
+ * The parts are then stitched into the DTMC in the order of the sequential
+ * traversal and connected through their entry and exit nodes by the fragments
+ * of the remaining large subexpressions, so the result is the same as in
+ * sequential mode. A subexpression that occurs several times is built once and
+ * stitched in for every occurrence.
+ */
 public class SRE2DTMCDelta implements Transformer<SRE, DTMC> {
 
+	/** The expanded size of SREs that are split up in parallel mode at least */
+	private static final long PARALLEL_THRESHOLD = 10000;
+	/** The smallest expanded size of the subexpressions built as parts */
+	private static final long MIN_PART_SIZE = 1000;
+
 	private SRE sre;
 	private DTMC dtmc = null;
+	private final boolean parallel;
 
-	/** Maps sub-sres to the corresponding initial and final node */
-	private Map<SRE, Tuple<Node, Set<Node>>> map = new HashMap<>();
+	/** Maps sub-sres to the index of their last fragment */
+	private Map<SRE, Integer> index = new IdentityHashMap<>();
+	/** The initial and the final node of each fragment */
+	private Node[] entries = new Node[16], exits = new Node[16];
+	/** The previous fragment of the same sub-sre of each fragment, or -1 */
+	private int[] previous = new int[16];
+	private int nextFragment = 0;
 
 	public SRE2DTMCDelta(SRE sre) {
+		this(sre, false);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sre
+	 *            the SRE to transform.
+	 * @param parallel
+	 *            whether to build the fragments of large SREs in parallel.
+	 *            Deltas are always transformed sequentially.
+	 */
+	public SRE2DTMCDelta(SRE sre, boolean parallel) {
 		this.sre = sre;
+		this.parallel = parallel;
 		transform();
 	}
 
 	@Override
 	public void transform() {
-		dtmc = transform(sre);
+		dtmc = new DTMC();
+		index.clear();
+		nextFragment = 0;
+		int root = parallel ? buildParallel(sre) : build(sre, null, true, null);
+		dtmc.makeNodeInitial(entries[root]);
+		dtmc.makeNodeFinal(exits[root]);
 	}
 
 	@Override
@@ -55,6 +115,8 @@ public class SRE2DTMCDelta implements Transformer<SRE, DTMC> {
 		Map<SRE, SRE> d = delta.getChanges();
 		DTMCDelta result = new DTMCDelta();
 
+		delta.getRepetitionRateChanges().forEach((kleene, rate) -> changeRate(kleene, rate, result));
+		delta.getSumRateChanges().forEach((sum, rates) -> changeRates(sum, rates, result));
 		for (SRE key : d.keySet()) {
 			transformDelta(key, d.get(key), result);
 		}
@@ -65,7 +127,73 @@ public class SRE2DTMCDelta implements Transformer<SRE, DTMC> {
 	}
 
 	/**
-	 * Create a delta for the dtmc that exchanges the key for the sre.
+	 * Change the probabilities of repeating and leaving a Kleene star in all
+	 * of its fragments. They are the edges of the intermediate node, which is
+	 * the only node the initial node of the star leads to.
+	 * 
+	 * @param kleene
+	 *            the Kleene star.
+	 * @param rate
+	 *            the new repetition rate.
+	 * @param result
+	 *            the delta (output parameter). Changes are added here.
+	 */
+	private void changeRate(SREKleene kleene, double rate, DTMCDelta result) {
+		for (int i = fragment(kleene); i >= 0; i = previous[i]) {
+			Node intermediate = dtmc.getOutgoingEdges(entries[i]).iterator().next().to;
+			for (Edge e : new ArrayList<>(dtmc.getOutgoingEdges(intermediate))) {
+				changeProbability(result, intermediate, e.to, e.to == exits[i] ? 1 - rate : rate);
+			}
+		}
+	}
+
+	/**
+	 * Change the probabilities of the choices of a sum in all of its
+	 * fragments. They are the edges from the initial node of the sum to the
+	 * initial nodes of the fragments of its children. As the children may
+	 * occur elsewhere as well, the fragment of each child is the one the sum
+	 * leads to.
+	 * 
+	 * @param sum
+	 *            the sum.
+	 * @param rates
+	 *            the new rates.
+	 * @param result
+	 *            the delta (output parameter). Changes are added here.
+	 */
+	private void changeRates(SRESum sum, int[] rates, DTMCDelta result) {
+		double total = Arrays.stream(rates).sum();
+		for (int i = fragment(sum); i >= 0; i = previous[i]) {
+			Node initial = entries[i];
+			// a child that occurs several times in the sum has several fragments
+			Set<Node> changed = new HashSet<>();
+			for (int c = 0; c < rates.length; c++) {
+				int child = fragment(sum.getSubnodes()[c]);
+				while (child >= 0 && (changed.contains(entries[child])
+						|| dtmc.getEdges(initial, entries[child]).isEmpty())) {
+					child = previous[child];
+				}
+				if (child < 0) {
+					throw new IllegalStateException("The sum " + sum + " is not connected to its choices.");
+				}
+				changed.add(entries[child]);
+				changeProbability(result, initial, entries[child], rates[c] / total);
+			}
+		}
+	}
+
+	private int fragment(SRE sre) {
+		Integer i = index.get(sre);
+		if (i == null) {
+			throw new IllegalArgumentException("The SRE " + sre + " is not part of the transformed SRE.");
+		}
+		return i;
+	}
+
+	/**
+	 * Create a delta for the dtmc that exchanges the key for the sre. Every
+	 * occurrence of the key is replaced, the first one may reuse the fragments
+	 * of the sub-sres of the target, the others get new fragments.
 	 * 
 	 * @param key
 	 *            the part to exchange.
@@ -75,207 +203,422 @@ public class SRE2DTMCDelta implements Transformer<SRE, DTMC> {
 	 *            the delta (output parameter). Changes are added here.
 	 */
 	private void transformDelta(SRE key, SRE sre, DTMCDelta result) {
-		Tuple<Node, Set<Node>> initialAndFinal = map.get(key);
-		Set<Edge> incToOldInitial = new HashSet<>(dtmc.getIncomingEdges(initialAndFinal.x));
-		Set<Edge> outFromOldFinal = new HashSet<>();
-		initialAndFinal.y.forEach(n -> outFromOldFinal.addAll(dtmc.getOutgoingEdges(n)));
+		boolean reuse = true;
+		for (int old = fragment(key); old >= 0; old = previous[old]) {
+			transformDelta(key, old, sre, result, reuse);
+			reuse = false;
+		}
+	}
 
-		transformDelta(sre, result);
+	private void transformDelta(SRE key, int old, SRE sre, DTMCDelta result, boolean reuse) {
+		Set<Edge> incToOldInitial = new HashSet<>(dtmc.getIncomingEdges(entries[old]));
+		Set<Edge> outFromOldFinal = new HashSet<>(dtmc.getOutgoingEdges(exits[old]));
 
-		Tuple<Node, Set<Node>> newInitialAndFinal = map.get(sre);
+		int replacement = build(sre, result, reuse, null);
+		Node newInitial = entries[replacement], newFinal = exits[replacement];
+		// the replacement may be a part of the replaced SRE, which is still
+		// connected to the old structure
+		removeOutgoingEdges(result, newFinal);
+
+		if (key == this.sre) {
+			dtmc.makeNodeInitial(newInitial);
+			dtmc.clearFinalNodes();
+			dtmc.makeNodeFinal(newFinal);
+		}
 
 		incToOldInitial.forEach(e -> {
-			Edge edge = new Edge(e.from, newInitialAndFinal.x, e.character, e.getProbability());
+			Edge edge = new Edge(e.from, newInitial, e.character, e.getProbability());
 			changeEdge(result, edge, e);
 		});
 		outFromOldFinal.forEach(e -> {
-			newInitialAndFinal.y.forEach(n -> {
-				Edge edge = new Edge(n, e.to, e.character, e.getProbability());
-				addEdge(result, edge);
-			});
+			addEdge(result, new Edge(newFinal, e.to, e.character, e.getProbability()));
 			removeEdge(result, e);
 		});
 	}
 
-	private DTMC transform(SRE sre) {
-		DTMC retVal = new DTMC();
-		transform(sre, retVal);
-		return retVal;
-	}
-
-	private void transform(SRE sre, DTMC dtmc) {
-		switch (sre.getType()) {
-		case ATOMIC:
-			transform((SREAtomic) sre, dtmc);
-			break;
-		case CAT:
-			transform((SREConcat) sre, dtmc);
-			break;
-		case KLEENE:
-			transform((SREKleene) sre, dtmc);
-			break;
-		case SUM:
-			transform((SRESum) sre, dtmc);
-			break;
-		default:
-			throw new IllegalArgumentException();
+	/**
+	 * Build the fragments of an SRE and its subexpressions in post order,
+	 * with a new fragment for every occurrence of a shared subexpression.
+	 * With a delta, sub-sres that occur only once and already have a fragment
+	 * are reused, moving their fragment to the new position, and the changes
+	 * are recorded in the delta.
+	 * 
+	 * @param root
+	 *            the SRE to build.
+	 * @param delta
+	 *            the delta or null.
+	 * @param reuse
+	 *            whether fragments may be reused with a delta.
+	 * @param parts
+	 *            the parts that have been built in advance, in the order of
+	 *            the traversal, or null.
+	 * @return the index of the fragment of the root.
+	 */
+	private int build(SRE root, DTMCDelta delta, boolean reuse, Deque<Part> parts) {
+		// fragments are moved only once, later occurrences are copies
+		Set<SRE> reused = Collections.newSetFromMap(new IdentityHashMap<>());
+		// the path from the root to the current sub-sre and the number of
+		// children of each sub-sre on it that have been built
+		SRE[] path = new SRE[16];
+		int[] built = new int[16];
+		int depth = 0;
+		// the indices of the fragments of the built children on the path
+		int[] fragments = new int[16];
+		int fragmentCount = 0;
+
+		path[depth++] = root;
+		while (depth > 0) {
+			SRE current = path[depth - 1];
+			SRE[] children = current.getChildren();
+			Integer existing;
+			if (built[depth - 1] == 0 && delta != null && reuse && (existing = index.get(current)) != null
+					&& previous[existing] < 0 && reused.add(current)) {
+				depth--;
+			} else if (built[depth - 1] == 0 && parts != null && !parts.isEmpty() && parts.peek().root == current) {
+				depth--;
+				existing = attach(parts.poll());
+			} else if (built[depth - 1] < children.length) {
+				if (depth == path.length) {
+					path = Arrays.copyOf(path, 2 * depth);
+					built = Arrays.copyOf(built, 2 * depth);
+				}
+				path[depth] = children[built[depth - 1]++];
+				built[depth++] = 0;
+				continue;
+			} else {
+				depth--;
+				built[depth] = 0;
+				fragmentCount -= children.length;
+				existing = build(current, fragments, fragmentCount, delta);
+			}
+			if (fragmentCount == fragments.length) {
+				fragments = Arrays.copyOf(fragments, 2 * fragmentCount);
+			}
+			fragments[fragmentCount++] = existing;
 		}
+		return fragments[0];
 	}
 
-	private void transformDelta(SRE sre, DTMCDelta delta) {
-		if (map.containsKey(sre)) {
-			return;
-		}
+	/**
+	 * Build the fragment of a sub-sre whose children have been built.
+	 * 
+	 * @param children
+	 *            the indices of the fragments of the children, starting at
+	 *            offset.
+	 * @return the index of the fragment.
+	 */
+	private int build(SRE sre, int[] children, int offset, DTMCDelta delta) {
+		Node initial = dtmc.addNode(), finalNode = dtmc.addNode();
 		switch (sre.getType()) {
 		case ATOMIC:
-			transformDelta((SREAtomic) sre, delta);
+			addEdge(delta, new Edge(initial, finalNode, ((SREAtomic) sre).getCharacter(), 1));
 			break;
-		case CAT:
-			transformDelta((SREConcat) sre, delta);
+		case CAT: {
+			Node last = initial;
+			for (int i = 0; i < ((SREConcat) sre).getSubnodes().length; i++) {
+				int child = children[offset + i];
+				addEdge(delta, new Edge(last, entries[child], "", 1));
+				last = exits[child];
+				detach(delta, last);
+			}
+			addEdge(delta, new Edge(last, finalNode, "", 1));
 			break;
-		case KLEENE:
-			transformDelta((SREKleene) sre, delta);
+		}
+		case KLEENE: {
+			int child = children[offset];
+			double rate = ((SREKleene) sre).getRepetitionRate();
+			// the repetitions return to an intermediate node, so only edges
+			// from outside lead to the initial node
+			Node intermediate = dtmc.addNode();
+			detach(delta, exits[child]);
+			addEdge(delta, new Edge(initial, intermediate, "", 1));
+			addEdge(delta, new Edge(exits[child], intermediate, "", 1));
+			addEdge(delta, new Edge(intermediate, entries[child], "", rate));
+			addEdge(delta, new Edge(intermediate, finalNode, "", 1 - rate));
 			break;
-		case SUM:
-			transformDelta((SRESum) sre, delta);
+		}
+		case SUM: {
+			int[] rates = ((SRESum) sre).getRates();
+			double sum = Arrays.stream(rates).sum();
+			for (int i = 0; i < rates.length; i++) {
+				int child = children[offset + i];
+				addEdge(delta, new Edge(initial, entries[child], "", rates[i] / sum));
+				detach(delta, exits[child]);
+				addEdge(delta, new Edge(exits[child], finalNode, "", 1));
+			}
 			break;
+		}
 		default:
 			throw new IllegalArgumentException();
 		}
+		return register(sre, initial, finalNode);
 	}
 
-	private void transform(SREAtomic sre, DTMC dtmc) {
-		dtmc.clearFinalNodes();
-		Node n = dtmc.addInitialNode(null);
-		Node n2 = dtmc.addFinalNode(null);
-		dtmc.addEdge(n, n2, sre.getCharacter(), 1.);
-		map.put(sre, new Tuple<DTMC.Node, Set<Node>>(n, CollectionHelpers.setOf(n2)));
-	}
-
-	private void transformDelta(SREAtomic sre, DTMCDelta delta) {
-		Node n1 = dtmc.addNode(), n2 = dtmc.addNode();
-		addEdge(delta, new Edge(n1, n2, sre.getCharacter(), 1.0));
-		map.put(sre, new Tuple<DTMC.Node, Set<Node>>(n1, CollectionHelpers.setOf(n2)));
+	/**
+	 * Store a new fragment of a sub-sre.
+	 * 
+	 * @return the index of the fragment.
+	 */
+	private int register(SRE sre, Node initial, Node finalNode) {
+		int i = nextFragment++;
+		if (i == entries.length) {
+			entries = Arrays.copyOf(entries, 2 * i);
+			exits = Arrays.copyOf(exits, 2 * i);
+			previous = Arrays.copyOf(previous, 2 * i);
+		}
+		entries[i] = initial;
+		exits[i] = finalNode;
+		Integer last = index.put(sre, i);
+		previous[i] = last != null ? last : -1;
+		return i;
 	}
 
-	private void transform(SREConcat sre, DTMC dtmc) {
-		Node initialNode = dtmc.addNode();
-		Set<Node> lastFinal = CollectionHelpers.setOf(initialNode);
-		for (SRE subSre : sre.getSubnodes()) {
-			transform(subSre, dtmc);
-			for (Node n : lastFinal) {
-				dtmc.addEdge(n, dtmc.getInitialNode(), "", 1);
+	/**
+	 * Build the whole SRE, building the fragments of subexpressions of similar
+	 * size in parallel first. The subexpressions are chosen in the order of
+	 * the traversal of {@link #build(SRE, DTMCDelta, boolean, Deque)}, which
+	 * then attaches the parts instead of descending into them.
+	 * 
+	 * @return the index of the fragment of the root.
+	 */
+	private int buildParallel(SRE root) {
+		List<SRE> order = SREHelpers.postOrder(root);
+		Map<SRE, Integer> position = new IdentityHashMap<>();
+		long[] sizes = new long[order.size()];
+		for (int i = 0; i < order.size(); i++) {
+			SRE node = order.get(i);
+			position.put(node, i);
+			long size = 1;
+			for (SRE child : node.getChildren()) {
+				size += sizes[position.get(child)];
+				if (size < 0) {
+					size = Long.MAX_VALUE;
+				}
 			}
-			lastFinal.clear();
-			lastFinal.addAll(dtmc.getFinalNodes());
+			sizes[i] = size;
 		}
-		dtmc.makeNodeInitial(initialNode);
-		dtmc.clearFinalNodes();
-		Node finalNode = dtmc.addFinalNode(null);
-		for (Node n : lastFinal) {
-			dtmc.addEdge(n, finalNode, "", 1);
+		if (sizes[order.size() - 1] < PARALLEL_THRESHOLD) {
+			return build(root, null, true, null);
 		}
-		map.put(sre, new Tuple<DTMC.Node, Set<Node>>(initialNode, CollectionHelpers.setOf(finalNode)));
-	}
-
-	private void transformDelta(SREConcat sre, DTMCDelta delta) {
-		Node newInitial = dtmc.addNode();
-		Node newFinal = dtmc.addNode();
-		Set<Node> lastFinal = Stream.of(newInitial).collect(Collectors.toSet());
-		for (SRE sub : sre.getSubnodes()) {
-			transformDelta(sub, delta);
-			for (Node n : lastFinal) {
-				addEdge(delta, new Edge(n, map.get(sub).x, "", 1));
-			}
-			lastFinal.clear();
-			lastFinal.addAll(map.get(sub).y);
-			for (Node n : lastFinal) {
-				for (Edge e : new HashSet<>(dtmc.getOutgoingEdges(n))) {
-					removeEdge(delta, e);
+		long partSize = Math.max(MIN_PART_SIZE,
+				sizes[order.size() - 1] / (4L * ForkJoinPool.getCommonPoolParallelism()));
+
+		// the roots of the parts in the order of the traversal, every
+		// occurrence of a shared one included
+		List<SRE> roots = new ArrayList<>();
+		Set<SRE> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<SRE> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			SRE current = stack.pop();
+			if (sizes[position.get(current)] <= partSize) {
+				roots.add(current);
+				distinct.add(current);
+			} else {
+				SRE[] children = current.getChildren();
+				for (int i = children.length - 1; i >= 0; i--) {
+					stack.push(children[i]);
 				}
 			}
 		}
-		for (Node n : lastFinal) {
-			addEdge(delta, new Edge(n, newFinal, "", 1));
-		}
-		map.put(sre, new Tuple<DTMC.Node, Set<Node>>(newInitial, CollectionHelpers.setOf(newFinal)));
+		Map<SRE, Part> built = new IdentityHashMap<>();
+		distinct.parallelStream().map(Part::new).collect(Collectors.toList()).forEach(p -> built.put(p.root, p));
+		Deque<Part> parts = new ArrayDeque<>(roots.size());
+		roots.forEach(r -> parts.add(built.get(r)));
+		return build(root, null, true, parts);
 	}
 
-	private void transform(SREKleene sre, DTMC dtmc) {
-		transform(sre.getChild(), dtmc);
-		dtmc.clearFinalNodes();
-		Node newInitial = dtmc.addInitialNode(null);
-		Node intermediate = dtmc.addNode();
-		Node newFinal = dtmc.addFinalNode(null);
-
-		dtmc.addEdge(newInitial, intermediate, "", 1);
-		map.get(sre.getChild()).y.forEach(n -> dtmc.addEdge(n, intermediate, "", 1));
-		dtmc.addEdge(intermediate, map.get(sre.getChild()).x, "", sre.getRepetitionRate());
-		dtmc.addEdge(intermediate, newFinal, "", 1 - sre.getRepetitionRate());
-
-		map.put(sre, new Tuple<DTMC.Node, Set<Node>>(newInitial, CollectionHelpers.setOf(newFinal)));
+	/**
+	 * Stitch a part into the DTMC: create its nodes, add its edges and store
+	 * the fragments of its sub-sres.
+	 * 
+	 * @return the index of the fragment of the root of the part.
+	 */
+	private int attach(Part part) {
+		Node[] nodes = new Node[part.nodes];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = dtmc.addNode();
+		}
+		for (int e = 0; e < part.edges; e++) {
+			dtmc.addEdge(new Edge(nodes[part.from[e]], nodes[part.to[e]], part.character[e], part.probability[e]));
+		}
+		int i = -1;
+		for (int f = 0; f < part.fragments; f++) {
+			i = register(part.sres[f], nodes[part.entry[f]], nodes[part.exit[f]]);
+		}
+		return i;
 	}
 
-	private void transformDelta(SREKleene sre, DTMCDelta delta) {
-		transformDelta(sre.getChild(), delta);
-		Tuple<Node, Set<Node>> iAndfNode = map.get(sre.getChild());
-		Node newFinal = dtmc.addNode();
-		Node newInitial = dtmc.addNode();
-
-		iAndfNode.y.forEach(n -> addEdge(delta, new Edge(n, newInitial, "", 1)));
-		addEdge(delta, new Edge(newInitial, iAndfNode.x, "", sre.getRepetitionRate()));
-		addEdge(delta, new Edge(newInitial, newFinal, "", 1 - sre.getRepetitionRate()));
-
-		map.put(sre, new Tuple<DTMC.Node, Set<Node>>(newInitial, CollectionHelpers.setOf(newFinal)));
+	private void changeEdge(DTMCDelta result, Edge add, Edge remove) {
+		addEdge(result, add);
+		removeEdge(result, remove);
 	}
 
-	private void transform(SRESum sre, DTMC dtmc) {
-		Node initialNode = dtmc.addNode();
-		Node finalNode = dtmc.addNode();
-		double sum = Arrays.stream(sre.getRates()).sum();
-
-		for (int i = 0; i < sre.getSubnodes().length; i++) {
-			transform(sre.getSubnodes()[i], dtmc);
-			dtmc.addEdge(initialNode, dtmc.getInitialNode(), "", sre.getRates()[i] / sum);
-			dtmc.getFinalNodes().forEach(n -> {
-				dtmc.removeFinalNode(n);
-				dtmc.addEdge(n, finalNode, "", 1);
-			});
-		}
-
-		dtmc.clearFinalNodes();
-		dtmc.makeNodeInitial(initialNode);
-		dtmc.makeNodeFinal(finalNode);
-		map.put(sre, new Tuple<DTMC.Node, Set<Node>>(initialNode, CollectionHelpers.setOf(finalNode)));
+	/**
+	 * Replace the empty edge between two nodes by one with a new probability.
+	 * As edges are equal regardless of their probabilities, the old one is
+	 * removed first.
+	 */
+	private void changeProbability(DTMCDelta result, Node from, Node to, double probability) {
+		removeEdge(result, new Edge(from, to, "", Double.NaN));
+		addEdge(result, new Edge(from, to, "", probability));
 	}
 
-	private void transformDelta(SRESum sre, DTMCDelta delta) {
-		Node initialNode = dtmc.addNode();
-		Node finalNode = dtmc.addNode();
-		double sum = Arrays.stream(sre.getRates()).sum();
-
-		for (int i = 0; i < sre.getSubnodes().length; i++) {
-			transformDelta(sre.getSubnodes()[i], delta);
-			Tuple<Node, Set<Node>> iAF = map.get(sre.getSubnodes()[i]);
-			addEdge(delta, new Edge(initialNode, iAF.x, "", sre.getRates()[i] / sum));
-			iAF.y.forEach(n -> addEdge(delta, new Edge(n, finalNode, "", 1)));
+	/**
+	 * Remove the edges leaving the final node of a sub-sre that may be reused
+	 * at a new position. The fragments built without a delta are new.
+	 */
+	private void detach(DTMCDelta delta, Node finalNode) {
+		if (delta != null) {
+			removeOutgoingEdges(delta, finalNode);
 		}
-
-		map.put(sre, new Tuple<DTMC.Node, Set<Node>>(initialNode, CollectionHelpers.setOf(finalNode)));
 	}
 
-	private void changeEdge(DTMCDelta result, Edge add, Edge remove) {
-		addEdge(result, add);
-		removeEdge(result, remove);
+	/**
+	 * Remove the edges leaving the final node of a sub-sre that is reused at
+	 * a new position.
+	 */
+	private void removeOutgoingEdges(DTMCDelta result, Node finalNode) {
+		if (!dtmc.getOutgoingEdges(finalNode).isEmpty()) {
+			for (Edge e : new HashSet<>(dtmc.getOutgoingEdges(finalNode))) {
+				removeEdge(result, e);
+			}
+		}
 	}
 
 	private void removeEdge(DTMCDelta result, Edge remove) {
-		result.addChange(remove, DTMCDelta.Type.REMOVE);
+		if (result != null) {
+			result.addChange(remove, DTMCDelta.Type.REMOVE);
+		}
 		dtmc.removeEdge(remove);
 	}
 
 	private void addEdge(DTMCDelta result, Edge add) {
-		result.addChange(add, DTMCDelta.Type.ADD);
+		if (result != null) {
+			result.addChange(add, DTMCDelta.Type.ADD);
+		}
 		dtmc.addEdge(add);
 	}
+
+	/**
+	 * The fragments of a subexpression, built without a DTMC. The nodes are
+	 * numbered from 0 and the fragments are the same as the ones of
+	 * {@link SRE2DTMCDelta#build(SRE, int[], int, DTMCDelta)}, stored in post
+	 * order.
+	 */
+	private static final class Part {
+
+		public final SRE root;
+		public int nodes = 0;
+
+		public int[] from = new int[64], to = new int[64];
+		public String[] character = new String[64];
+		public double[] probability = new double[64];
+		public int edges = 0;
+
+		public SRE[] sres = new SRE[16];
+		public int[] entry = new int[16], exit = new int[16];
+		public int fragments = 0;
+
+		/**
+		 * Build the fragments of an SRE and its subexpressions.
+		 */
+		public Part(SRE root) {
+			this.root = root;
+			SRE[] path = new SRE[16];
+			int[] built = new int[16];
+			int depth = 0;
+			// the fragments of the built children on the path
+			int[] open = new int[16];
+			int openCount = 0;
+
+			path[depth++] = root;
+			while (depth > 0) {
+				SRE current = path[depth - 1];
+				SRE[] children = current.getChildren();
+				if (built[depth - 1] < children.length) {
+					if (depth == path.length) {
+						path = Arrays.copyOf(path, 2 * depth);
+						built = Arrays.copyOf(built, 2 * depth);
+					}
+					path[depth] = children[built[depth - 1]++];
+					built[depth++] = 0;
+				} else {
+					depth--;
+					built[depth] = 0;
+					openCount -= children.length;
+					int fragment = build(current, open, openCount);
+					if (openCount == open.length) {
+						open = Arrays.copyOf(open, 2 * openCount);
+					}
+					open[openCount++] = fragment;
+				}
+			}
+		}
+
+		private int build(SRE sre, int[] children, int offset) {
+			int initial = nodes++, finalNode = nodes++;
+			switch (sre.getType()) {
+			case ATOMIC:
+				addEdge(initial, finalNode, ((SREAtomic) sre).getCharacter(), 1);
+				break;
+			case CAT: {
+				int last = initial;
+				for (int i = 0; i < ((SREConcat) sre).getSubnodes().length; i++) {
+					int child = children[offset + i];
+					addEdge(last, entry[child], "", 1);
+					last = exit[child];
+				}
+				addEdge(last, finalNode, "", 1);
+				break;
+			}
+			case KLEENE: {
+				int child = children[offset];
+				double rate = ((SREKleene) sre).getRepetitionRate();
+				int intermediate = nodes++;
+				addEdge(initial, intermediate, "", 1);
+				addEdge(exit[child], intermediate, "", 1);
+				addEdge(intermediate, entry[child], "", rate);
+				addEdge(intermediate, finalNode, "", 1 - rate);
+				break;
+			}
+			case SUM: {
+				int[] rates = ((SRESum) sre).getRates();
+				double sum = Arrays.stream(rates).sum();
+				for (int i = 0; i < rates.length; i++) {
+					int child = children[offset + i];
+					addEdge(initial, entry[child], "", rates[i] / sum);
+					addEdge(exit[child], finalNode, "", 1);
+				}
+				break;
+			}
+			default:
+				throw new IllegalArgumentException();
+			}
+
+			if (fragments == sres.length) {
+				sres = Arrays.copyOf(sres, 2 * fragments);
+				entry = Arrays.copyOf(entry, 2 * fragments);
+				exit = Arrays.copyOf(exit, 2 * fragments);
+			}
+			sres[fragments] = sre;
+			entry[fragments] = initial;
+			exit[fragments] = finalNode;
+			return fragments++;
+		}
+
+		private void addEdge(int from, int to, String character, double probability) {
+			if (edges == this.from.length) {
+				this.from = Arrays.copyOf(this.from, 2 * edges);
+				this.to = Arrays.copyOf(this.to, 2 * edges);
+				this.character = Arrays.copyOf(this.character, 2 * edges);
+				this.probability = Arrays.copyOf(this.probability, 2 * edges);
+			}
+			this.from[edges] = from;
+			this.to[edges] = to;
+			this.character[edges] = character;
+			this.probability[edges] = probability;
+			edges++;
+		}
+	}
 }
@@ -0,0 +1,96 @@
+package de.uni_stuttgart.beehts.transformation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.*;
+import de.uni_stuttgart.beehts.model.DTMC.*;
+import de.uni_stuttgart.beehts.model.SRE.*;
+
+/**
+ * This class converts SREs to DTMCs without empty edges, using the position
+ * automaton (Glushkov automaton) of the SRE.<br>
+ *
+ * Every occurrence of a character in the SRE is a position and becomes a node
+ * of the DTMC, which is entered by an edge with that character, see
+ * {@link GlushkovAutomaton}. Positions that are never followed by another one
+ * are merged into the single final node. Only the probabilities of leaving the
+ * SRE after a position that may also be followed by another one need an empty
+ * edge to the final node.
+ */
+public class SRE2DTMCGlushkov implements Transformer<SRE, DTMC> {
+
+	private SRE sre;
+	private DTMC dtmc = null;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param sre
+	 *            the SRE to transform.
+	 */
+	public SRE2DTMCGlushkov(SRE sre) {
+		this.sre = sre;
+		transform();
+	}
+
+	@Override
+	public void transform() {
+		dtmc = createDTMC(new GlushkovAutomaton(sre));
+	}
+
+	@Override
+	public SRE getOriginal() {
+		return sre;
+	}
+
+	@Override
+	public DTMC getTransformed() {
+		return dtmc;
+	}
+
+	@Override
+	public Delta<DTMC> applyDelta(Delta<SRE> delta) {
+		sre = delta.applyChanges(sre);
+		transform();
+		return null;
+	}
+
+	private static DTMC createDTMC(GlushkovAutomaton automaton) {
+		DTMC retVal = new DTMC();
+		int[] numbers = automaton.numberNodes();
+		Node[] nodes = new Node[Arrays.stream(numbers).max().orElse(1) + 1];
+		nodes[0] = retVal.addInitialNode(null);
+		for (int i = 1; i < nodes.length; i++) {
+			nodes[i] = retVal.addNode();
+		}
+
+		addEdges(retVal, automaton, nodes[0], automaton.getFirst(), automaton.getEmpty(), nodes, numbers);
+		for (int i = 0; i < numbers.length; i++) {
+			if (numbers[i] != 1) {
+				addEdges(retVal, automaton, nodes[numbers[i]], automaton.getFollow(i), automaton.getLast(i), nodes,
+						numbers);
+			}
+		}
+		retVal.makeNodeFinal(nodes[1]);
+		return retVal;
+	}
+
+	/**
+	 * Add the edges leaving a node. Positions that have been merged into the
+	 * final node may lead to equal edges, whose probabilities are added.
+	 */
+	private static void addEdges(DTMC dtmc, GlushkovAutomaton automaton, Node from, Map<Integer, Double> next,
+			double end, Node[] nodes, int[] numbers) {
+		Map<Edge, Double> edges = new HashMap<>();
+		for (Map.Entry<Integer, Double> e : next.entrySet()) {
+			String character = ((SREAtomic) automaton.getPosition(e.getKey())).getCharacter();
+			edges.merge(new Edge(from, nodes[numbers[e.getKey()]], character, 0), e.getValue(), Double::sum);
+		}
+		if (end > 0) {
+			edges.merge(new Edge(from, nodes[1], "", 0), end, Double::sum);
+		}
+		edges.forEach((e, p) -> dtmc.addEdge(e.from, e.to, e.character, p));
+	}
+}
@@ -1,20 +1,21 @@
 package de.uni_stuttgart.beehts.transformation;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.Deque;
 
 import de.uni_stuttgart.beehts.model.*;
 import de.uni_stuttgart.beehts.model.DTMC.*;
 import de.uni_stuttgart.beehts.model.SRE.*;
 
 /**
- * This class helps with converting SREs to DTMCs.
+ * This class helps with converting SREs to DTMCs.<br>
+ * 
+ * Every subexpression is built directly into the resulting DTMC between two
+ * given nodes, its start and its end. Concatenations create the nodes between
+ * their parts, sums build all alternatives between their own start and end
+ * and Kleene stars loop at a single node. No DTMC is ever copied, so the time
+ * and the number of nodes are linear in the size of the SRE.
  * 
  * @author Tobias Beeh
  */
@@ -69,130 +70,118 @@ public class SRE2DTMCTransformer implements Transformer<SRE, DTMC> {
 	}
 
 	private DTMC transform(SRE sre) {
-		DTMC retVal = null;
-		switch (sre.getType()) {
-		case SUM:
-			retVal = createSumDTMC((SRESum) sre);
-			break;
-		case CAT:
-			retVal = createCatDTMC((SREConcat) sre);
-			break;
-		case KLEENE:
-			retVal = createKleeneDTMC((SREKleene) sre);
-			break;
-		case ATOMIC:
-			retVal = createAtomicDTMC((SREAtomic) sre);
-			break;
-		default:
-			throw new IllegalArgumentException("It seems the argument you provided"
-					+ "is neither an atomic, sum, concatenation nor kleene closure SRE. This argument is illegal.");
+		DTMC retVal = new DTMC();
+		Node initial = retVal.addInitialNode(null);
+		Node finalNode = retVal.addFinalNode(null);
+
+		// the fragments only add nodes and edges, so they can be built in any
+		// order
+		Deque<Fragment> todo = new ArrayDeque<>();
+		todo.push(new Fragment(sre, initial, finalNode, 1, true));
+		while (!todo.isEmpty()) {
+			Fragment f = todo.pop();
+			switch (f.sre.getType()) {
+			case SUM:
+				emitSum(retVal, (SRESum) f.sre, f, todo);
+				break;
+			case CAT:
+				emitCat(retVal, (SREConcat) f.sre, f, todo);
+				break;
+			case KLEENE:
+				emitKleene(retVal, (SREKleene) f.sre, f, todo);
+				break;
+			case ATOMIC:
+				emitAtomic(retVal, (SREAtomic) f.sre, f);
+				break;
+			default:
+				throw new IllegalArgumentException("It seems the argument you provided"
+						+ "is neither an atomic, sum, concatenation nor kleene closure SRE. This argument is illegal.");
+			}
 		}
 		return retVal;
 	}
 
-	private DTMC createAtomicDTMC(SREAtomic sre) {
-		if ("".equals(sre.getCharacter())) {
-			return DTMC.EPSILON();
-		}
-
-		DTMC dtmc = DTMC.EMPTY();
-
+	private void emitAtomic(DTMC dtmc, SREAtomic sre, Fragment f) {
+		// an atomic SRE without character accepts nothing
 		if (sre.getCharacter() != null) {
-			Node n1 = dtmc.getInitialNode();
-			Node n2 = dtmc.addFinalNode(null);
-			dtmc.addEdge(n1, n2, sre.getCharacter(), 1.0);
+			addEdge(dtmc, f.from, f.to, sre.getCharacter(), f.weight);
 		}
-		return dtmc;
 	}
 
-	private DTMC createCatDTMC(SREConcat sre) {
+	private void emitCat(DTMC dtmc, SREConcat sre, Fragment f, Deque<Fragment> todo) {
 		SRE[] subnodes = sre.getSubnodes();
-		DTMC retVal = DTMC.EPSILON();
-		for (SRE subSre : subnodes) {
-			retVal = catDTMCs(retVal, transform(subSre));
+		Node from = f.from;
+		for (int i = 0; i < subnodes.length; i++) {
+			Node to = i == subnodes.length - 1 ? f.to : dtmc.addNode();
+			if (i == 0) {
+				todo.push(new Fragment(subnodes[i], from, to, f.weight, f.exclusive));
+			} else {
+				todo.push(new Fragment(subnodes[i], from, to, 1, true));
+			}
+			from = to;
 		}
-
-		return retVal;
 	}
 
-	private DTMC createSumDTMC(SRESum sre) {
+	private void emitSum(DTMC dtmc, SRESum sre, Fragment f, Deque<Fragment> todo) {
 		SRE[] subnodes = sre.getSubnodes();
 		int[] rates = sre.getRates();
 		double sum = Arrays.stream(rates).sum();
 
-		return sumDTMCs(IntStream.range(0, subnodes.length)
-				.mapToObj(x -> new Tuple<DTMC, Double>(transform(subnodes[x]), ((double) rates[x]) / sum))
-				.collect(Collectors.toList()));
+		for (int i = 0; i < subnodes.length; i++) {
+			todo.push(new Fragment(subnodes[i], f.from, f.to, f.weight * rates[i] / sum, false));
+		}
 	}
 
-	private DTMC createKleeneDTMC(SREKleene sre) {
-		DTMC innerDTMC = transform(sre.getChild());
+	private void emitKleene(DTMC dtmc, SREKleene sre, Fragment f, Deque<Fragment> todo) {
 		double rate = sre.getRepetitionRate();
-
-		innerDTMC.getFinalNodes().stream().forEach(n -> {
-			new HashSet<>(innerDTMC.getIncomingEdges(n)).stream().forEach(e -> {
-				innerDTMC.removeEdge(e);
-				innerDTMC.addEdge(e.from, innerDTMC.getInitialNode(), e.character, e.getProbability());
-			});
-		});
-		new HashSet<>(innerDTMC.getOutgoingEdges(innerDTMC.getInitialNode())).stream().forEach(e -> {
-			innerDTMC.removeEdge(e);
-			innerDTMC.addEdge(e.from, e.to, e.character, e.getProbability() * rate);
-		});
-
-		innerDTMC.addEdge(innerDTMC.getInitialNode(), innerDTMC.addFinalNode(null), "", 1 - rate);
-
-		return innerDTMC;
+		// the iterations start and end at the loop node. The start of the
+		// fragment can be used if no other fragment leaves it.
+		Node loop = f.from;
+		if (!f.exclusive) {
+			loop = dtmc.addNode();
+			addEdge(dtmc, f.from, loop, "", f.weight);
+		}
+		todo.push(new Fragment(sre.getChild(), loop, loop, rate, false));
+		addEdge(dtmc, loop, f.to, "", 1 - rate);
 	}
 
-	private DTMC catDTMCs(DTMC m1, DTMC m2) {
-		DTMC ret = m1.clone();
-		Set<Node> finalNodes = new HashSet<>(ret.getFinalNodes());
-		Map<Node, Node> map = ret.attachOther(m2);
-
-		finalNodes.stream().forEach(n -> {
-			if (!m2.getFinalNodes().contains(m2.getInitialNode())) {
-				ret.removeFinalNode(n);
+	/**
+	 * Add an edge or, if there already is an edge with the same nodes and
+	 * character (e.g. for {@code a[1] + a[2]}), increase its probability.
+	 */
+	private void addEdge(DTMC dtmc, Node from, Node to, String character, double probability) {
+		Edge e = new Edge(from, to, character, probability);
+		if (dtmc.getEdges().contains(e)) {
+			for (Edge old : dtmc.getEdges(from, to)) {
+				if (old.equals(e)) {
+					e = new Edge(from, to, character, old.getProbability() + probability);
+					dtmc.removeEdge(old);
+					break;
+				}
 			}
-			Set<Edge> edges = ret.getOutgoingEdges(map.get(m2.getInitialNode()));
-			edges.stream().forEach(e -> {
-				ret.addEdge(n, e.to, e.character, e.getProbability());
-			});
-		});
-
-		return ret;
+		}
+		dtmc.addEdge(e);
 	}
 
-	private DTMC sumDTMCs(List<Tuple<DTMC, Double>> DTMCs) {
-		DTMC ret = DTMC.EMPTY();
-		Node initial = ret.getInitialNode();
-		Node finalNode = ret.addFinalNode(null);
-
-		for (Tuple<DTMC, Double> dtmc : DTMCs) {
-			Map<Node, Node> nodeMap = new HashMap<>(dtmc.x.getNodes().size());
-			dtmc.x.getNodes().stream().forEachOrdered(n -> {
-				nodeMap.put(n, ret.addNode());
-			});
-			if (dtmc.x.getFinalNodes().size() == 1) {
-				dtmc.x.getIncomingEdges(dtmc.x.getFinalNodes().iterator().next()).forEach(e -> {
-					ret.addEdge(nodeMap.get(e.from), finalNode, e.character, e.getProbability());
-				});
-			} else {
-				dtmc.x.getFinalNodes().forEach(n -> {
-					ret.makeNodeFinal(nodeMap.get(n));
-				});
-			}
-			dtmc.x.getEdges().stream()
-					.forEach(e -> ret.addEdge(nodeMap.get(e.from), nodeMap.get(e.to), e.character, e.getProbability()));
-			Node oldInitial = nodeMap.get(dtmc.x.getInitialNode());
-			if (ret.getFinalNodes().contains(oldInitial)) {
-				ret.addEdge(initial, oldInitial, "", dtmc.y);
-			} else {
-				ret.getOutgoingEdges(nodeMap.get(dtmc.x.getInitialNode())).stream()
-						.forEach(e -> ret.addEdge(initial, e.to, e.character, dtmc.y));
-			}
+	/**
+	 * A subexpression whose DTMC is still to be built between two nodes of
+	 * the result.
+	 */
+	private static class Fragment {
+
+		public final SRE sre;
+		public final Node from, to;
+		/** the total probability of the edges leaving from */
+		public final double weight;
+		/** whether only this fragment adds edges leaving from */
+		public final boolean exclusive;
+
+		public Fragment(SRE sre, Node from, Node to, double weight, boolean exclusive) {
+			this.sre = sre;
+			this.from = from;
+			this.to = to;
+			this.weight = weight;
+			this.exclusive = exclusive;
 		}
-
-		return ret;
 	}
 }
@@ -0,0 +1,148 @@
+package de.uni_stuttgart.beehts.transformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.beehts.model.*;
+import de.uni_stuttgart.beehts.model.HierarchicalDTMC.Component;
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.util.SREHelpers;
+
+/**
+ * This class converts SREs to hierarchical DTMCs, in which every shared
+ * subexpression is a single component.<br>
+ *
+ * A subexpression that is not atomic and referenced more than once (as in the
+ * results of a DTMC to SRE transformation) becomes a component, and so does
+ * the SRE itself. Each component is the DTMC of the position automaton of its
+ * subexpression like in {@link SRE2DTMCGlushkov}, where the shared
+ * subexpressions below it are boxes calling their components. Hence the size
+ * of the result is linear in the number of distinct subexpressions, while the
+ * DTMC of {@link SRE2DTMCGlushkov} grows with every reference.
+ */
+public class SRE2HierarchicalDTMC implements Transformer<SRE, HierarchicalDTMC> {
+
+	private SRE sre;
+	private HierarchicalDTMC dtmc = null;
+
+	/**
+	 * The constructor.
+	 *
+	 * @param sre
+	 *            the SRE to transform.
+	 */
+	public SRE2HierarchicalDTMC(SRE sre) {
+		this.sre = sre;
+		transform();
+	}
+
+	@Override
+	public void transform() {
+		List<SRE> order = SREHelpers.postOrder(sre);
+		Map<SRE, Integer> references = new IdentityHashMap<>();
+		for (SRE node : order) {
+			for (SRE child : node.getChildren()) {
+				references.merge(child, 1, Integer::sum);
+			}
+		}
+
+		// the boxed subexpressions with the probabilities of them being empty
+		Map<SRE, Double> boxes = new IdentityHashMap<>();
+		Map<SRE, Integer> indices = new IdentityHashMap<>();
+		List<Component> components = new ArrayList<>();
+		for (SRE node : order) {
+			if (node == sre || node.getType() != SRE.Type.ATOMIC && references.get(node) > 1) {
+				GlushkovAutomaton automaton = new GlushkovAutomaton(node, boxes);
+				components.add(createComponent(automaton, indices));
+				indices.put(node, components.size() - 1);
+				boxes.put(node, automaton.getEmpty());
+			}
+		}
+		dtmc = new HierarchicalDTMC(components);
+	}
+
+	@Override
+	public SRE getOriginal() {
+		return sre;
+	}
+
+	@Override
+	public HierarchicalDTMC getTransformed() {
+		return dtmc;
+	}
+
+	@Override
+	public Delta<HierarchicalDTMC> applyDelta(Delta<SRE> delta) {
+		sre = delta.applyChanges(sre);
+		transform();
+		return null;
+	}
+
+	private static Component createComponent(GlushkovAutomaton automaton, Map<SRE, Integer> indices) {
+		int[] numbers = automaton.numberNodes();
+		int nodeCount = Arrays.stream(numbers).max().orElse(1) + 1;
+		List<Map<Tuple<Integer, Object>, Double>> edges = new ArrayList<>(nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			edges.add(new LinkedHashMap<>());
+		}
+
+		addEdges(edges.get(0), automaton, automaton.getFirst(), automaton.getEmpty(), numbers, indices);
+		for (int i = 0; i < numbers.length; i++) {
+			if (numbers[i] != 1) {
+				addEdges(edges.get(numbers[i]), automaton, automaton.getFollow(i), automaton.getLast(i), numbers,
+						indices);
+			}
+		}
+
+		int edgeCount = edges.stream().mapToInt(Map::size).sum();
+		int[] edgeStart = new int[nodeCount + 1];
+		int[] target = new int[edgeCount];
+		String[] character = new String[edgeCount];
+		int[] box = new int[edgeCount];
+		double[] probability = new double[edgeCount];
+		int e = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			edgeStart[node] = e;
+			for (Map.Entry<Tuple<Integer, Object>, Double> edge : edges.get(node).entrySet()) {
+				target[e] = edge.getKey().x;
+				if (edge.getKey().y instanceof Integer) {
+					box[e] = (Integer) edge.getKey().y;
+				} else {
+					character[e] = (String) edge.getKey().y;
+					box[e] = -1;
+				}
+				probability[e] = edge.getValue();
+				e++;
+			}
+		}
+		edgeStart[nodeCount] = e;
+		return new Component(edgeStart, target, character, box, probability);
+	}
+
+	/**
+	 * Collect the edges leaving a node, identified by their destination and
+	 * their character or called component. Positions that have been merged
+	 * into the final node may lead to equal edges, whose probabilities are
+	 * added.
+	 */
+	private static void addEdges(Map<Tuple<Integer, Object>, Double> edges, GlushkovAutomaton automaton,
+			Map<Integer, Double> next, double end, int[] numbers, Map<SRE, Integer> indices) {
+		for (Map.Entry<Integer, Double> e : next.entrySet()) {
+			int position = e.getKey();
+			double p = automaton.getEnterProbability(position, e.getValue());
+			if (p <= 0) {
+				continue;
+			}
+			Object label = automaton.isBox(position) ? indices.get(automaton.getPosition(position))
+					: ((SREAtomic) automaton.getPosition(position)).getCharacter();
+			edges.merge(new Tuple<>(numbers[position], label), p, Double::sum);
+		}
+		if (end > 0) {
+			edges.merge(new Tuple<>(1, ""), end, Double::sum);
+		}
+	}
+}
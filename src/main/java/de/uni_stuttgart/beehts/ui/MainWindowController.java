@@ -5,6 +5,7 @@ import java.io.IOException;
 import de.uni_stuttgart.beehts.model.DTMC;
 import de.uni_stuttgart.beehts.model.Delta;
 import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.serialization.SREWriter;
 import de.uni_stuttgart.beehts.transformation.Transformer;
 import javafx.beans.property.Property;
 import javafx.beans.property.SimpleObjectProperty;
@@ -18,6 +19,9 @@ import javafx.stage.Stage;
 
 public class MainWindowController {
 
+	/** The maximum number of characters of the SRE shown in the label. */
+	private static final int MAX_LABEL_LENGTH = 10000;
+
 	private Stage stage;
 	private final GraphDrawer graphDrawer;
 
@@ -114,7 +118,7 @@ public class MainWindowController {
 	private void updateSRELabel(SRE sre) {
 		if (sreLabel == null || sre == null)
 			return;
-		sreLabel.setText(sre.toString());
+		sreLabel.setText(new SREWriter(MAX_LABEL_LENGTH, Integer.MAX_VALUE).print(sre));
 	}
 
 	private void updateDTMCPane(DTMC dtmc) {
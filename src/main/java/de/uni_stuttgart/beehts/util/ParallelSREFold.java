@@ -0,0 +1,352 @@
+package de.uni_stuttgart.beehts.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.*;
+import de.uni_stuttgart.beehts.model.Tuple;
+
+/**
+ * This class evaluates a pure bottom-up computation on an SRE in parallel,
+ * using the fork/join framework.<br>
+ *
+ * The result of every node is calculated from the node and the results of its
+ * children by a {@link Combiner}. Subexpressions whose expanded size is larger
+ * than a cutoff are forked as separate tasks, smaller ones are evaluated
+ * sequentially. Consecutive small children of a node are forked together in
+ * batches of about the cutoff, so wide nodes are evaluated in parallel as
+ * well. Chains of large nodes with only one large child (as in
+ * degenerate trees) are walked iteratively, so the depth of the SRE does not
+ * matter. Shared subexpressions are evaluated once in general, but may be
+ * evaluated concurrently by multiple threads; in that case only one of the
+ * results is used. Hence the combiner must not have side effects and must not
+ * return null.
+ *
+ * @param <R>
+ *            The type of the result.
+ */
+public class ParallelSREFold<R> {
+
+	/** The default expanded size of subexpressions evaluated sequentially. */
+	public static final int DEFAULT_CUTOFF = 10000;
+
+	/**
+	 * Calculates the result of a node.
+	 *
+	 * @param <R>
+	 *            The type of the result.
+	 */
+	@FunctionalInterface
+	public interface Combiner<R> {
+
+		/**
+		 * Calculate the result of a node.
+		 *
+		 * @param sre
+		 *            the node.
+		 * @param children
+		 *            the results of the children, in the same order as
+		 *            {@link SRE#getChildren()}.
+		 * @return the result of the node.
+		 */
+		R combine(SRE sre, List<R> children);
+	}
+
+	private final Combiner<R> combiner;
+	private final int cutoff;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor. Uses the {@link #DEFAULT_CUTOFF} and the common pool.
+	 *
+	 * @param combiner
+	 *            the computation to perform.
+	 */
+	public ParallelSREFold(Combiner<R> combiner) {
+		this(combiner, DEFAULT_CUTOFF, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param combiner
+	 *            the computation to perform.
+	 * @param cutoff
+	 *            subexpressions with at most this many nodes (in the expanded
+	 *            tree) are evaluated sequentially.
+	 * @param pool
+	 *            the pool to run the tasks in.
+	 */
+	public ParallelSREFold(Combiner<R> combiner, int cutoff, ForkJoinPool pool) {
+		this.combiner = combiner;
+		this.cutoff = cutoff;
+		this.pool = pool;
+	}
+
+	/**
+	 * Clone an SRE in parallel. Like {@link SRE#clone()}, subexpressions that
+	 * are shared within the SRE are shared within the clone as well.
+	 *
+	 * @param sre
+	 *            the SRE to clone.
+	 * @return the clone.
+	 */
+	public static SRE clone(SRE sre) {
+		return new ParallelSREFold<SRE>((node, children) -> {
+			switch (node.getType()) {
+			case ATOMIC:
+				return node.clone();
+			case CAT:
+				return new SREConcat(children.toArray(new SRE[children.size()]));
+			case SUM: {
+				int[] rates = ((SRESum) node).getRates();
+				Tuple<SRE, Integer>[] tuples = SREHelpers.newAlternatives(rates.length);
+				for (int i = 0; i < rates.length; i++) {
+					tuples[i] = new Tuple<>(children.get(i), rates[i]);
+				}
+				return new SRESum(tuples);
+			}
+			case KLEENE:
+				return new SREKleene(children.get(0), ((SREKleene) node).getRepetitionRate());
+			default:
+				throw new IllegalArgumentException();
+			}
+		}).apply(sre);
+	}
+
+	/**
+	 * Evaluate the computation on an SRE.
+	 *
+	 * @param sre
+	 *            the SRE.
+	 * @return the result of the root.
+	 */
+	public R apply(SRE sre) {
+		Evaluation evaluation = new Evaluation(sre);
+		return pool.invoke(evaluation.new Task(sre));
+	}
+
+	/**
+	 * A key comparing SREs by identity, as SREs do not implement equals.
+	 */
+	private static final class Identity {
+
+		private final SRE sre;
+
+		public Identity(SRE sre) {
+			this.sre = sre;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Identity && ((Identity) o).sre == sre;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(sre);
+		}
+	}
+
+	/**
+	 * The evaluation of the computation on one SRE. The structure of the SRE
+	 * is read only and shared by all tasks.
+	 */
+	private final class Evaluation {
+
+		/** the position of every node in post order */
+		private final Map<SRE, Integer> position = new IdentityHashMap<>();
+		/** the size of the expanded tree of every node (saturated) */
+		private final long[] sizes;
+		/** whether a node has more than one parent */
+		private final boolean[] shared;
+		/** the results of the large and shared nodes, shared by all tasks */
+		private final Map<Identity, R> results = new ConcurrentHashMap<>();
+
+		public Evaluation(SRE sre) {
+			List<SRE> order = SREHelpers.postOrder(sre);
+			sizes = new long[order.size()];
+			shared = new boolean[order.size()];
+			int[] references = new int[order.size()];
+			for (int i = 0; i < order.size(); i++) {
+				SRE node = order.get(i);
+				position.put(node, i);
+				long size = 1;
+				for (SRE child : node.getChildren()) {
+					int c = position.get(child);
+					size += sizes[c];
+					if (size < 0) {
+						size = Long.MAX_VALUE;
+					}
+					shared[c] = ++references[c] > 1;
+				}
+				sizes[i] = size;
+			}
+		}
+
+		private long size(SRE sre) {
+			return sizes[position.get(sre)];
+		}
+
+		/**
+		 * Evaluate a subexpression on the current thread.
+		 */
+		private R sequential(SRE root) {
+			R known = results.get(new Identity(root));
+			if (known != null) {
+				return known;
+			}
+			Map<SRE, R> local = new IdentityHashMap<>();
+			for (SRE node : SREHelpers.postOrder(root)) {
+				boolean isShared = shared[position.get(node)];
+				R result = isShared ? results.get(new Identity(node)) : null;
+				if (result == null) {
+					List<R> children = new ArrayList<>();
+					for (SRE child : node.getChildren()) {
+						children.add(local.get(child));
+					}
+					result = combiner.combine(node, children);
+					if (isShared) {
+						result = publish(node, result);
+					}
+				}
+				local.put(node, result);
+			}
+			return local.get(root);
+		}
+
+		/**
+		 * Store the result of a node for all tasks.
+		 *
+		 * @return the result to use, which is the one of another thread if it
+		 *         was faster.
+		 */
+		private R publish(SRE node, R result) {
+			R existing = results.putIfAbsent(new Identity(node), result);
+			return existing != null ? existing : result;
+		}
+
+		/**
+		 * Evaluates a large subexpression.
+		 */
+		private final class Task extends RecursiveTask<R> {
+
+			private static final long serialVersionUID = 1L;
+
+			private final SRE sre;
+
+			public Task(SRE sre) {
+				this.sre = sre;
+			}
+
+			@Override
+			protected R compute() {
+				if (size(sre) <= cutoff) {
+					return sequential(sre);
+				}
+
+				// follow one large child iteratively, fork all other large
+				// ones and batches of consecutive small ones
+				Deque<SRE> spine = new ArrayDeque<>();
+				Deque<List<Task>> forked = new ArrayDeque<>();
+				Deque<List<Batch>> batches = new ArrayDeque<>();
+				SRE current = sre;
+				while (current != null) {
+					SRE next = null;
+					List<Task> tasks = new ArrayList<>();
+					List<Batch> ranges = new ArrayList<>();
+					SRE[] children = current.getChildren();
+					Set<SRE> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+					int start = 0;
+					long batchSize = 0;
+					for (int i = 0; i < children.length; i++) {
+						SRE child = children[i];
+						if (size(child) <= cutoff) {
+							batchSize += size(child);
+							if (batchSize >= cutoff) {
+								ranges.add(new Batch(children, start, i + 1));
+								start = i + 1;
+								batchSize = 0;
+							}
+							continue;
+						}
+						// a run of small children below the cutoff is
+						// evaluated when the node is combined
+						start = i + 1;
+						batchSize = 0;
+						if (!seen.add(child) || results.containsKey(new Identity(child))) {
+							continue;
+						} else if (next == null) {
+							next = child;
+						} else {
+							tasks.add(new Task(child));
+						}
+					}
+					tasks.forEach(Task::fork);
+					ranges.forEach(Batch::fork);
+					spine.push(current);
+					forked.push(tasks);
+					batches.push(ranges);
+					current = next;
+				}
+
+				R result = null;
+				while (!spine.isEmpty()) {
+					SRE node = spine.pop();
+					forked.pop().forEach(Task::join);
+					List<Batch> ranges = batches.pop();
+					SRE[] children = node.getChildren();
+					List<R> values = new ArrayList<>(children.length);
+					int b = 0;
+					while (values.size() < children.length) {
+						int i = values.size();
+						if (b < ranges.size() && ranges.get(b).from == i) {
+							values.addAll(ranges.get(b++).join());
+						} else {
+							R r = results.get(new Identity(children[i]));
+							values.add(r != null ? r : sequential(children[i]));
+						}
+					}
+					result = publish(node, combiner.combine(node, values));
+				}
+				return result;
+			}
+		}
+
+		/**
+		 * Evaluates a range of small children of a node.
+		 */
+		private final class Batch extends RecursiveTask<List<R>> {
+
+			private static final long serialVersionUID = 1L;
+
+			private final SRE[] children;
+			private final int from, to;
+
+			public Batch(SRE[] children, int from, int to) {
+				this.children = children;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected List<R> compute() {
+				List<R> values = new ArrayList<>(to - from);
+				for (int i = from; i < to; i++) {
+					values.add(sequential(children[i]));
+				}
+				return values;
+			}
+		}
+	}
+}
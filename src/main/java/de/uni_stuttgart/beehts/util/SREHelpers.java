@@ -0,0 +1,89 @@
+package de.uni_stuttgart.beehts.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.Tuple;
+
+/**
+ * Class containing some static functions to process SREs without recursion.
+ */
+public class SREHelpers {
+
+	/**
+	 * Get all distinct nodes of an SRE in post order, that is, every node is
+	 * listed after all of its children. Nodes that are referenced multiple
+	 * times (as in the results of a DTMC to SRE transformation) are listed only
+	 * once.
+	 *
+	 * @param sre
+	 *            the root of the SRE.
+	 * @return the distinct nodes of the SRE, the root being the last one.
+	 */
+	public static List<SRE> postOrder(SRE sre) {
+		List<SRE> order = new ArrayList<>();
+		Set<SRE> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<SRE> nodes = new ArrayDeque<>();
+		Deque<Integer> nextChild = new ArrayDeque<>();
+
+		visited.add(sre);
+		nodes.push(sre);
+		nextChild.push(0);
+		while (!nodes.isEmpty()) {
+			SRE[] children = nodes.peek().getChildren();
+			int i = nextChild.pop();
+			while (i < children.length && !visited.add(children[i])) {
+				i++;
+			}
+			if (i < children.length) {
+				nextChild.push(i + 1);
+				nodes.push(children[i]);
+				nextChild.push(0);
+			} else {
+				order.add(nodes.pop());
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Get the nodes of an SRE that are referenced more than once, either by
+	 * different parents or by the same one.
+	 *
+	 * @param sre
+	 *            the root of the SRE.
+	 * @return the shared nodes of the SRE.
+	 */
+	public static Set<SRE> sharedNodes(SRE sre) {
+		Set<SRE> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+		Set<SRE> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (SRE node : postOrder(sre)) {
+			for (SRE child : node.getChildren()) {
+				if (!referenced.add(child)) {
+					shared.add(child);
+				}
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Create an array for the alternatives of an {@link SRE.SRESum}. Java
+	 * cannot create generic arrays, so this is the one place where an
+	 * unchecked cast is needed.
+	 *
+	 * @param length
+	 *            the number of alternatives.
+	 * @return an array of the given length filled with null.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Tuple<SRE, Integer>[] newAlternatives(int length) {
+		return (Tuple<SRE, Integer>[]) new Tuple<?, ?>[length];
+	}
+}
@@ -16,10 +16,10 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import de.uni_stuttgart.beehts.analysis.SREMetrics;
 import de.uni_stuttgart.beehts.generator.DTMCGenerator;
 import de.uni_stuttgart.beehts.generator.SREGenerator;
 import de.uni_stuttgart.beehts.model.*;
-import de.uni_stuttgart.beehts.model.SRE.*;
 import de.uni_stuttgart.beehts.model.construction.*;
 import de.uni_stuttgart.beehts.transformation.Transformer;
 
@@ -186,59 +186,16 @@ public class Evaluation {
 	 *         number of nodes and y = number of edges.
 	 */
 	private static <T> Tuple<BigInteger, BigInteger> calculateSize(T model) {
-		try {
-			if (model instanceof SRE) {
-				SRE x = (SRE) model;
-				Map<SRE, Tuple<BigInteger, BigInteger>> size = new HashMap<>();
-
-				calculateSize(x, size);
-
-				return size.get(x);
-			} else if (model instanceof DTMC) {
-				DTMC x = (DTMC) model;
-				return new Tuple<>(BigInteger.valueOf(x.getNodes().size()), BigInteger.valueOf(x.getEdges().size()));
-			} else {
-				throw new IllegalArgumentException();
-			}
-		} catch (Throwable t) {
-			return new Tuple<>(BigInteger.valueOf(-1), BigInteger.valueOf(-1));
-		}
-	}
-
-	private static void calculateSize(SRE sre, Map<SRE, Tuple<BigInteger, BigInteger>> cache) {
-		if (cache.containsKey(sre)) {
-			return;
-		}
-		Tuple<BigInteger, BigInteger> size = new Tuple<>(BigInteger.valueOf(1), BigInteger.valueOf(1));
-		switch (sre.getType()) {
-		case ATOMIC:
-			break;
-		case CAT:
-			for (SRE sub : ((SREConcat) sre).getSubnodes()) {
-				calculateSize(sub, cache);
-				Tuple<BigInteger, BigInteger> subSize = cache.get(sub);
-				size.x = size.x.add(subSize.x);
-				size.y = size.y.add(subSize.y).add(BigInteger.valueOf(1));
-			}
-			break;
-		case SUM:
-			for (SRE sub : ((SRESum) sre).getSubnodes()) {
-				calculateSize(sub, cache);
-				Tuple<BigInteger, BigInteger> subSize = cache.get(sub);
-				size.x = size.x.add(subSize.x);
-				size.y = size.y.add(subSize.y).add(BigInteger.valueOf(2));
-			}
-			break;
-		case KLEENE:
-			SRE sub = ((SREKleene) sre).getChild();
-			calculateSize(sub, cache);
-			Tuple<BigInteger, BigInteger> subSize = cache.get(sub);
-			size = new Tuple<>(BigInteger.valueOf(1).add(subSize.x), BigInteger.valueOf(3).add(subSize.y));
-			break;
-		default:
+		if (model instanceof SRE) {
+			SREMetrics metrics = new SREMetrics((SRE) model);
+			return new Tuple<>(BigInteger.valueOf(metrics.getExpandedSize()),
+					BigInteger.valueOf(metrics.getTokenCount()));
+		} else if (model instanceof DTMC) {
+			DTMC x = (DTMC) model;
+			return new Tuple<>(BigInteger.valueOf(x.getNodes().size()), BigInteger.valueOf(x.getEdges().size()));
+		} else {
 			throw new IllegalArgumentException();
 		}
-		cache.put(sre, size);
 	}
 
 	private static Map<Integer, Set<Tuple<Tuple<BigInteger, BigInteger>, Double>>> processResultForSREDTMCSRETest(
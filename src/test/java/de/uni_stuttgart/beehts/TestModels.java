@@ -1,15 +1,47 @@
 package de.uni_stuttgart.beehts;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import de.uni_stuttgart.beehts.analysis.CompiledSRE;
+import de.uni_stuttgart.beehts.analysis.SREMetrics;
 import de.uni_stuttgart.beehts.model.DTMC;
+import de.uni_stuttgart.beehts.model.DTMC.Node;
 import de.uni_stuttgart.beehts.model.DTMCDelta;
 import de.uni_stuttgart.beehts.model.Delta;
+import de.uni_stuttgart.beehts.model.LazyDTMC;
 import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.SREAtomic;
+import de.uni_stuttgart.beehts.model.SRE.SREConcat;
+import de.uni_stuttgart.beehts.model.SRE.SRESum;
 import de.uni_stuttgart.beehts.model.SREDelta;
+import de.uni_stuttgart.beehts.model.Tuple;
 import de.uni_stuttgart.beehts.model.construction.DTMCParser;
+import de.uni_stuttgart.beehts.model.construction.PrismImporter;
 import de.uni_stuttgart.beehts.model.construction.SREBuilder;
+import de.uni_stuttgart.beehts.model.serialization.DTMCBinaryFormat;
+import de.uni_stuttgart.beehts.model.serialization.DTMCWriter;
+import de.uni_stuttgart.beehts.model.serialization.SREBinaryFormat;
+import de.uni_stuttgart.beehts.model.serialization.SREWriter;
+import de.uni_stuttgart.beehts.model.simplification.SRECanonicalizer;
+import de.uni_stuttgart.beehts.model.simplification.SRENormalizer;
+import de.uni_stuttgart.beehts.model.simplification.SRESimplifier;
+import de.uni_stuttgart.beehts.transformation.SRE2DTMCDelta;
+import de.uni_stuttgart.beehts.util.SREHelpers;
 
 public class TestModels {
 
@@ -26,6 +58,22 @@ public class TestModels {
 
 	}
 
+	@Test
+	public void parseDeepSRE() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			sb.append("(a : ");
+		}
+		sb.append("b");
+		for (int i = 0; i < 50000; i++) {
+			sb.append(")");
+		}
+		SRE sre = SREBuilder.parse(new StringReader(sb.toString()));
+		assertEquals(SRE.Type.CAT, sre.getType());
+		assertEquals(50001, sre.getChildren().length);
+		assertEquals("(((a : b)*0.2)[1] + c[2])", SREBuilder.parse(new StringReader("((a:b)*0.2)[1]+c[2]")).toString());
+	}
+
 	@Test
 	public void parseDTMC() {
 		// first syntax type
@@ -35,6 +83,141 @@ public class TestModels {
 		// second syntax type
 		DTMCParser.parse("0 \n 1 2 \n");
 		DTMCParser.parse("0 \n 2 \n 0 1 0.23 a \n 0 2 0.77 b \n 1 2 1 c");
+		DTMC dtmc = DTMCParser.parse("Idle\nDone\nIdle Done 1 x");
+		assertEquals("Idle", dtmc.getInitialNode().name);
+		assertEquals(2, dtmc.getNodes().size());
+		assertEquals(1, dtmc.getEdges().size());
+	}
+
+	@Test
+	public void parseDTMCFile() throws IOException {
+		String s = "0\r\n2\r\n0 1 0,25 a\r\n0 2 0.75\r\n1 2 1 c\r\n";
+		Path file = Files.createTempFile("dtmc", ".tra");
+		try {
+			Files.write(file, s.getBytes(StandardCharsets.US_ASCII));
+			DTMC dtmc = DTMCParser.fromFile(file);
+			assertEquals(1, dtmc.getFinalNodes().size());
+			assertEquals(3, dtmc.getEdges().size());
+			assertTrue(dtmc.getEdges().stream().anyMatch(e -> e.character.equals("a2") && e.getProbability() == 0.75));
+
+			Files.write(file, (s + "1 2 x c\n").getBytes(StandardCharsets.US_ASCII));
+			try {
+				DTMCParser.fromFile(file);
+				fail();
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().startsWith("Line 6:"));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void importPrism() throws IOException {
+		Path dir = Files.createTempDirectory("prism");
+		Path tra = dir.resolve("coin.tra"), lab = dir.resolve("coin.lab"), sta = dir.resolve("coin.sta");
+		try {
+			Files.write(tra, "4 6\n0 1 0.5\n0 2 0.5\n1 3 1\n2 1 0.25\n2 2 0.75\n3 3 1\n".getBytes(StandardCharsets.US_ASCII));
+			Files.write(lab, "0=\"init\" 1=\"deadlock\" 2=\"done\"\n0: 0\n1: 2\n3: 1 2\n".getBytes(StandardCharsets.US_ASCII));
+			Files.write(sta, "(s,c)\n0:(0,0)\n1:(1,0)\n2:(1,1)\n3:(2,1)\n".getBytes(StandardCharsets.US_ASCII));
+
+			DTMC dtmc = PrismImporter.fromFiles(tra);
+			assertEquals("0", dtmc.getInitialNode().name);
+			assertEquals(1, dtmc.getFinalNodes().size());
+			assertEquals("3", dtmc.getFinalNodes().iterator().next().name);
+			assertEquals(5, dtmc.getEdges().size());
+			Map<String, Double> edges = new HashMap<>();
+			dtmc.getEdges().forEach(e -> edges.put(e.from.name + " " + e.to.name + " " + e.character, e.getProbability()));
+			assertEquals(0.5, edges.get("0 1 done"), 0);
+			assertEquals(0.75, edges.get("2 2 1_1"), 0);
+			assertEquals(1, edges.get("1 3 done"), 0);
+
+			// the labelled states are final, even if they are not absorbing
+			dtmc = PrismImporter.fromFiles(tra, lab, null, "done");
+			assertEquals(1, dtmc.getFinalNodes().size());
+			assertEquals("1", dtmc.getFinalNodes().iterator().next().name);
+			assertEquals(4, dtmc.getEdges().size());
+
+			Files.write(tra, "4 6\n0 1 0.5\n0 4 0.5\n".getBytes(StandardCharsets.US_ASCII));
+			try {
+				PrismImporter.fromFiles(tra);
+				fail();
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().startsWith("coin.tra, line 3:"));
+			}
+			for (String probability : new String[] { "-0.5", "-5e-1", "NaN", "Infinity", "1e400", "0x1p-1", "0.5f" }) {
+				Files.write(tra, ("4 6\n0 1 0.5\n0 2 " + probability + "\n").getBytes(StandardCharsets.US_ASCII));
+				try {
+					PrismImporter.fromFiles(tra);
+					fail(probability);
+				} catch (IllegalArgumentException e) {
+					assertTrue(probability, e.getMessage().startsWith("coin.tra, line 3:"));
+				}
+			}
+		} finally {
+			for (Path file : new Path[] { tra, lab, sta, dir }) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	@Test
+	public void writeDTMC() throws IOException {
+		DTMC dtmc = DTMCParser.parse("s0\ns3\ns0 s1 0.5 a\ns0 s2 0.5 b\ns1 s3 1 c\ns2 s2 0.9999 b\ns2 s3 1.0e-4 c");
+		StringBuilder sb = new StringBuilder();
+		DTMCWriter.writeMatrix(dtmc, sb);
+		assertEquals(edges(dtmc), edges(DTMCParser.parse(sb.toString())));
+
+		Path dir = Files.createTempDirectory("prism");
+		Path tra = dir.resolve("model.tra"), lab = dir.resolve("model.lab");
+		try {
+			DTMCWriter.writePrism(dtmc, tra, lab);
+			assertTrue(Files.readAllLines(tra).get(0).equals("4 6"));
+			DTMC imported = PrismImporter.fromFiles(tra, lab, null, DTMCWriter.FINAL_LABEL);
+			assertEquals("0", imported.getInitialNode().name);
+			assertEquals(edges(dtmc), edges(imported));
+		} finally {
+			for (Path file : new Path[] { tra, lab, dir }) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	@Test
+	public void binaryDTMC() throws IOException {
+		DTMC dtmc = DTMCParser.parse("I: s0; F: s3; s0 --> s1 (\"ä\":0.5), s0 --> s2 (\"b\":0.5), s1 --> s3 (\"\":1.0), "
+				+ "s2 --> s2 (\"b\":0.25), s2 --> s3 (\"c\":0.75)");
+		Node unnamed = dtmc.addNode();
+		dtmc.addEdge(unnamed, dtmc.getInitialNode(), "d", 1);
+		Path file = Files.createTempFile("dtmc", ".bin");
+		try {
+			DTMCBinaryFormat.write(dtmc, file);
+			DTMC loaded = DTMCBinaryFormat.read(file);
+			assertEquals(dtmc.getNodes().size(), loaded.getNodes().size());
+			assertEquals("s0", loaded.getInitialNode().name);
+			assertEquals("s3", loaded.getFinalNodes().iterator().next().name);
+			assertEquals(edges(dtmc), edges(loaded));
+			assertTrue(loaded.getNodes().stream().anyMatch(n -> n.name == null));
+
+			Files.write(file, new byte[] { 'D', 'T', 'M', 'C', 0, 0, 0, 2 }, StandardOpenOption.WRITE);
+			try {
+				DTMCBinaryFormat.read(file);
+				fail();
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("version 2"));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * The probabilities of the edges by their characters.
+	 */
+	private static Map<String, Double> edges(DTMC dtmc) {
+		Map<String, Double> edges = new TreeMap<>();
+		dtmc.getEdges().forEach(e -> edges.merge(e.character, e.getProbability(), Double::sum));
+		return edges;
 	}
 
 	@Test
@@ -47,4 +230,278 @@ public class TestModels {
 		Delta<SRE> deltaSRE = SREDelta.parse(sre, "2 > (d[1] + e[3]):\\2");
 		sre = deltaSRE.applyChanges(sre);
 	}
+
+	@Test
+	public void parseDeltaScripts() throws IOException {
+		DTMC dtmc = DTMCParser.parse("0 \n 2 \n 0 1 0.23 a \n 0 2 0.77 b \n 1 2 1 c");
+		String script = "\n0 2 b > 0 2 0,5 b\n\n  + 0 0 0.27 d \n-1 2 c\n+1 2 1 e\n";
+		DTMC target = dtmc;
+		DTMCDelta.parse(new StringReader(script), dtmc, (e, t) -> {
+			if (t == DTMCDelta.Type.ADD) {
+				target.addEdge(e);
+			} else {
+				target.removeEdge(e);
+			}
+		});
+		Map<String, Double> expected = new HashMap<>();
+		expected.put("a", 0.23);
+		expected.put("b", 0.5);
+		expected.put("d", 0.27);
+		expected.put("e", 1.0);
+		assertEquals(expected, edges(dtmc));
+		try {
+			DTMCDelta.parse("+0 1 0.5 a\n0 1 a > 0 1 x a", dtmc);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Line 2, column 13:"));
+		}
+
+		SRE sre = SREBuilder.parse("((a:b)*0.2)[1]+c[2]");
+		SREDelta delta = SREDelta.parse(sre, new StringReader("\n 3 > \\5 : \\4\n"));
+		assertEquals(1, delta.getChanges().size());
+		assertSame(SREDelta.getByIndex(sre, 3), delta.getChanges().keySet().iterator().next());
+		assertEquals(SREBuilder.parse("b:a").toString(), delta.getChanges().values().iterator().next().toString());
+		try {
+			SREDelta.parse(sre, "1 > a\n9 > a");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Line 2, column 1:"));
+		}
+		try {
+			SREDelta.parse(sre, "1 > a:\\9");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Line 1, column 5:"));
+		}
+	}
+
+	@Test
+	public void cloneSRE() {
+		SRE shared = SREBuilder.parse("(a[1] + b[2])*0.5");
+		SRE sre = new SREConcat(shared, SREBuilder.atomic("c"), shared);
+		SREConcat copy = (SREConcat) sre.clone();
+		assertNotSame(sre, copy);
+		assertNotSame(shared, copy.getSubnodes()[0]);
+		assertSame(copy.getSubnodes()[0], copy.getSubnodes()[2]);
+		assertEquals(sre.toString(), copy.toString());
+	}
+
+	@Test
+	public void binarySRE() throws IOException {
+		SRE shared = SREBuilder.parse("(a[1] + \\e[2])*0.5");
+		SRE sre = new SREConcat(shared, SREBuilder.atomic("ä"), shared);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SREBinaryFormat.write(sre, out);
+		SREConcat copy = (SREConcat) SREBinaryFormat.read(new ByteArrayInputStream(out.toByteArray()));
+		assertSame(copy.getSubnodes()[0], copy.getSubnodes()[2]);
+		assertEquals(sre.toString(), copy.toString());
+
+		// the size depends on the number of distinct nodes only
+		SRE dag = SREBuilder.atomic("a");
+		for (int i = 0; i < 40; i++) {
+			dag = new SREConcat(dag, dag);
+		}
+		out.reset();
+		SREBinaryFormat.write(dag, out);
+		assertTrue(out.size() < 200);
+		SRE loaded = SREBinaryFormat.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(new SREMetrics(dag).getExpandedSize(), new SREMetrics(loaded).getExpandedSize());
+	}
+
+	@Test
+	public void writeSRE() {
+		SRE sre = SREBuilder.parse("((a:b)*0.2)[1]+c[2]");
+		assertEquals("(((a : b)*0.2)[1] + c[2])", sre.toString());
+		assertEquals("(...[1] + c[2])", new SREWriter(Long.MAX_VALUE, 0).print(sre));
+		assertEquals("(((a : b)*0.2)[1" + SREWriter.ELLIPSIS, new SREWriter(16, Integer.MAX_VALUE).print(sre));
+
+		SRE deep = SREBuilder.atomic("a");
+		for (int i = 0; i < 100000; i++) {
+			deep = new SREConcat(SREBuilder.atomic("b"), deep);
+		}
+		assertEquals(6 * 100000 + 1, deep.toString().length());
+	}
+
+	@Test
+	public void sreProbability() {
+		assertEquals(0.25, SREBuilder.parse("a[1] + b[3]").getProbability("a"), 1e-9);
+		assertEquals(0.5, SREBuilder.parse("a*0.5").getProbability(""), 1e-9);
+		assertEquals(0.125, SREBuilder.parse("a*0.5").getProbability("aa"), 1e-9);
+		assertEquals(0.125, SREBuilder.parse("a : b*0.5").getProbability("abb"), 1e-9);
+		assertEquals(0, SREBuilder.parse("a : b*0.5").getProbability("ba"), 1e-9);
+		// the child may produce the empty string: 0.5 / (1 - 0.5 * 0.5)
+		assertEquals(2. / 3, SREBuilder.parse("(a[1] + \\e[1])*0.5").getProbability(""), 1e-9);
+		// a is produced by one iteration and any number of empty iterations
+		assertEquals(2. / 9, SREBuilder.parse("(a[1] + \\e[1])*0.5").getProbability("a"), 1e-9);
+		// multi-character atomics are matched as a whole
+		assertEquals(0.5, SREBuilder.parse("(ab[1] + a[1]) : (b[1] + \\e[1])").getProbability("ab"), 1e-9);
+	}
+
+	@Test
+	public void compiledSRE() {
+		String[] sres = { "((a:b)*0.2)[1]+c[2]", "(a[1] + \\e[1])*0.5", "((a*0.3)*0.6) : b",
+				"(ab[1] + a[1]) : (b[1] + \\e[1])", "(a : (b[1] + c[3]))*0.7 : (c*0.1)" };
+		for (String s : sres) {
+			SRE sre = SREBuilder.parse(s);
+			CompiledSRE compiled = CompiledSRE.compile(sre);
+			for (String string : allStrings("abc", 4)) {
+				assertEquals(s + " / " + string, sre.getProbability(string), compiled.getProbability(string), 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void lazyDTMC() {
+		String[] sres = { "((a:b)*0.2)[1]+c[2]", "(a[1] + \\e[1])*0.5", "((a*0.3)*0.6) : b",
+				"(ab[1] + a[1]) : (b[1] + \\e[1])", "(a : (b[1] + c[3]))*0.7 : (c*0.1)" };
+		for (String s : sres) {
+			SRE sre = SREBuilder.parse(s);
+			LazyDTMC lazy = new LazyDTMC(sre, 2);
+			for (String string : allStrings("abc", 4)) {
+				assertEquals(s + " / " + string, sre.getProbability(string), lazy.getProbability(string), 1e-12);
+			}
+			assertTrue(lazy.getCachedStateCount() <= 2);
+			assertEquals(1, lazy.getPrefixProbability(""), 1e-12);
+		}
+		LazyDTMC lazy = new LazyDTMC(SREBuilder.parse("(a:b)[1] + (c:d*0.5)[2]"));
+		assertEquals(2. / 3, lazy.getPrefixProbability("c"), 1e-12);
+		assertEquals(1. / 3, lazy.getPrefixProbability("cd"), 1e-12);
+		assertEquals(0, lazy.getPrefixProbability("ad"), 1e-12);
+
+		// only the states along the String are created
+		SRE deep = SREBuilder.atomic("b");
+		for (int i = 0; i < 100000; i++) {
+			deep = new SREConcat(SREBuilder.atomic("a"), deep);
+		}
+		lazy = new LazyDTMC(deep);
+		assertEquals(1, lazy.getPrefixProbability("aaa"), 1e-12);
+		assertEquals(0, lazy.getProbability("aab"), 1e-12);
+		assertEquals(3, lazy.getCachedStateCount());
+	}
+
+	private static List<String> allStrings(String alphabet, int maxLength) {
+		List<String> strings = new ArrayList<>();
+		strings.add("");
+		for (int i = 0; i < strings.size(); i++) {
+			if (strings.get(i).length() < maxLength) {
+				for (char c : alphabet.toCharArray()) {
+					strings.add(strings.get(i) + c);
+				}
+			}
+		}
+		return strings;
+	}
+
+	@Test
+	public void simplifySRE() {
+		SRE sre = SREBuilder.parse("(a:b:c)[1] + (a:b:d)[2] + (e:c)[3] + (a[1] + e[1])[2]");
+		SRESimplifier simplifier = new SRESimplifier();
+		SRE simplified = simplifier.rewrite(sre);
+		assertEquals("((a : ((b : (c[1] + d[2]))[3] + [1]))[4] + (e : (c[3] + [1]))[4])", simplified.toString());
+		for (String string : allStrings("abcde", 4)) {
+			assertEquals(string, sre.getProbability(string), simplified.getProbability(string), 1e-12);
+		}
+		assertSame(simplified, simplifier.rewrite(simplified.clone()));
+	}
+
+	@Test
+	public void normalizeSRE() {
+		SRE sre = SREBuilder.parse("((a : ) : (b : c))[1] + (d[1] + (e[2] + f[4])[3])[8] + (g[1] + h[1])[3]");
+		SRE normalized = SRENormalizer.normalize(sre);
+		assertEquals("((a : b : c)[1] + d[2] + e[2] + f[4] + (g[1] + h[1])[3])", normalized.toString());
+		for (String string : allStrings("abcdefgh", 3)) {
+			assertEquals(string, sre.getProbability(string), normalized.getProbability(string), 1e-12);
+		}
+		assertSame(normalized, SRENormalizer.normalize(normalized));
+
+		SRE deep = new SREAtomic("a");
+		for (int i = 0; i < 100000; i++) {
+			deep = new SREConcat(deep, new SREAtomic("b"));
+		}
+		normalized = SRENormalizer.normalize(deep);
+		assertEquals(100001, normalized.getChildren().length);
+		assertEquals(0, normalized.getChildren()[100000].getChildren().length);
+
+		// shared subexpressions are not inlined into every parent
+		SRE concat = new SREAtomic("a"), sum = new SREAtomic("b");
+		for (int i = 0; i < 26; i++) {
+			concat = new SREConcat(concat, concat);
+			sum = new SRESum(new Tuple<>(sum, 1), new Tuple<>(sum, 1));
+		}
+		normalized = SRENormalizer.normalize(new SREConcat(concat, sum));
+		assertEquals(3, normalized.getChildren().length);
+		assertEquals(54, SREHelpers.postOrder(normalized).size());
+		assertEquals(27, SREHelpers.postOrder(new SRECanonicalizer(concat).getCanonicalSRE()).size());
+	}
+
+	@Test
+	public void canonicalizeSRE() {
+		SRE sre = SREBuilder.parse("(a : (b[1] + c[2])*0.5)[2] + d[4] + (e : )[6]");
+		SRE permuted = SREBuilder.parse("(e[3] + d[2] + ((c[4] + b[2])*0.5 : a)[0])[5] + (a : ((c[4] + b[2])*0.5))[1]");
+		SRECanonicalizer canonicalizer = new SRECanonicalizer(sre);
+		assertEquals(canonicalizer.getDigest(), new SRECanonicalizer(permuted).getDigest());
+		assertEquals(canonicalizer.getDigest(), new SRECanonicalizer(canonicalizer.getCanonicalSRE()).getDigest());
+		assertEquals(32, canonicalizer.getDigest().toString().length());
+		assertNotEquals(canonicalizer.getDigest(),
+				new SRECanonicalizer(SREBuilder.parse("(a : (b[1] + c[2])*0.5)[2] + d[4] + e[5]")).getDigest());
+
+		SRE canonical = canonicalizer.getCanonicalSRE();
+		for (String string : allStrings("abcde", 4)) {
+			assertEquals(string, sre.getProbability(string), canonical.getProbability(string), 1e-12);
+		}
+
+		// sums that become compatible after merging their alternatives are flattened
+		assertEquals(new SRECanonicalizer(SREBuilder.parse("x[1] + a[1] + b[1]")).getDigest(),
+				new SRECanonicalizer(SREBuilder.parse("x[1] + (a[1] + a[1] + b[2])[2]")).getDigest());
+		assertEquals(new SRECanonicalizer(SREBuilder.parse("x[2] + a[1] + b[1]")).getDigest(),
+				new SRECanonicalizer(SREBuilder.parse("x[2] + (a[1] + b[1])[1] + (b[1] + a[1])[1]")).getDigest());
+		for (String s : new String[] { "x[1] + (a[1] + a[1] + b[2])[2]", "(y[1] + (a[1] + b[1])[1])[3] + (z : )[3]",
+				"x[2] + (a[1] + b[1])[1] + (b[1] + a[1])[1]", "((a : b) : c)[2] + (d[1] + (a : b : c)[1])[4]" }) {
+			canonical = new SRECanonicalizer(SREBuilder.parse(s)).getCanonicalSRE();
+			SRE twice = new SRECanonicalizer(canonical).getCanonicalSRE();
+			assertEquals(s, canonical.toString(), twice.toString());
+		}
+
+		// the digest does not depend on shared subexpressions
+		SRE shared = SREBuilder.parse("a : b");
+		assertEquals(new SRECanonicalizer(SREBuilder.parse("a : b : c : a : b")).getDigest(),
+				new SRECanonicalizer(new SREConcat(shared, new SREAtomic("c"), shared)).getDigest());
+		shared = SREBuilder.parse("a[1] + b[1]");
+		assertEquals(new SRECanonicalizer(SREBuilder.parse("a[1] + b[1] + ((a[1] + b[1]) : (a[1] + b[1]))[1]")).getDigest(),
+				new SRECanonicalizer(new SRESum(new Tuple<>(shared, 2), new Tuple<>(new SREConcat(shared, shared), 1)))
+						.getDigest());
+	}
+
+	@Test
+	public void sreMetrics() {
+		SRE sre = SREBuilder.parse("(a : (b[1] + c[2])*0.5)[2] + d[4]");
+		SREMetrics metrics = new SREMetrics(sre);
+		assertEquals(4, metrics.getAtomicCount());
+		assertEquals(4, metrics.getOperatorCount());
+		assertEquals(8, metrics.getExpandedSize());
+		assertEquals(8, metrics.getDistinctNodeCount());
+		assertEquals(5, metrics.getDepth());
+		DTMC dtmc = new SRE2DTMCDelta(sre).getTransformed();
+		assertEquals(dtmc.getNodes().size(), metrics.getProjectedDTMCNodeCount());
+		assertEquals(dtmc.getEdges().size(), metrics.getProjectedDTMCEdgeCount());
+
+		SRE shared = new SREAtomic("a");
+		for (int i = 0; i < 100; i++) {
+			shared = new SREConcat(shared, shared);
+		}
+		metrics = new SREMetrics(shared);
+		assertEquals(101, metrics.getDistinctNodeCount());
+		assertEquals(101, metrics.getDepth());
+		assertEquals(Long.MAX_VALUE, metrics.getAtomicCount());
+		assertEquals(Long.MAX_VALUE, metrics.getProjectedDTMCEdgeCount());
+
+		SRE deep = new SREAtomic("a");
+		for (int i = 0; i < 100000; i++) {
+			deep = new SREConcat(deep, new SREAtomic("b"));
+		}
+		metrics = new SREMetrics(deep);
+		assertEquals(100001, metrics.getDepth());
+		assertEquals(100001, metrics.getAtomicCount());
+		assertEquals(200001, metrics.getExpandedSize());
+	}
 }
@@ -1,10 +1,29 @@
 package de.uni_stuttgart.beehts;
 
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
 import org.junit.Test;
 
+import de.uni_stuttgart.beehts.analysis.SREMetrics;
 import de.uni_stuttgart.beehts.model.*;
+import de.uni_stuttgart.beehts.model.DTMC.Edge;
+import de.uni_stuttgart.beehts.model.DTMC.Node;
+import de.uni_stuttgart.beehts.model.SRE.*;
 import de.uni_stuttgart.beehts.model.construction.*;
+import de.uni_stuttgart.beehts.model.serialization.DTMCWriter;
+import de.uni_stuttgart.beehts.transformation.SRE2DTMCDelta;
+import de.uni_stuttgart.beehts.transformation.SRE2DTMCGlushkov;
+import de.uni_stuttgart.beehts.transformation.SRE2DTMCTransformer;
+import de.uni_stuttgart.beehts.transformation.SRE2HierarchicalDTMC;
 import de.uni_stuttgart.beehts.transformation.Transformer;
+import de.uni_stuttgart.beehts.util.SREHelpers;
 
 public class TestTransformation {
 
@@ -30,4 +49,377 @@ public class TestTransformation {
 		
 		System.out.println(d2s.getTransformed());
 	}
+
+	@Test
+	public void testSREDiff() {
+		String[][] edits = { { "(a:b)[1] + (c:d*0.5)[2]", "(a:e:b)[1] + (c:d*0.5)[2]", "1" },
+				{ "(a:b)[1] + (c:d*0.5)[2]", "(a:b)[1] + (c:d*0.7)[2]", "1" }, { "a:b", "(a:b)*0.5", "1" },
+				{ "x[1] + (y:z)[2]", "(y:z)[1] + x[1]", "1" }, { "a", "b", "1" },
+				{ "x[1] + (y:z)[2]", "x[3] + (y:z)[2]", "1" } };
+		for (String[] edit : edits) {
+			SRE original = SREBuilder.parse(edit[0]);
+			SRE target = SREBuilder.parse(edit[1]);
+			SREDelta delta = SREDiff.diff(original, target);
+			assertEquals(Integer.parseInt(edit[2]), delta.getChanges().size()
+					+ delta.getRepetitionRateChanges().size() + delta.getSumRateChanges().size());
+
+			Transformer<SRE, DTMC> s2d = Transformer.getNewTransformer(original);
+			s2d.applyDelta(delta);
+			assertEquals(target.toString(), s2d.getOriginal().toString());
+			for (String string : new String[] { "", "ab", "aeb", "abab", "cd", "cdd", "x", "yz", "a", "b" }) {
+				assertEquals(edit[1] + " " + string, target.getProbability(string),
+						probability(s2d.getTransformed(), string), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testRateDelta() {
+		SRE sre = SREBuilder.parse("((a:b)*0.2)[1]+c[2]+d[1]");
+		SRE target = SREBuilder.parse("((a:b)*0.6)[3]+c[2]+d[1]");
+		SREDelta delta = SREDiff.diff(sre, target);
+		assertEquals(0, delta.getChanges().size());
+		assertEquals(1, delta.getRepetitionRateChanges().size());
+		assertEquals(1, delta.getSumRateChanges().size());
+
+		Transformer<SRE, DTMC> s2d = Transformer.getNewTransformer(sre);
+		int nodes = s2d.getTransformed().getNodes().size(), edges = s2d.getTransformed().getEdges().size();
+		DTMCDelta result = (DTMCDelta) s2d.applyDelta(delta);
+		// only the edges of the star and the choices of the sum are changed
+		assertEquals(5, result.getAddedEdges().size());
+		assertEquals(5, result.getRemovedEdges().size());
+		assertEquals(nodes, s2d.getTransformed().getNodes().size());
+		assertEquals(edges, s2d.getTransformed().getEdges().size());
+		assertEquals(target.toString(), s2d.getOriginal().toString());
+		for (String string : new String[] { "", "ab", "abab", "c", "d", "ababab" }) {
+			assertEquals(string, target.getProbability(string), probability(s2d.getTransformed(), string), 1e-9);
+		}
+
+		// the rate of a star and its child change at once
+		SREKleene kleene = (SREKleene) SREDelta.getByIndex(s2d.getOriginal(), 2);
+		delta = new SREDelta();
+		delta.addRateChange(kleene, 0.5);
+		delta.addChange(kleene.getChild(), SREBuilder.parse("e"));
+		result = (DTMCDelta) s2d.applyDelta(delta);
+		for (Edge e : result.getAddedEdges()) {
+			assertTrue(s2d.getTransformed().getEdges().contains(e));
+		}
+		for (Edge e : result.getRemovedEdges()) {
+			assertTrue(result.getAddedEdges().contains(e) || !s2d.getTransformed().getEdges().contains(e));
+		}
+		target = SREBuilder.parse("((e)*0.5)[3]+c[2]+d[1]");
+		for (String string : new String[] { "", "e", "ee", "ab", "c", "d" }) {
+			assertEquals(string, target.getProbability(string), probability(s2d.getTransformed(), string), 1e-9);
+		}
+
+		// the rates of shared subexpressions change in all of their occurrences
+		SREKleene k = new SREKleene(new SREAtomic("a"), 0.5);
+		sre = new SRESum(new Tuple<>(new SREConcat(k, new SREAtomic("b")), 1),
+				new Tuple<>(new SREConcat(new SREAtomic("c"), k), 1));
+		s2d = Transformer.getNewTransformer(sre);
+		delta = new SREDelta();
+		delta.addRateChange(k, 0.2);
+		s2d.applyDelta(delta);
+		assertEquals(0.08, sre.getProbability("ab"), 1e-9);
+		for (String string : new String[] { "b", "ab", "aab", "c", "ca", "caa" }) {
+			assertEquals(string, sre.getProbability(string), probability(s2d.getTransformed(), string), 1e-9);
+		}
+		SRE x = new SREAtomic("a");
+		SRESum sum = new SRESum(new Tuple<>(x, 1), new Tuple<>(new SREAtomic("b"), 1));
+		sre = new SREConcat(sum, x);
+		s2d = Transformer.getNewTransformer(sre);
+		delta = new SREDelta();
+		delta.addRateChange(sum, new int[] { 3, 1 });
+		s2d.applyDelta(delta);
+		for (String string : new String[] { "aa", "ba", "a", "b" }) {
+			assertEquals(string, sre.getProbability(string), probability(s2d.getTransformed(), string), 1e-9);
+		}
+
+		// a changed shared child is not changed itself, but its parent is replaced
+		k = new SREKleene(new SREAtomic("a"), 0.5);
+		sre = new SREConcat(k, new SREAtomic("b"), k);
+		target = SREBuilder.parse("(a*0.5):b:(a*0.2)");
+		delta = SREDiff.diff(sre, target);
+		assertEquals(0, delta.getRepetitionRateChanges().size());
+		assertEquals(1, delta.getChanges().size());
+		s2d = Transformer.getNewTransformer(sre);
+		s2d.applyDelta(delta);
+		for (String string : new String[] { "b", "ab", "ba", "aba", "abaa" }) {
+			assertEquals(string, target.getProbability(string), probability(s2d.getTransformed(), string), 1e-9);
+		}
+	}
+
+	@Test
+	public void testSRE2DTMCTransformer() {
+		String[] sres = { "a", "a:b:c", "a[1] + a[2]", "(a:b)[1] + (c:d*0.5)[2]", "((a[1] + b[3])*0.4):c",
+				"(a*0.5)*0.5", "((a:b)*0.2)[1]+c[2]", "(a:(b*0.3))[1] + (\\e)[1]" };
+		for (String s : sres) {
+			SRE sre = SREBuilder.parse(s);
+			DTMC dtmc = new SRE2DTMCTransformer(sre).getTransformed();
+			for (String string : new String[] { "", "a", "aa", "ab", "abc", "abb", "cd", "cdd", "bbc", "c" }) {
+				assertEquals(s + " " + string, sre.getProbability(string), probability(dtmc, string), 1e-9);
+			}
+		}
+
+		StringBuilder sb = new StringBuilder("a");
+		for (int i = 0; i < 20000; i++) {
+			sb.append(":a");
+		}
+		DTMC dtmc = new SRE2DTMCTransformer(SREBuilder.parse(sb.toString())).getTransformed();
+		assertEquals(20002, dtmc.getNodes().size());
+		assertEquals(20001, dtmc.getEdges().size());
+	}
+
+	@Test
+	public void testSRE2DTMCPrism() throws IOException {
+		SRE sre = SREBuilder.parse("((a:b)*0.2)[1]+(c:\\e)[2]");
+		DTMC dtmc = Transformer.getNewTransformer(sre).getTransformed();
+		assertTrue(dtmc.getEdges().stream().anyMatch(e -> e.character.isEmpty()));
+		Path dir = Files.createTempDirectory("prism");
+		Path tra = dir.resolve("sre.tra"), lab = dir.resolve("sre.lab");
+		try {
+			DTMCWriter.writePrism(dtmc, tra, lab);
+			DTMC imported = PrismImporter.fromFiles(tra, lab, null, DTMCWriter.FINAL_LABEL);
+			for (String string : new String[] { "", "ab", "abab", "c", "a", "ba" }) {
+				assertEquals(string, sre.getProbability(string), probability(imported, string), 1e-9);
+			}
+		} finally {
+			for (Path file : new Path[] { tra, lab, dir }) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	@Test
+	public void testSRE2DTMCMatrix() throws IOException {
+		SRE sre = SREBuilder.parse("((a:b)*0.2)[1]+(c:\\e)[2]");
+		DTMC dtmc = new SRE2DTMCDelta(sre).getTransformed();
+		StringBuilder sb = new StringBuilder();
+		DTMCWriter.writeMatrix(dtmc, sb);
+		DTMC parsed = DTMCParser.parse(sb.toString());
+		for (String string : new String[] { "", "ab", "abab", "c", "a", "ba" }) {
+			assertEquals(string, sre.getProbability(string), probability(parsed, string), 1e-9);
+		}
+	}
+
+	@Test
+	public void testSRE2DTMCGlushkov() {
+		String[] sres = { "a", "a:b:c", "a[1] + a[2]", "(a:b)[1] + (c:d*0.5)[2]", "((a[1] + b[3])*0.4):c",
+				"(a*0.5)*0.5", "((a:b)*0.2)[1]+c[2]", "(a:(b*0.3))[1] + (\\e)[1]", "(a[1] + \\e[1])*0.5:b" };
+		for (String s : sres) {
+			SRE sre = SREBuilder.parse(s);
+			DTMC dtmc = new SRE2DTMCGlushkov(sre).getTransformed();
+			for (String string : new String[] { "", "a", "aa", "ab", "abc", "abb", "cd", "cdd", "bbc", "c", "b" }) {
+				assertEquals(s + " " + string, sre.getProbability(string), probability(dtmc, string), 1e-9);
+			}
+			// empty edges only lead to the final node
+			for (Edge e : dtmc.getEdges()) {
+				assertTrue(s, !e.character.isEmpty() || dtmc.getFinalNodes().contains(e.to));
+			}
+		}
+
+		// the initial node, the final node (for b) and a node for a, c and d,
+		// which may be left by an empty edge, as d*0.5 may be empty
+		DTMC dtmc = new SRE2DTMCGlushkov(SREBuilder.parse("(a:b)[1] + (c:d*0.5)[2]")).getTransformed();
+		assertEquals(5, dtmc.getNodes().size());
+		assertEquals(7, dtmc.getEdges().size());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSRE2HierarchicalDTMC() {
+		// x is shared by both branches and twice in the first one, y by z and
+		// the second branch
+		SRE x = new SRESum(new Tuple<>(new SREAtomic("a"), 1), new Tuple<>(new SREAtomic(""), 1));
+		SRE y = new SREKleene(new SREConcat(x, new SREAtomic("b")), 0.5);
+		SRE z = new SREConcat(x, x, y);
+		SRE sre = new SRESum(new Tuple<>(z, 1), new Tuple<>(new SREConcat(y, x, new SREAtomic("c")), 2));
+		HierarchicalDTMC hierarchical = new SRE2HierarchicalDTMC(sre).getTransformed();
+		assertEquals(3, hierarchical.getComponentCount());
+		DTMC flat = hierarchical.flatten();
+		for (String string : new String[] { "", "a", "aa", "ab", "aab", "abab", "bb", "c", "ac", "bc", "abac",
+				"aabbab", "ca" }) {
+			assertEquals(string, sre.getProbability(string), hierarchical.getProbability(string), 1e-9);
+			assertEquals(string, sre.getProbability(string), probability(flat, string), 1e-9);
+		}
+
+		// the DTMC of every level calls the one below twice
+		SRE doubled = new SRESum(new Tuple<>(new SREAtomic("a"), 1), new Tuple<>(new SREAtomic("b"), 1));
+		for (int i = 0; i < 40; i++) {
+			doubled = new SREConcat(doubled, doubled);
+		}
+		hierarchical = new SRE2HierarchicalDTMC(doubled).getTransformed();
+		assertEquals(41, hierarchical.getComponentCount());
+		assertEquals(122, hierarchical.getNodeCount());
+		assertEquals(0, hierarchical.getProbability("ab"), 0);
+
+		// x may be empty, so b, ab and aab are produced
+		sre = new SREConcat(x, x, new SREAtomic("b"));
+		hierarchical = new SRE2HierarchicalDTMC(sre).getTransformed();
+		Random random = new Random(42);
+		Map<String, Integer> counts = new HashMap<>();
+		int samples = 20000;
+		for (int i = 0; i < samples; i++) {
+			counts.merge(hierarchical.sample(random), 1, Integer::sum);
+		}
+		assertEquals(0.25, counts.getOrDefault("b", 0) / (double) samples, 0.02);
+		assertEquals(0.5, counts.getOrDefault("ab", 0) / (double) samples, 0.02);
+		assertEquals(0.25, counts.getOrDefault("aab", 0) / (double) samples, 0.02);
+	}
+
+	@Test
+	public void testSRECompiler() {
+		String[] sres = { "a", "a:b:c", "a[1] + a[2]", "(a:b)[1] + (c:d*0.5)[2]", "((a[1] + b[3])*0.4):c",
+				"(a*0.5)*0.5", "((a:b)*0.2)[1]+c[2]", "(a:(b*0.3))[1] + (\\e)[1]", "(a[1] + \\e[1])*0.5:b",
+				"a*0.5:b*0.5" };
+		for (String s : sres) {
+			SRE sre = SREBuilder.parse(s);
+			CompactDTMC compiled = SRECompiler.compile(s);
+			DTMC dtmc = compiled.toDTMC();
+			for (String string : new String[] { "", "a", "aa", "ab", "abc", "abb", "cd", "cdd", "bbc", "c", "b" }) {
+				assertEquals(s + " " + string, sre.getProbability(string), probability(dtmc, string), 1e-9);
+			}
+		}
+
+		// concatenations do not need empty edges
+		CompactDTMC compiled = SRECompiler.compile("a:b:c");
+		assertEquals(4, compiled.getNodeCount());
+		assertEquals(3, compiled.getEdgeCount());
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			sb.append("((a:");
+		}
+		sb.append("b");
+		for (int i = 0; i < 50000; i++) {
+			sb.append(")[1] + b[1])");
+		}
+		compiled = SRECompiler.compile(sb.toString());
+		// an a, a b and two empty edges for each sum
+		assertEquals(200001, compiled.getEdgeCount());
+		assertEquals(0.5, probability(compiled.toDTMC(), "b"), 1e-9);
+		assertEquals(0.125, probability(compiled.toDTMC(), "aab"), 1e-9);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testDeepSRE2DTMC() {
+		SRE sre = new SREAtomic("b");
+		for (int i = 0; i < 50000; i++) {
+			sre = new SRESum(new Tuple<>(new SREConcat(new SREAtomic("a"), sre), 1), new Tuple<>(new SREAtomic("b"), 1));
+		}
+		Transformer<SRE, DTMC> s2d = Transformer.getNewTransformer(sre);
+		assertEquals(new SREMetrics(sre).getProjectedDTMCNodeCount(), s2d.getTransformed().getNodes().size());
+		assertEquals(0.5, probability(s2d.getTransformed(), "b"), 1e-9);
+		assertEquals(0.125, probability(s2d.getTransformed(), "aab"), 1e-9);
+
+		// replace the first a
+		s2d.applyDelta(SREDelta.parse(sre, "3 > c"));
+		assertEquals(0.25, probability(s2d.getTransformed(), "cb"), 1e-9);
+		assertEquals(0, probability(s2d.getTransformed(), "ab"), 1e-9);
+
+		// every occurrence of a shared subexpression gets its own fragment
+		SRE x = new SREAtomic("a");
+		SRE k = new SREKleene(new SREAtomic("a"), 0.5);
+		SRE[] dags = { new SREConcat(x, x), new SRESum(new Tuple<>(x, 1), new Tuple<>(x, 1)),
+				new SREConcat(k, new SREAtomic("b"), k),
+				new SRESum(new Tuple<>(new SREConcat(k, k), 1), new Tuple<>(new SREConcat(k, new SREAtomic("b")), 2)) };
+		for (SRE dag : dags) {
+			s2d = Transformer.getNewTransformer(dag);
+			for (String string : new String[] { "", "a", "aa", "aaa", "b", "ab", "aba", "abaa" }) {
+				assertEquals(dag + " " + string, dag.getProbability(string), probability(s2d.getTransformed(), string),
+						1e-9);
+			}
+		}
+
+		// all occurrences of a shared subexpression are replaced
+		SRE shared = new SRESum(new Tuple<>(new SREAtomic("a"), 1), new Tuple<>(new SREAtomic("b"), 1));
+		sre = new SREConcat(shared, new SREKleene(shared, 0.5));
+		s2d = Transformer.getNewTransformer(sre);
+		SREDelta delta = new SREDelta();
+		delta.addChange(shared, SREBuilder.parse("c:d"));
+		s2d.applyDelta(delta);
+		assertEquals(0.25, probability(s2d.getTransformed(), "cdcd"), 1e-9);
+		assertEquals(0, probability(s2d.getTransformed(), "ab"), 1e-9);
+		assertEquals(s2d.getOriginal().getProbability("cd"), probability(s2d.getTransformed(), "cd"), 1e-9);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testParallelSRE2DTMC() {
+		// a balanced tree with about 40000 nodes and a deep chain
+		SRE[] level = new SRE[16384];
+		for (int i = 0; i < level.length; i++) {
+			level[i] = new SREAtomic(i % 2 == 0 ? "a" : "b");
+		}
+		for (int n = level.length / 2; n >= 1; n /= 2) {
+			for (int i = 0; i < n; i++) {
+				level[i] = i % 2 == 0 ? new SREConcat(level[2 * i], level[2 * i + 1])
+						: new SRESum(new Tuple<>(level[2 * i], 1), new Tuple<>(new SREKleene(level[2 * i + 1], 0.5), 2));
+			}
+		}
+		SRE chain = new SREAtomic("b");
+		for (int i = 0; i < 20000; i++) {
+			chain = new SRESum(new Tuple<>(new SREConcat(new SREAtomic("a"), chain), 1), new Tuple<>(new SREAtomic("b"), 1));
+		}
+
+		// a large subexpression that occurs twice is stitched in twice
+		SRE shared = new SREConcat(level[0], new SREAtomic("c"), level[0]);
+
+		for (SRE sre : new SRE[] { level[0], chain, shared }) {
+			DTMC sequential = new SRE2DTMCDelta(sre).getTransformed();
+			Transformer<SRE, DTMC> s2d = new SRE2DTMCDelta(sre, true);
+			assertEquals(sequential.getNodes().size(), s2d.getTransformed().getNodes().size());
+			assertEquals(sequential.getEdges().size(), s2d.getTransformed().getEdges().size());
+			for (String string : new String[] { "b", "ab", "aab", "bcb", "abcab" }) {
+				assertEquals(probability(sequential, string), probability(s2d.getTransformed(), string), 1e-9);
+			}
+		}
+
+		// deltas find the fragments built in parallel
+		Transformer<SRE, DTMC> s2d = new SRE2DTMCDelta(chain, true);
+		s2d.applyDelta(SREDelta.parse(chain, "3 > c"));
+		assertEquals(0.25, probability(s2d.getTransformed(), "cb"), 1e-9);
+		assertEquals(0, probability(s2d.getTransformed(), "ab"), 1e-9);
+
+		// rate changes reach every occurrence of a part that was stitched in twice
+		SREKleene kleene = (SREKleene) SREHelpers.postOrder(shared).stream()
+				.filter(n -> n.getType() == SRE.Type.KLEENE).findFirst().get();
+		s2d = new SRE2DTMCDelta(shared, true);
+		SREDelta delta = new SREDelta();
+		delta.addRateChange(kleene, 0.2);
+		s2d.applyDelta(delta);
+		DTMC sequential = new SRE2DTMCDelta(shared).getTransformed();
+		for (String string : new String[] { "bcb", "abcab", "bbcbb" }) {
+			assertEquals(probability(sequential, string), probability(s2d.getTransformed(), string), 1e-9);
+		}
+	}
+
+	/**
+	 * Calculate the probability of a String in a DTMC by pushing the
+	 * probability mass through the DTMC until it has (almost) left it.
+	 */
+	private static double probability(DTMC dtmc, String string) {
+		double result = 0;
+		Map<Tuple<Node, Integer>, Double> mass = new HashMap<>();
+		mass.put(new Tuple<>(dtmc.getInitialNode(), 0), 1.);
+		for (int step = 0; step < 10000 && !mass.isEmpty(); step++) {
+			Map<Tuple<Node, Integer>, Double> next = new HashMap<>();
+			for (Map.Entry<Tuple<Node, Integer>, Double> e : mass.entrySet()) {
+				Node n = e.getKey().x;
+				int pos = e.getKey().y;
+				if (dtmc.getFinalNodes().contains(n) && pos == string.length()) {
+					result += e.getValue();
+				}
+				for (Edge edge : dtmc.getOutgoingEdges(n)) {
+					if (string.startsWith(edge.character, pos) && e.getValue() * edge.getProbability() > 1e-15) {
+						next.merge(new Tuple<>(edge.to, pos + edge.character.length()),
+								e.getValue() * edge.getProbability(), Double::sum);
+					}
+				}
+			}
+			mass = next;
+		}
+		return result;
+	}
 }
@@ -1,10 +1,17 @@
 package de.uni_stuttgart.beehts;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
+import de.uni_stuttgart.beehts.model.SRE;
+import de.uni_stuttgart.beehts.model.SRE.SREAtomic;
+import de.uni_stuttgart.beehts.model.SRE.SREConcat;
+import de.uni_stuttgart.beehts.model.construction.SREBuilder;
 import de.uni_stuttgart.beehts.util.MathHelpers;
+import de.uni_stuttgart.beehts.util.ParallelSREFold;
 
 public class TestUtil {
 
@@ -13,4 +20,37 @@ public class TestUtil {
 		assertEquals(2, MathHelpers.gcd(6, 10));
 		assertEquals(18, MathHelpers.lcm(6, 9));
 	}
+
+	@Test
+	public void testParallelFold() {
+		SRE sre = SREBuilder.parse("(a : (b[1] + c[2])*0.5)[2] + (d : e : f)[4]");
+		assertEquals(sre.toString(), ParallelSREFold.clone(sre).toString());
+
+		// a degenerate tree with a wide node at its bottom
+		SRE deep = new SREConcat(new SREAtomic("x"), sre, new SREAtomic("y"));
+		for (int i = 0; i < 100000; i++) {
+			deep = new SREConcat(deep, i % 2 == 0 ? sre : new SREAtomic("b"));
+		}
+		ParallelSREFold<Long> atomics = new ParallelSREFold<>((node, children) -> node.getType() == SRE.Type.ATOMIC
+				? 1L : children.stream().mapToLong(Long::longValue).sum(), 100, new ForkJoinPool(4));
+		assertEquals(6 * 50001 + 2 + 50000, (long) atomics.apply(deep));
+
+		SRE shared = new SREAtomic("a");
+		for (int i = 0; i < 60; i++) {
+			shared = new SREConcat(shared, shared);
+		}
+		SRE clone = ParallelSREFold.clone(shared);
+		assertNotSame(shared, clone);
+		assertSame(clone.getChildren()[0], clone.getChildren()[1]);
+		assertEquals(1L << 60, (long) atomics.apply(shared));
+
+		// a flat node with many small children, some of them shared
+		SRE[] children = new SRE[100000];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = i % 3 == 0 ? sre : new SREAtomic("c");
+		}
+		SRE wide = new SREConcat(children);
+		assertEquals(6 * 33334 + 66666, (long) atomics.apply(wide));
+		assertEquals(wide.toString(), ParallelSREFold.clone(wide).toString());
+	}
 }